@@ -7,8 +7,12 @@ Java client (referred to as Client A or Client B).
    - The Go server listens for incoming client connections on port `9000`. Only one client connection is allowed at a time..
 
 2. **Client Communication**:
-   - When a client connects, it sends a message to the Go server through a TCP socket.
-   - The Go server processes the messages, including commands like `getInfo` (used to request WebRTC connection details).
+   - When a client connects, it sends messages to the Go server through a TCP socket.
+   - Every message is a frame: a 4 byte big-endian length followed by the JSON message.
+   - Requests carry an `id` that the reply echoes, so the client can have many requests in flight. Each request is
+     processed in its own goroutine and replies are written in the order they complete.
+   - The Go server processes the messages, including commands like `getInfo` (used to request WebRTC connection details)
+     and `connect` (acknowledged with an `ack`).
 
 3. **WebRTC Setup**:
    - Upon receiving a `getInfo` message, the Go server initializes a WebRTC `PeerConnection` to handle the media connection between two clients (Client A and Client B).
@@ -21,10 +25,15 @@ Java client (referred to as Client A or Client B).
 
 5. **Message Handling**:
    - The Go server supports handling different types of messages, like `getInfo` (for connection info), and responds accordingly.
+   - A `getInfo` without a target peer gathers an offer for the Java Client's offer pool. The reply names the offer in
+     `from`; `bind` later ties the offer to a peer and `release` discards an offer that went unused.
    - Error messages are also sent if any part of the process (e.g., creating the PeerConnection, setting the SDP, etc.) fails.
 
 6. **Thread Safety**:
    - A mutex (`clientMutex`) is used to ensure thread-safe access to the single client connection (`clientConn`) in the event of multiple simultaneous connections.
+     It also guards the PeerConnection maps. It is never held across WebRTC calls such as offer creation, so
+     concurrent `getInfo` requests gather side by side; the connection is copied under it before writing.
+   - A second mutex (`writeMutex`) keeps frames written from concurrent goroutines whole.
    - Only one client can be connected at a time, and attempts to connect while another client is already connected are rejected.
 
 The goal of this Go server is to facilitate the creation of a secure WebRTC connection between Java clients via WebSocket and peer-to-peer WebRTC signaling.
@@ -34,6 +43,7 @@ The goal of this Go server is to facilitate the creation of a secure WebRTC conn
 /*
 Message structure:
 {
+    "id": 7,             // Correlation ID, echoed in the reply (omitted when nobody waits for a reply)
     "type": "string",    // Type of message, e.g., "getInfo", "error", "connectionInfo"
     "from": "string",    // Sender ID (Java Client)
     "to": "string",      // Receiver ID (target peer)
@@ -44,7 +54,11 @@ Message structure:
 package main
 
 import (
+	"bufio"
+	"encoding/binary"
 	"encoding/json"
+	"fmt"
+	"io"
 	"log"
 	"net"
 	"sync"
@@ -54,16 +68,23 @@ import (
 
 var (
 	peerConnections = make(map[string]*webrtc.PeerConnection) // Tracks active PeerConnections
-	clientMutex     sync.Mutex                                // Mutex for thread-safe access
+	clientMutex     sync.Mutex                                // Guards clientConn and the PeerConnection maps
 	clientConn      net.Conn                                  // Singleton client connection
+	writeMutex      sync.Mutex                                // Keeps frames to the client whole
+	pooledOffers    = make(map[string]*webrtc.PeerConnection) // Offers gathered before their peer is known, by offer ID
+	nextOfferID     uint64                                    // Numbers the pooled offers, guarded by clientMutex
 )
 
+// Largest frame accepted from the Java Client
+const maxFrameLength = 1 << 20
+
 // Message structure for communication
 type Message struct {
-	Type    string `json:"type"`    // Command type (connect, getInfo, etc.)
-	From    string `json:"from"`    // Sender ID (Java Client)
-	To      string `json:"to"`      // Target peer ID
-	Payload string `json:"payload"` // Payload (SDP, ICE, etc.)
+	ID      uint64 `json:"id,omitempty"` // Correlation ID, echoed in the reply
+	Type    string `json:"type"`         // Command type (connect, getInfo, etc.)
+	From    string `json:"from"`         // Sender ID (Java Client)
+	To      string `json:"to"`           // Target peer ID
+	Payload string `json:"payload"`      // Payload (SDP, ICE, etc.)
 }
 
 func main() {
@@ -117,37 +138,83 @@ handleClient JSON structure (messages from Java Client):
 // Handle communication with the Java Client
 func handleClient(conn net.Conn) {
 	defer func() {
+		// The client's offers and negotiations go with it, a reconnecting client gathers a fresh pool
 		clientMutex.Lock()
 		clientConn = nil
+		offers, peers := pooledOffers, peerConnections
+		pooledOffers = make(map[string]*webrtc.PeerConnection)
+		peerConnections = make(map[string]*webrtc.PeerConnection)
 		clientMutex.Unlock()
 		conn.Close()
-		log.Println("Java Client disconnected.")
+
+		// Closing waits for ICE and DTLS teardown, so it runs after the lock is released
+		for _, peerConnection := range offers {
+			peerConnection.Close()
+		}
+		for _, peerConnection := range peers {
+			peerConnection.Close()
+		}
+		log.Printf("Java Client disconnected, closed %d pooled offers and %d peer connections.", len(offers), len(peers))
 	}()
 
+	reader := bufio.NewReader(conn)
 	for {
-		buffer := make([]byte, 1024)
-		n, err := conn.Read(buffer)
+		frame, err := readFrame(reader)
 		if err != nil {
 			log.Printf("Error reading from client: %v", err)
 			break
 		}
 
 		var msg Message
-		err = json.Unmarshal(buffer[:n], &msg)
+		err = json.Unmarshal(frame, &msg)
 		if err != nil {
 			log.Printf("Invalid message format: %v", err)
 			continue
 		}
 
-		processMessage(msg, conn)
+		// Requests are independent, a slow one must not hold up the ones behind it
+		go processMessage(msg, conn)
+	}
+}
+
+// Read one length-prefixed frame
+func readFrame(reader io.Reader) ([]byte, error) {
+	var header [4]byte
+	if _, err := io.ReadFull(reader, header[:]); err != nil {
+		return nil, err
+	}
+	length := binary.BigEndian.Uint32(header[:])
+	if length == 0 || length > maxFrameLength {
+		return nil, fmt.Errorf("invalid frame length %d", length)
+	}
+	frame := make([]byte, length)
+	if _, err := io.ReadFull(reader, frame); err != nil {
+		return nil, err
+	}
+	return frame, nil
+}
+
+// Write one length-prefixed frame, header and body in a single write
+func writeFrame(conn net.Conn, msg Message) error {
+	data, err := json.Marshal(msg)
+	if err != nil {
+		return err
 	}
+	frame := make([]byte, 4+len(data))
+	binary.BigEndian.PutUint32(frame, uint32(len(data)))
+	copy(frame[4:], data)
+
+	writeMutex.Lock()
+	defer writeMutex.Unlock()
+	_, err = conn.Write(frame)
+	return err
 }
 
 /*
 processMessage JSON structure (example for "getInfo"):
 {
     "type": "getInfo",  // The type of command requested by the Java Client
-    "to": "string",     // Target ID (may be empty)
+    "to": "string",     // The peer the connection details are gathered for
     "payload": ""       // Typically empty for "getInfo", can contain other relevant data
 }
 */
@@ -158,17 +225,70 @@ func processMessage(msg Message, conn net.Conn) {
 	case "getInfo":
 		// Provide connection details for the Java Client
 		log.Printf("Received 'getInfo' command from Java Client")
-		provideConnectionInfo(msg.From)
+		provideConnectionInfo(msg.ID, msg.To)
+	case "bind":
+		// Tie a pooled offer to the peer it was sent to
+		log.Printf("Received 'bind' command from Java Client")
+		bindOffer(msg)
+	case "release":
+		// Discard a pooled offer that went stale
+		log.Printf("Received 'release' command from Java Client")
+		releaseOffer(msg)
 	case "connect":
 		// Handle connection requests between peers
 		log.Printf("Received 'connect' command from Java Client")
 		connectPeers(msg)
 	default:
 		log.Printf("Unknown command type: %s", msg.Type)
-		sendError(conn, "Unknown command type")
+		sendError(conn, msg.ID, "Unknown command type")
 	}
 }
 
+/*
+bindOffer JSON structure:
+{
+    "type": "bind",
+    "to": "string",      // The peer the offer was sent to
+    "payload": "string"  // The offer ID from the getInfo reply
+}
+*/
+
+// Move a pooled offer to the peer it was sent to, acknowledged with an "ack"
+func bindOffer(msg Message) {
+	var previous *webrtc.PeerConnection
+	clientMutex.Lock()
+	peerConnection, exists := pooledOffers[msg.Payload]
+	if exists && msg.To != "" {
+		delete(pooledOffers, msg.Payload)
+		previous = peerConnections[msg.To]
+		peerConnections[msg.To] = peerConnection
+	}
+	clientMutex.Unlock()
+	// Closing waits for ICE and DTLS teardown, so it runs after the lock is released
+	if previous != nil {
+		previous.Close()
+	}
+
+	if !exists || msg.To == "" {
+		sendError(currentClient(), msg.ID, "Unknown offer or missing peer")
+		return
+	}
+	sendClientMessage("ack", msg.ID, msg.To, "", "Offer bound")
+}
+
+// Close a pooled offer that was never bound, acknowledged with an "ack"
+func releaseOffer(msg Message) {
+	clientMutex.Lock()
+	peerConnection, exists := pooledOffers[msg.Payload]
+	delete(pooledOffers, msg.Payload)
+	clientMutex.Unlock()
+
+	if exists {
+		peerConnection.Close()
+	}
+	sendClientMessage("ack", msg.ID, "", "", "Offer released")
+}
+
 func connectPeers(msg Message) {
 	// Parse connection details from the message payload
 	var connectionDetails struct {
@@ -179,7 +299,7 @@ func connectPeers(msg Message) {
 	err := json.Unmarshal([]byte(msg.Payload), &connectionDetails)
 	if err != nil {
 		log.Printf("Failed to parse connection details: %v", err)
-		sendError(clientConn, "Invalid connection details")
+		sendError(currentClient(), msg.ID, "Invalid connection details")
 		return
 	}
 
@@ -187,7 +307,7 @@ func connectPeers(msg Message) {
 	user := msg.To // Assuming the `To` field contains the target user's ID
 	if user == "" {
 		log.Printf("Missing user field in message")
-		sendError(clientConn, "Missing user field in message")
+		sendError(currentClient(), msg.ID, "Missing user field in message")
 		return
 	}
 
@@ -203,9 +323,9 @@ func connectPeers(msg Message) {
 		}
 		peerConnection, err = webrtc.NewPeerConnection(config)
 		if err != nil {
-			log.Printf("Error creating PeerConnection: %v", err)
-			sendError(clientConn, "Failed to create PeerConnection")
 			clientMutex.Unlock()
+			log.Printf("Error creating PeerConnection: %v", err)
+			sendError(currentClient(), msg.ID, "Failed to create PeerConnection")
 			return
 		}
 
@@ -227,7 +347,7 @@ func connectPeers(msg Message) {
 	})
 	if err != nil {
 		log.Printf("Failed to set remote description for %s: %v", user, err)
-		sendError(clientConn, "Failed to set remote description")
+		sendError(currentClient(), msg.ID, "Failed to set remote description")
 		return
 	}
 
@@ -245,7 +365,7 @@ func connectPeers(msg Message) {
 	dataChannel, err := peerConnection.CreateDataChannel("dataChannel", nil)
 	if err != nil {
 		log.Printf("Failed to create data channel for %s: %v", user, err)
-		sendError(clientConn, "Failed to create data channel")
+		sendError(currentClient(), msg.ID, "Failed to create data channel")
 		return
 	}
 
@@ -258,6 +378,7 @@ func connectPeers(msg Message) {
 	})
 
 	log.Printf("Connection established with %s", user)
+	sendClientMessage("ack", msg.ID, user, "", "Connection details applied")
 }
 
 /*
@@ -280,11 +401,11 @@ Example:
 }
 */
 
-// Provide connection info (SDP and ICE candidates) to the Java Client
-func provideConnectionInfo(clientID string) {
-	clientMutex.Lock()
-	defer clientMutex.Unlock()
-
+// Provide connection info (SDP and ICE candidates) to the Java Client, for a negotiation with one peer.
+// Every peer gets its own PeerConnection, so negotiations with several peers can run side by side.
+// Without a peer the offer is pooled under a new offer ID, sent back in the reply's "from".
+// The PeerConnection belongs to this request until it is stored, so clientMutex is only taken to store it.
+func provideConnectionInfo(id uint64, peerID string) {
 	// Create a new WebRTC PeerConnection
 	config := webrtc.Configuration{
 		ICEServers: []webrtc.ICEServer{
@@ -295,15 +416,18 @@ func provideConnectionInfo(clientID string) {
 	peerConnection, err := webrtc.NewPeerConnection(config)
 	if err != nil {
 		log.Printf("Error creating PeerConnection: %v", err)
-		sendClientMessage("error", clientID, "", "Failed to create PeerConnection")
+		sendClientMessage("error", id, peerID, "", "Failed to create PeerConnection")
 		return
 	}
 
-	// Track ICE candidates as they're generated
+	// Track ICE candidates as they're generated, the callbacks run on pion's goroutines
+	var candidatesMutex sync.Mutex
 	var iceCandidates []string
 	peerConnection.OnICECandidate(func(candidate *webrtc.ICECandidate) {
 		if candidate != nil {
+			candidatesMutex.Lock()
 			iceCandidates = append(iceCandidates, candidate.ToJSON().Candidate)
+			candidatesMutex.Unlock()
 		}
 	})
 
@@ -311,50 +435,72 @@ func provideConnectionInfo(clientID string) {
 	offer, err := peerConnection.CreateOffer(nil)
 	if err != nil {
 		log.Printf("Error creating SDP offer: %v", err)
-		sendClientMessage("error", clientID, "", "Failed to create SDP offer")
+		peerConnection.Close()
+		sendClientMessage("error", id, peerID, "", "Failed to create SDP offer")
 		return
 	}
 
+	// Gathering starts with SetLocalDescription and may finish before it returns, so the promise comes first
+	gatherComplete := webrtc.GatheringCompletePromise(peerConnection)
+
 	// Set the local description
 	err = peerConnection.SetLocalDescription(offer)
 	if err != nil {
 		log.Printf("Error setting local description: %v", err)
-		sendClientMessage("error", clientID, "", "Failed to set local description")
+		peerConnection.Close()
+		sendClientMessage("error", id, peerID, "", "Failed to set local description")
 		return
 	}
 
-	// Store the PeerConnection in the map
-	peerConnections[clientID] = peerConnection
+	// Store the PeerConnection in the map, replacing an earlier negotiation with the same peer
+	offerID := ""
+	var previous *webrtc.PeerConnection
+	clientMutex.Lock()
+	if peerID == "" {
+		nextOfferID++
+		offerID = fmt.Sprintf("offer-%d", nextOfferID)
+		pooledOffers[offerID] = peerConnection
+	} else {
+		previous = peerConnections[peerID]
+		peerConnections[peerID] = peerConnection
+	}
+	clientMutex.Unlock()
+	if previous != nil {
+		previous.Close()
+	}
 
-	// Wait for ICE gathering to complete
-	peerConnection.OnICEGatheringStateChange(func(state webrtc.ICEGathererState) {
-		if state == webrtc.ICEGathererStateComplete {
-			// Prepare the response payload with SDP and ICE candidates
-			log.Printf("SDP: %s", offer.SDP)
-			log.Printf("Final ICE Candidates: %v", iceCandidates)
+	// Wait for ICE gathering to complete, this goroutine serves only this request
+	<-gatherComplete
 
-			payload := map[string]interface{}{
-				"sdp":           offer.SDP,
-				"iceCandidates": iceCandidates,
-			}
+	// Prepare the response payload with SDP and ICE candidates
+	candidatesMutex.Lock()
+	candidates := append([]string(nil), iceCandidates...)
+	candidatesMutex.Unlock()
+	log.Printf("SDP: %s", offer.SDP)
+	log.Printf("Final ICE Candidates: %v", candidates)
 
-			// Send the connection info to the Java Client
-			payloadData, err := json.Marshal(payload)
-			if err != nil {
-				log.Printf("Error marshaling JSON: %v", err)
-				return
-			}
+	payload := map[string]interface{}{
+		"sdp":           offer.SDP,
+		"iceCandidates": candidates,
+	}
 
-			log.Printf("Connection info: %s", string(payloadData))
-			sendClientMessage("connectionInfo", clientID, "", string(payloadData))
-			log.Printf("Connection info sent to Java Client %s", clientID)
-		}
-	})
+	// Send the connection info to the Java Client
+	payloadData, err := json.Marshal(payload)
+	if err != nil {
+		log.Printf("Error marshaling JSON: %v", err)
+		sendClientMessage("error", id, peerID, "", "Failed to encode connection info")
+		return
+	}
+
+	log.Printf("Connection info: %s", string(payloadData))
+	sendClientMessage("connectionInfo", id, peerID, offerID, string(payloadData))
+	log.Printf("Connection info for %s sent to Java Client", peerID)
 }
 
 /*
-sendClientMessage JSON structure:
+sendClientMessage JSON structure (sent as one frame):
 {
+    "id": 7,             // ID of the request this replies to
     "type": "string",    // Type of the message (e.g., "connectionInfo", "error")
     "from": "string",    // Sender ID (e.g., server, client ID)
     "to": "string",      // Recipient ID (target peer ID or Java Client)
@@ -370,38 +516,33 @@ Example:
 */
 
 // Send a message back to the Java Client
-func sendClientMessage(msgType, to, from, payload string) {
-	if clientConn == nil {
+func sendClientMessage(msgType string, id uint64, to, from, payload string) {
+	conn := currentClient()
+	if conn == nil {
 		log.Println("No client connection available")
 		return
 	}
 
 	response := Message{
+		ID:      id,
 		Type:    msgType,
 		From:    from,
 		To:      to,
 		Payload: payload,
 	}
 
-	data, err := json.Marshal(response)
-	if err != nil {
-		log.Printf("Error marshaling message: %v", err)
-		return
-	}
-
-	// Add newline to the data
-	data = append(data, '\n')
-
-	_, err = clientConn.Write(data)
+	err := writeFrame(conn, response)
 	if err != nil {
 		log.Printf("Error sending message to client: %v", err)
+		return
 	}
-	log.Printf("Sent message to Java Client %s", data)
+	log.Printf("Sent %s message to Java Client for request %d", msgType, id)
 }
 
 /*
-sendError JSON structure:
+sendError JSON structure (sent as one frame):
 {
+    "id": 7,            // ID of the failed request
     "type": "error",    // Type of message (always "error" for errors)
     "payload": "string" // Error message detailing what went wrong
 }
@@ -412,20 +553,26 @@ Example:
 }
 */
 
+// The connected Java Client, or nil; copied under clientMutex so it can be written to without holding it
+func currentClient() net.Conn {
+	clientMutex.Lock()
+	defer clientMutex.Unlock()
+	return clientConn
+}
+
 // Send an error response to the client
-func sendError(conn net.Conn, errorMsg string) {
+func sendError(conn net.Conn, id uint64, errorMsg string) {
+	if conn == nil {
+		log.Println("No client connection available")
+		return
+	}
 	response := Message{
+		ID:      id,
 		Type:    "error",
 		Payload: errorMsg,
 	}
 
-	data, err := json.Marshal(response)
-	if err != nil {
-		log.Printf("Error marshaling error response: %v", err)
-		return
-	}
-
-	_, err = conn.Write(data)
+	err := writeFrame(conn, response)
 	if err != nil {
 		log.Printf("Error sending error response: %v", err)
 	}
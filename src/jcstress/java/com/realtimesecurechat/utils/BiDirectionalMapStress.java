@@ -0,0 +1,161 @@
+package com.realtimesecurechat.utils;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.III_Result;
+import org.openjdk.jcstress.infra.results.LLL_Result;
+import org.openjdk.jcstress.infra.results.LL_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/*
+ * Linearizability of BiDirectionalMap under races on the same pair.
+ * Readers look up the new direction first and the old one second, so any
+ * half-updated pair they could see shows up as an outcome no order of the
+ * operations explains.
+ */
+public class BiDirectionalMapStress {
+
+    private BiDirectionalMapStress() {
+    }
+
+    @JCStressTest
+    @Description("A reader never sees the new pair by value and the old one by key.")
+    @Outcome(id = "null, 1", expect = ACCEPTABLE, desc = "Both reads before the put.")
+    @Outcome(id = "null, 2", expect = ACCEPTABLE, desc = "The put lands between the reads.")
+    @Outcome(id = "k, 2", expect = ACCEPTABLE, desc = "Both reads after the put.")
+    @Outcome(expect = FORBIDDEN, desc = "Half-updated pair.")
+    @State
+    public static class PutWhileReading {
+        private final BiDirectionalMap<String, Integer> map = new BiDirectionalMap<>();
+
+        public PutWhileReading() {
+            map.put("k", 1);
+        }
+
+        @Actor
+        public void writer() {
+            map.put("k", 2);
+        }
+
+        @Actor
+        public void reader(LL_Result r) {
+            r.r1 = map.getKey(2);
+            r.r2 = map.getValue("k");
+        }
+    }
+
+    @JCStressTest
+    @Description("A reader never sees a pair gone by value and still there by key.")
+    @Outcome(id = "k, 1", expect = ACCEPTABLE, desc = "Both reads before the removal.")
+    @Outcome(id = "k, null", expect = ACCEPTABLE, desc = "The removal lands between the reads.")
+    @Outcome(id = "null, null", expect = ACCEPTABLE, desc = "Both reads after the removal.")
+    @Outcome(expect = FORBIDDEN, desc = "Half-removed pair.")
+    @State
+    public static class RemoveWhileReading {
+        private final BiDirectionalMap<String, Integer> map = new BiDirectionalMap<>();
+
+        public RemoveWhileReading() {
+            map.put("k", 1);
+        }
+
+        @Actor
+        public void writer() {
+            map.removeByKey("k");
+        }
+
+        @Actor
+        public void reader(LL_Result r) {
+            r.r1 = map.getKey(1);
+            r.r2 = map.getValue("k");
+        }
+    }
+
+    @JCStressTest
+    @Description("Two keys claiming the same value: exactly one pair survives, consistent both ways.")
+    @Outcome(id = "1, null, a", expect = ACCEPTABLE, desc = "The put of b ran first.")
+    @Outcome(id = "null, 1, b", expect = ACCEPTABLE, desc = "The put of a ran first.")
+    @Outcome(expect = FORBIDDEN, desc = "Both or neither key kept the value, or the directions disagree.")
+    @State
+    public static class PutsStealingAValue {
+        private final BiDirectionalMap<String, Integer> map = new BiDirectionalMap<>();
+
+        @Actor
+        public void putA() {
+            map.put("a", 1);
+        }
+
+        @Actor
+        public void putB() {
+            map.put("b", 1);
+        }
+
+        @Arbiter
+        public void check(LLL_Result r) {
+            r.r1 = map.getValue("a");
+            r.r2 = map.getValue("b");
+            r.r3 = map.getKey(1);
+        }
+    }
+
+    @JCStressTest
+    @Description("Concurrent putIfAbsent on one key: exactly one wins and its pair is the one kept.")
+    @Outcome(id = "1, 0, 1", expect = ACCEPTABLE, desc = "The first actor won.")
+    @Outcome(id = "0, 1, 2", expect = ACCEPTABLE, desc = "The second actor won.")
+    @Outcome(expect = FORBIDDEN, desc = "Both or neither won, or the loser's pair was kept.")
+    @State
+    public static class PutIfAbsentRace {
+        private final BiDirectionalMap<String, Integer> map = new BiDirectionalMap<>();
+
+        @Actor
+        public void first(III_Result r) {
+            r.r1 = map.putIfAbsent("k", 1) ? 1 : 0;
+        }
+
+        @Actor
+        public void second(III_Result r) {
+            r.r2 = map.putIfAbsent("k", 2) ? 1 : 0;
+        }
+
+        @Arbiter
+        public void check(III_Result r) {
+            Integer value = map.getValue("k");
+            r.r3 = value != null && "k".equals(map.getKey(value)) ? value : -1;
+        }
+    }
+
+    @JCStressTest
+    @Description("replace racing removeByKey: the key always ends up removed, with no value left behind.")
+    @Outcome(id = "1, 0, 0", expect = ACCEPTABLE, desc = "The replace ran first, the removal took the new pair.")
+    @Outcome(id = "0, 0, 0", expect = ACCEPTABLE, desc = "The removal ran first, the replace found no pair.")
+    @Outcome(expect = FORBIDDEN, desc = "A pair survived the removal or a value was orphaned.")
+    @State
+    public static class ReplaceRacingRemove {
+        private final BiDirectionalMap<String, Integer> map = new BiDirectionalMap<>();
+
+        public ReplaceRacingRemove() {
+            map.put("k", 1);
+        }
+
+        @Actor
+        public void replace(III_Result r) {
+            r.r1 = map.replace("k", 1, 2) ? 1 : 0;
+        }
+
+        @Actor
+        public void remove() {
+            map.removeByKey("k");
+        }
+
+        @Arbiter
+        public void check(III_Result r) {
+            r.r2 = map.getValue("k") != null ? 1 : 0;
+            r.r3 = (map.getKey(1) != null ? 1 : 0) + (map.getKey(2) != null ? 1 : 0) + map.size();
+        }
+    }
+}
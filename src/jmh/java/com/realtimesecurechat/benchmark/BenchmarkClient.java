@@ -0,0 +1,105 @@
+package com.realtimesecurechat.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.realtimesecurechat.utils.SessionCipher;
+import jakarta.websocket.ClientEndpointConfig;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.Session;
+import jakarta.websocket.WebSocketContainer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.KeyPair;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Minimal protocol client for the round trip benchmark.
+ * Speaks the same wire protocol as WebSocketClient (signed envelopes out,
+ * ECIES and then session encrypted frames in) without the interactive
+ * registration or the Go sidecar, and hands decrypted messages to the
+ * benchmark thread through a queue.
+ */
+final class BenchmarkClient extends Endpoint {
+    private static final long RESPONSE_TIMEOUT_SECONDS = 10;
+
+    private final KeyPair keyPair;
+    private final BlockingQueue<JsonNode> inbox = new LinkedBlockingQueue<>();
+    private volatile SessionCipher sessionCipher;
+    private Session session;
+
+    private BenchmarkClient(KeyPair keyPair) {
+        this.keyPair = keyPair;
+    }
+
+    static BenchmarkClient connect(WebSocketContainer container, URI endpointURI) throws Exception {
+        BenchmarkClient client = new BenchmarkClient(BenchmarkFixtures.generateKeyPair());
+        client.session = container.connectToServer(client, ClientEndpointConfig.Builder.create().build(), endpointURI);
+        return client;
+    }
+
+    @Override
+    public void onOpen(Session session, EndpointConfig config) {
+        session.addMessageHandler(String.class, this::onMessage);
+    }
+
+    private void onMessage(String encryptedMessage) {
+        try {
+            SessionCipher currentSessionCipher = sessionCipher;
+            String decryptedMessage = currentSessionCipher != null
+                    ? currentSessionCipher.decrypt(encryptedMessage)
+                    : BenchmarkFixtures.eciesDecrypt(keyPair.getPrivate(), encryptedMessage);
+            JsonNode jsonMessage = BenchmarkFixtures.objectMapper.readTree(decryptedMessage);
+            if (jsonMessage.has("sessionKey")) {
+                sessionCipher = SessionCipher.accept(keyPair.getPrivate(), jsonMessage.get("sessionKey").asText());
+            }
+            inbox.add(jsonMessage);
+        } catch (Exception e) {
+            System.err.println("Benchmark client failed to process message.");
+            e.printStackTrace();
+        }
+    }
+
+    KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    void send(Map<String, String> messageData) throws Exception {
+        session.getBasicRemote().sendText(BenchmarkFixtures.signedFrame(keyPair.getPrivate(), messageData));
+    }
+
+    void register(String userId) throws Exception {
+        send(Map.of("messageType", "Register",
+                "userId", userId,
+                "publicKey", BenchmarkFixtures.encodePublicKey(keyPair.getPublic())));
+        await("Confirmation");
+    }
+
+    /*
+     * Wait for the next message of a type, skipping others
+     * @param messageType The expected messageType
+     * @return The message
+     */
+    JsonNode await(String messageType) throws InterruptedException {
+        while (true) {
+            JsonNode jsonMessage = inbox.poll(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (jsonMessage == null) {
+                throw new IllegalStateException("Timed out waiting for " + messageType);
+            }
+            String receivedType = jsonMessage.get("messageType").asText();
+            if (receivedType.equals(messageType)) {
+                return jsonMessage;
+            }
+            if (receivedType.equals("Error")) {
+                throw new IllegalStateException("Error from server: " + jsonMessage.get("message").asText());
+            }
+        }
+    }
+
+    void close() throws IOException {
+        session.close();
+    }
+}
@@ -0,0 +1,143 @@
+package com.realtimesecurechat.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.realtimesecurechat.utils.CryptoPool;
+import com.realtimesecurechat.utils.SignedEnvelope;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * Keys, frames and sample messages shared by the benchmarks.
+ * Everything here mirrors what the client sends on the wire, so the server
+ * side benchmarks measure the same bytes the server sees in production.
+ */
+public final class BenchmarkFixtures {
+
+    static {
+        // ECIES comes from Bouncy Castle, as on the client and server
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    public static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // SDP sized connection details, the largest payload on the signaling path
+    public static final String CONNECTION_DETAILS = "v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n".repeat(24);
+
+    /*
+     * Connection details as the sidecar gathers them for a data channel offer: JSON with the
+     * SDP and the ICE candidates, host and server reflexive. The random parts (session ID,
+     * ICE credentials, DTLS fingerprint, candidate foundations) come from a fixed seed, so
+     * the details do not compress any better than real ones and sizes repeat across runs.
+     */
+    public static final String OFFER_CONNECTION_DETAILS = offerConnectionDetails(new Random(42));
+
+    private BenchmarkFixtures() {
+    }
+
+    private static String offerConnectionDetails(Random random) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (int i = 0; i < 32; i++) {
+            fingerprint.append(i == 0 ? "" : ":").append(String.format("%02X", random.nextInt(256)));
+        }
+        String sdp = "v=0\\r\\n"
+                + "o=- " + Math.abs(random.nextLong()) + " 2 IN IP4 0.0.0.0\\r\\n"
+                + "s=-\\r\\nt=0 0\\r\\n"
+                + "a=fingerprint:sha-256 " + fingerprint + "\\r\\n"
+                + "a=extmap-allow-mixed\\r\\n"
+                + "a=group:BUNDLE 0\\r\\n"
+                + "a=msid-semantic:WMS*\\r\\n"
+                + "m=application 9 UDP/DTLS/SCTP webrtc-datachannel\\r\\n"
+                + "c=IN IP4 0.0.0.0\\r\\n"
+                + "a=setup:actpass\\r\\n"
+                + "a=mid:0\\r\\n"
+                + "a=sendrecv\\r\\n"
+                + "a=sctp-port:5000\\r\\n"
+                + "a=ice-ufrag:" + randomToken(random, 16) + "\\r\\n"
+                + "a=ice-pwd:" + randomToken(random, 32) + "\\r\\n";
+
+        StringBuilder candidates = new StringBuilder();
+        String[] hostAddresses = {"192.168.1.23", "10.0.0.17", "172.17.0.1", "fd00::1c2b:3e4f:5a6b:7c8d"};
+        for (String address : hostAddresses) {
+            candidates.append(candidates.isEmpty() ? "" : ",")
+                    .append("\"candidate:").append(Integer.toUnsignedString(random.nextInt()))
+                    .append(" 1 udp 2130706431 ").append(address).append(' ').append(49152 + random.nextInt(16384))
+                    .append(" typ host\"");
+        }
+        candidates.append(",\"candidate:").append(Integer.toUnsignedString(random.nextInt()))
+                .append(" 1 udp 1694498815 203.0.113.7 ").append(49152 + random.nextInt(16384))
+                .append(" typ srflx raddr 0.0.0.0 rport ").append(49152 + random.nextInt(16384)).append('"');
+
+        return "{\"iceCandidates\":[" + candidates + "],\"sdp\":\"" + sdp + "\"}";
+    }
+
+    private static String randomToken(Random random, int length) {
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        StringBuilder token = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            token.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return token.toString();
+    }
+
+    // Same key parameters as WebSocketClient
+    public static KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+        keyGen.initialize(256);
+        return keyGen.generateKeyPair();
+    }
+
+    public static String encodePublicKey(PublicKey publicKey) {
+        return Base64.getEncoder().encodeToString(publicKey.getEncoded());
+    }
+
+    /*
+     * Build a signed envelope the way WebSocketClient.sendSignedMessage does
+     * @param privateKey The signing key
+     * @param messageData The message fields
+     * @return The frame as sent to the server
+     */
+    public static String signedFrame(PrivateKey privateKey, Map<String, String> messageData) throws Exception {
+        String payload = objectMapper.writeValueAsString(messageData);
+        Signature signature = CryptoPool.borrowSignature(CryptoPool.ECDSA_SHA256);
+        try {
+            signature.initSign(privateKey);
+            signature.update(payload.getBytes(StandardCharsets.UTF_8));
+            return SignedEnvelope.encode(signature.sign(), payload);
+        } finally {
+            CryptoPool.releaseSignature(CryptoPool.ECDSA_SHA256, signature);
+        }
+    }
+
+    // ECIES encryption to a public key, as used before a session key exists and for connection details
+    public static String eciesEncrypt(PublicKey publicKey, String plainText) throws GeneralSecurityException {
+        Cipher cipher = CryptoPool.borrowCipher(CryptoPool.ECIES);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+            return Base64.getEncoder().encodeToString(cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8)));
+        } finally {
+            CryptoPool.releaseCipher(CryptoPool.ECIES, cipher);
+        }
+    }
+
+    public static String eciesDecrypt(PrivateKey privateKey, String encodedMessage) throws GeneralSecurityException {
+        Cipher cipher = CryptoPool.borrowCipher(CryptoPool.ECIES);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            return new String(cipher.doFinal(Base64.getDecoder().decode(encodedMessage)), StandardCharsets.UTF_8);
+        } finally {
+            CryptoPool.releaseCipher(CryptoPool.ECIES, cipher);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.realtimesecurechat.benchmark;
+
+import com.realtimesecurechat.utils.BiDirectionalMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The user ID to connection map under contention: lookups by user ID (routing
+ * a request), lookups by value (cleanup) and re-registrations running together,
+ * for the striped BiDirectionalMap and the single monitor one it replaced.
+ * Both run the same operations; re-registration is a put, as in ClientRegistry.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BiDirectionalMapBenchmark {
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    @Param({"striped", "synchronized"})
+    public String implementation;
+
+    // The operations measured, over either implementation
+    private interface UserMap {
+        void put(String userId, Integer connection);
+
+        Integer getValue(String userId);
+
+        String getKey(Integer connection);
+    }
+
+    private UserMap map;
+    private String[] userIds;
+
+    @Setup
+    public void setup() {
+        map = switch (implementation) {
+            case "striped" -> {
+                BiDirectionalMap<String, Integer> striped = new BiDirectionalMap<>();
+                yield new UserMap() {
+                    @Override
+                    public void put(String userId, Integer connection) {
+                        striped.put(userId, connection);
+                    }
+
+                    @Override
+                    public Integer getValue(String userId) {
+                        return striped.getValue(userId);
+                    }
+
+                    @Override
+                    public String getKey(Integer connection) {
+                        return striped.getKey(connection);
+                    }
+                };
+            }
+            case "synchronized" -> {
+                SynchronizedBiDirectionalMap<String, Integer> baseline = new SynchronizedBiDirectionalMap<>();
+                yield new UserMap() {
+                    @Override
+                    public void put(String userId, Integer connection) {
+                        baseline.put(userId, connection);
+                    }
+
+                    @Override
+                    public Integer getValue(String userId) {
+                        return baseline.getValue(userId);
+                    }
+
+                    @Override
+                    public String getKey(Integer connection) {
+                        return baseline.getKey(connection);
+                    }
+                };
+            }
+            default -> throw new IllegalArgumentException("Unknown implementation: " + implementation);
+        };
+        userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = "client" + i;
+            map.put(userIds[i], i);
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public Integer findByUserId() {
+        return map.getValue(userIds[ThreadLocalRandom.current().nextInt(users)]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public String findByConnection() {
+        return map.getKey(ThreadLocalRandom.current().nextInt(users));
+    }
+
+    // Re-register a user under a fresh connection, then hand the old one back
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void reregister() {
+        int index = ThreadLocalRandom.current().nextInt(users);
+        map.put(userIds[index], users + index);
+        map.put(userIds[index], index);
+    }
+}
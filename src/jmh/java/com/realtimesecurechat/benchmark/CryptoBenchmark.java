@@ -0,0 +1,88 @@
+package com.realtimesecurechat.benchmark;
+
+import com.realtimesecurechat.utils.SessionCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Message encryption on the server (outbound queue) and decryption on the client.
+ * Covers both channels: ECIES to the client's public key, used until the
+ * session key is negotiated, and the AES-GCM session cipher used after it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CryptoBenchmark {
+
+    // confirmation: a short server message, approval: a message carrying connection details
+    @Param({"confirmation", "approval"})
+    public String message;
+
+    private KeyPair clientKeyPair;
+    private String plainText;
+    private String eciesFrame;
+    private SessionCipher serverCipher;
+    private SessionCipher clientCipher;
+
+    @Setup
+    public void setup() throws Exception {
+        clientKeyPair = BenchmarkFixtures.generateKeyPair();
+        Map<String, String> messageData = message.equals("approval")
+                ? Map.of("messageType", "Approval", "user", "client2",
+                        "connectionDetails", BenchmarkFixtures.eciesEncrypt(clientKeyPair.getPublic(), BenchmarkFixtures.CONNECTION_DETAILS))
+                : Map.of("messageType", "Confirmation", "message", "The request has been sent if the client is online.", "user", "client2");
+        plainText = BenchmarkFixtures.objectMapper.writeValueAsString(messageData);
+        eciesFrame = BenchmarkFixtures.eciesEncrypt(clientKeyPair.getPublic(), plainText);
+
+        serverCipher = SessionCipher.initiate(clientKeyPair.getPublic());
+        clientCipher = SessionCipher.accept(clientKeyPair.getPrivate(), serverCipher.getHandshakeKey());
+    }
+
+    // Server: encrypt to the client's public key
+    @Benchmark
+    public String serverEciesEncrypt() throws GeneralSecurityException {
+        return BenchmarkFixtures.eciesEncrypt(clientKeyPair.getPublic(), plainText);
+    }
+
+    // Client: WebSocketClient.decryptMessage
+    @Benchmark
+    public String clientEciesDecrypt() throws GeneralSecurityException {
+        return BenchmarkFixtures.eciesDecrypt(clientKeyPair.getPrivate(), eciesFrame);
+    }
+
+    // Server: encrypt with the negotiated session key
+    @Benchmark
+    public String serverSessionEncrypt() throws GeneralSecurityException {
+        return serverCipher.encrypt(plainText);
+    }
+
+    // Server encrypt plus client decrypt; frames cannot be replayed, so decryption is measured paired
+    @Benchmark
+    public String sessionRoundTrip() throws GeneralSecurityException {
+        return clientCipher.decrypt(serverCipher.encrypt(plainText));
+    }
+
+    // Both halves of the registration handshake
+    @Benchmark
+    public SessionCipher sessionHandshake() throws GeneralSecurityException {
+        SessionCipher initiated = SessionCipher.initiate(clientKeyPair.getPublic());
+        return SessionCipher.accept(clientKeyPair.getPrivate(), initiated.getHandshakeKey());
+    }
+}
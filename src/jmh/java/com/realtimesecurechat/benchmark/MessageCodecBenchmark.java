@@ -0,0 +1,104 @@
+package com.realtimesecurechat.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.realtimesecurechat.protocol.Approval;
+import com.realtimesecurechat.protocol.Confirmation;
+import com.realtimesecurechat.protocol.ConnectionApproval;
+import com.realtimesecurechat.protocol.ConnectionRequest;
+import com.realtimesecurechat.protocol.ErrorMessage;
+import com.realtimesecurechat.protocol.IncomingConnectionRequest;
+import com.realtimesecurechat.protocol.Message;
+import com.realtimesecurechat.protocol.Register;
+import com.realtimesecurechat.protocol.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Typed protocol records with the pre-bound WireFormat reader and writer,
+ * against the tree model in / Map out path they replaced, for every
+ * signaling message type in both wire formats.
+ * Run with -prof gc to compare allocation per message as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageCodecBenchmark {
+
+    @Param({"Register", "Connection request", "Connection approval",
+            "Confirmation", "Error", "connectionRequest", "Approval"})
+    public String messageType;
+
+    @Param({"text", "binary"})
+    public String wireFormatName;
+
+    private WireFormat wireFormat;
+    private ObjectMapper treeMapper;
+    private Message message;
+    private Map<String, String> messageData;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        wireFormat = WireFormat.fromName(wireFormatName);
+        treeMapper = wireFormat == WireFormat.BINARY ? new ObjectMapper(new CBORFactory()) : new ObjectMapper();
+
+        String publicKey = BenchmarkFixtures.encodePublicKey(BenchmarkFixtures.generateKeyPair().getPublic());
+        String encryptedDetails = BenchmarkFixtures.eciesEncrypt(
+                BenchmarkFixtures.generateKeyPair().getPublic(), BenchmarkFixtures.CONNECTION_DETAILS);
+
+        message = switch (messageType) {
+            case Register.TYPE -> new Register("client1", publicKey, null);
+            case ConnectionRequest.TYPE -> new ConnectionRequest("client2");
+            case ConnectionApproval.TYPE -> new ConnectionApproval("client1", encryptedDetails);
+            case Confirmation.TYPE -> new Confirmation("The request has been sent if the client is online.", "client2");
+            case ErrorMessage.TYPE -> new ErrorMessage("Invalid signature.");
+            case IncomingConnectionRequest.TYPE -> new IncomingConnectionRequest("client1", publicKey);
+            case Approval.TYPE -> new Approval("client2", encryptedDetails);
+            default -> throw new IllegalArgumentException("Unknown message type: " + messageType);
+        };
+
+        // The same fields as a Map, as the tree path sent them
+        payload = wireFormat.writeBytes(message);
+        messageData = new HashMap<>();
+        treeMapper.readTree(payload).fields().forEachRemaining(field -> messageData.put(field.getKey(), field.getValue().asText()));
+    }
+
+    @Benchmark
+    public Message typedParse() throws IOException {
+        return wireFormat.read(payload, 0, payload.length);
+    }
+
+    @Benchmark
+    public JsonNode treeParse() throws IOException {
+        return treeMapper.readTree(payload, 0, payload.length);
+    }
+
+    @Benchmark
+    public byte[] typedSerialize() throws IOException {
+        return wireFormat.writeBytes(message);
+    }
+
+    @Benchmark
+    public byte[] mapSerialize() throws IOException {
+        return treeMapper.writeValueAsBytes(messageData);
+    }
+}
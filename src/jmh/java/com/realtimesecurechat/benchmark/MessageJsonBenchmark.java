@@ -0,0 +1,101 @@
+package com.realtimesecurechat.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * JSON parsing and serialization of every signaling message type with the
+ * tree model in, Map out path the client and server used before the typed
+ * protocol records. Kept as a baseline, see MessageCodecBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageJsonBenchmark {
+
+    @Param({"Register", "Connection request", "Connection approval",
+            "Confirmation", "Error", "connectionRequest", "Approval"})
+    public String messageType;
+
+    private final ObjectMapper objectMapper = BenchmarkFixtures.objectMapper;
+    private Map<String, String> messageData;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        String publicKey = BenchmarkFixtures.encodePublicKey(BenchmarkFixtures.generateKeyPair().getPublic());
+        String encryptedDetails = BenchmarkFixtures.eciesEncrypt(
+                BenchmarkFixtures.generateKeyPair().getPublic(), BenchmarkFixtures.CONNECTION_DETAILS);
+
+        messageData = new HashMap<>();
+        messageData.put("messageType", messageType);
+        switch (messageType) {
+            case "Register":
+                messageData.put("userId", "client1");
+                messageData.put("publicKey", publicKey);
+                break;
+            case "Connection request":
+                messageData.put("targetUserId", "client2");
+                break;
+            case "Connection approval":
+                messageData.put("requesterUserId", "client1");
+                messageData.put("connectionDetails", encryptedDetails);
+                break;
+            case "Confirmation":
+                messageData.put("message", "The request has been sent if the client is online.");
+                messageData.put("user", "client2");
+                break;
+            case "Error":
+                messageData.put("message", "Invalid signature.");
+                break;
+            case "connectionRequest":
+                messageData.put("fromUserId", "client1");
+                messageData.put("requesterPublicKey", publicKey);
+                break;
+            case "Approval":
+                messageData.put("user", "client2");
+                messageData.put("connectionDetails", encryptedDetails);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message type: " + messageType);
+        }
+        payload = objectMapper.writeValueAsBytes(messageData);
+    }
+
+    @Benchmark
+    public JsonNode parse() throws IOException {
+        return objectMapper.readTree(payload, 0, payload.length);
+    }
+
+    // Client side parsing starts from the decrypted String
+    @Benchmark
+    public JsonNode parseString() throws IOException {
+        return objectMapper.readTree(new String(payload, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public String serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(messageData);
+    }
+}
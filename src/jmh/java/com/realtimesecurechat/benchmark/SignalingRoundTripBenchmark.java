@@ -0,0 +1,101 @@
+package com.realtimesecurechat.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.realtimesecurechat.server.ServerLauncher;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.glassfish.tyrus.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * End to end signaling against an in-process Tyrus server on the loopback:
+ * register both clients, connection request, approval, until the requester
+ * has decrypted the approver's connection details.
+ * The two WebSocket connections are opened before and closed after each
+ * invocation, so only the signaling itself is measured.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.benchmark.port (default 18080)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SignalingRoundTripBenchmark {
+    private static final int PORT = Integer.getInteger("realtimesecurechat.benchmark.port", 18080);
+
+    private Server server;
+    private WebSocketContainer container;
+    private URI endpointURI;
+    private BenchmarkClient requester;
+    private BenchmarkClient approver;
+    private long round;
+
+    @Setup
+    public void startServer() throws Exception {
+        server = ServerLauncher.start("localhost", PORT);
+        container = ContainerProvider.getWebSocketContainer();
+        endpointURI = URI.create("ws://localhost:" + PORT + "/ws/chat");
+    }
+
+    @TearDown
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void connectClients() throws Exception {
+        requester = BenchmarkClient.connect(container, endpointURI);
+        approver = BenchmarkClient.connect(container, endpointURI);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeClients() throws Exception {
+        requester.close();
+        approver.close();
+    }
+
+    @Benchmark
+    public String registerRequestApprove() throws Exception {
+        // Fresh user IDs, so no round sees state left over from the previous one
+        round++;
+        String requesterUserId = "requester" + round;
+        String approverUserId = "approver" + round;
+
+        requester.register(requesterUserId);
+        approver.register(approverUserId);
+
+        requester.send(Map.of("messageType", "Connection request", "targetUserId", approverUserId));
+        JsonNode connectionRequest = approver.await("connectionRequest");
+
+        byte[] requesterKeyBytes = Base64.getDecoder().decode(connectionRequest.get("requesterPublicKey").asText());
+        PublicKey requesterPublicKey = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(requesterKeyBytes));
+        approver.send(Map.of("messageType", "Connection approval",
+                "requesterUserId", requesterUserId,
+                "connectionDetails", BenchmarkFixtures.eciesEncrypt(requesterPublicKey, BenchmarkFixtures.CONNECTION_DETAILS)));
+
+        JsonNode approval = requester.await("Approval");
+        return BenchmarkFixtures.eciesDecrypt(requester.getKeyPair().getPrivate(), approval.get("connectionDetails").asText());
+    }
+}
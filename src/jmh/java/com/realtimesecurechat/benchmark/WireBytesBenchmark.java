@@ -0,0 +1,169 @@
+package com.realtimesecurechat.benchmark;
+
+import com.realtimesecurechat.protocol.Approval;
+import com.realtimesecurechat.protocol.Confirmation;
+import com.realtimesecurechat.protocol.ConnectionApproval;
+import com.realtimesecurechat.protocol.ConnectionRequest;
+import com.realtimesecurechat.protocol.IncomingConnectionRequest;
+import com.realtimesecurechat.protocol.Message;
+import com.realtimesecurechat.protocol.WireFormat;
+import com.realtimesecurechat.utils.ConnectionDetailsCodec;
+import com.realtimesecurechat.utils.CryptoPool;
+import com.realtimesecurechat.utils.SessionCipher;
+import com.realtimesecurechat.utils.SignedEnvelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/*
+ * Bytes on the wire for one signaling handshake, text wire format:
+ *   requester -> server    Connection request
+ *   server    -> requester Confirmation
+ *   server    -> approver  connectionRequest, with the requester's public key
+ *   approver  -> server    Connection approval, with the encrypted connection details
+ *   server    -> requester Approval, with the same details
+ * with the connection details plain or compacted by ConnectionDetailsCodec,
+ * and with or without permessage-deflate on the frames. Each frame counts its
+ * WebSocket header, masked for client frames. Deflate frames are compressed
+ * without context takeover, so the compressed sizes are an upper bound.
+ *
+ * The benchmark measures the time to build the frames; the wire bytes are
+ * printed per parameter combination at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WireBytesBenchmark {
+    private static final int CLIENT_MASK_LENGTH = 4;
+    private static final int DEFLATE_TAIL_LENGTH = 4; // 00 00 ff ff, left off by RFC 7692
+
+    @Param({"plain", "compact"})
+    public String detailsEncoding;
+
+    @Param({"none", "permessage-deflate"})
+    public String compression;
+
+    private KeyPair requesterKeyPair;
+    private KeyPair approverKeyPair;
+    private SessionCipher requesterSession;
+    private SessionCipher approverSession;
+    private String requesterPublicKey;
+    private boolean compact;
+    private boolean deflate;
+    private Deflater deflater;
+    private long wireBytes;
+    private long detailsBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        requesterKeyPair = BenchmarkFixtures.generateKeyPair();
+        approverKeyPair = BenchmarkFixtures.generateKeyPair();
+        requesterSession = SessionCipher.initiate(requesterKeyPair.getPublic());
+        approverSession = SessionCipher.initiate(approverKeyPair.getPublic());
+        requesterPublicKey = BenchmarkFixtures.encodePublicKey(requesterKeyPair.getPublic());
+        compact = detailsEncoding.equals("compact");
+        deflate = compression.equals("permessage-deflate");
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        deflater.end();
+        System.out.println();
+        System.out.println("Wire bytes per handshake (" + detailsEncoding + " details, " + compression + "): "
+                + wireBytes + ", of which encrypted connection details: " + detailsBytes);
+    }
+
+    @Benchmark
+    public long handshake() throws Exception {
+        byte[] details = compact
+                ? ConnectionDetailsCodec.encode(BenchmarkFixtures.OFFER_CONNECTION_DETAILS)
+                : BenchmarkFixtures.OFFER_CONNECTION_DETAILS.getBytes(StandardCharsets.UTF_8);
+        String encryptedDetails = eciesEncrypt(requesterKeyPair, details);
+
+        long bytes = clientFrame(requesterKeyPair.getPrivate(), new ConnectionRequest("approver"))
+                + serverFrame(requesterSession, new Confirmation("The request has been sent if the client is online.", "approver"))
+                + serverFrame(approverSession, new IncomingConnectionRequest("requester", requesterPublicKey))
+                + clientFrame(approverKeyPair.getPrivate(), new ConnectionApproval("requester", encryptedDetails))
+                + serverFrame(requesterSession, new Approval("approver", encryptedDetails));
+        wireBytes = bytes;
+        detailsBytes = encryptedDetails.length();
+        return bytes;
+    }
+
+    // A signed envelope, as WebSocketClient.sendSignedMessage sends it
+    private long clientFrame(PrivateKey privateKey, Message message) throws Exception {
+        String payload = WireFormat.TEXT.writeString(message);
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        Signature signature = CryptoPool.borrowSignature(CryptoPool.ECDSA_SHA256);
+        try {
+            signature.initSign(privateKey);
+            signature.update(payloadBytes);
+            String frame = SignedEnvelope.encode(signature.sign(), payload);
+            return wireLength(frame.getBytes(StandardCharsets.UTF_8), true);
+        } finally {
+            CryptoPool.releaseSignature(CryptoPool.ECDSA_SHA256, signature);
+        }
+    }
+
+    // A session encrypted message, as the server sends it once the session key is established
+    private long serverFrame(SessionCipher sessionCipher, Message message) throws Exception {
+        String frame = sessionCipher.encrypt(WireFormat.TEXT.writeString(message));
+        return wireLength(frame.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    private long wireLength(byte[] payload, boolean masked) {
+        int length = deflate ? deflate(payload) : payload.length;
+        int header = length < 126 ? 2 : length < 65536 ? 4 : 10;
+        return header + (masked ? CLIENT_MASK_LENGTH : 0) + length;
+    }
+
+    // Compressed payload length as RFC 7692 sends it, flushed and without the trailing empty block
+    private int deflate(byte[] payload) {
+        deflater.reset();
+        deflater.setInput(payload);
+        byte[] buffer = new byte[payload.length + 64];
+        int length = 0;
+        int written;
+        while ((written = deflater.deflate(buffer, length, buffer.length - length, Deflater.SYNC_FLUSH)) > 0) {
+            length += written;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return length - DEFLATE_TAIL_LENGTH;
+    }
+
+    private static String eciesEncrypt(KeyPair recipient, byte[] plainBytes) throws Exception {
+        Cipher cipher = CryptoPool.borrowCipher(CryptoPool.ECIES);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, recipient.getPublic());
+            return Base64.getEncoder().encodeToString(cipher.doFinal(plainBytes));
+        } finally {
+            CryptoPool.releaseCipher(CryptoPool.ECIES, cipher);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.benchmark.BenchmarkFixtures;
+import com.realtimesecurechat.utils.SignedEnvelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Server side signature checks (WebSocketServer.verifyClientSignature).
+ * Lives in the server package because the verification context is package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SignatureVerificationBenchmark {
+
+    private String encodedPublicKey;
+    private ClientVerificationContext verificationContext;
+    private String frame;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPair keyPair = BenchmarkFixtures.generateKeyPair();
+        encodedPublicKey = BenchmarkFixtures.encodePublicKey(keyPair.getPublic());
+        verificationContext = ClientVerificationContext.fromEncodedKey(encodedPublicKey);
+        frame = BenchmarkFixtures.signedFrame(keyPair.getPrivate(),
+                Map.of("messageType", "Connection request", "targetUserId", "client2"));
+    }
+
+    // Envelope parsing plus verification, the work done for every frame from a registered client
+    @Benchmark
+    public boolean verifyClientSignature() throws GeneralSecurityException {
+        SignedEnvelope envelope = SignedEnvelope.parse(frame);
+        return verificationContext.verify(envelope.getFrame(), envelope.getPayloadOffset(),
+                envelope.getPayloadLength(), envelope.getSignature());
+    }
+
+    // Several sessions of the same user verifying at once, exercising the verifier pool
+    @Benchmark
+    @Threads(4)
+    public boolean verifyClientSignatureContended() throws GeneralSecurityException {
+        return verifyClientSignature();
+    }
+
+    // Key decoding done once per registration
+    @Benchmark
+    public ClientVerificationContext decodeRegistrationKey() throws GeneralSecurityException {
+        return ClientVerificationContext.fromEncodedKey(encodedPublicKey);
+    }
+}
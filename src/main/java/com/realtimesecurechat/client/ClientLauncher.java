@@ -5,8 +5,17 @@ import java.util.Scanner;
 
 public class ClientLauncher {
     public static void main(String[] args) {
+        Scanner scanner = new Scanner(System.in);
+
+        // Prompt user for client ID
+        System.out.print("Enter your client user ID: ");
+        String clientUserId = scanner.nextLine();
+
+        // Initialize connection to the local Go Server
+        GoSidecar goSidecar = new TcpGoSidecar("localhost", 9000);
+
         // Initialize WebSocket client without SSL
-        WebSocketClient client = new WebSocketClient(URI.create("ws://localhost:8080/ws/chat"), "localhost", 9000);
+        WebSocketClient client = new WebSocketClient(URI.create("ws://localhost:8080/ws/chat"), clientUserId, goSidecar);
 
         // Add a small delay to allow time for the connection to be established
         try {
@@ -16,7 +25,6 @@ public class ClientLauncher {
         }
 
         // Input target session ID for the client you want to connect to
-        Scanner scanner = new Scanner(System.in);
         System.out.print("Enter target client session ID to connect to: ");
         String targetSessionId = scanner.nextLine();
 
@@ -0,0 +1,55 @@
+package com.realtimesecurechat.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * The local Go WebRTC sidecar as seen by the client.
+ * The client asks it for local connection details (SDP/ICE) to hand out with
+ * approvals, and forwards the details received from an approving peer to it.
+ * Requests are asynchronous and may be in flight concurrently, each completes
+ * with the sidecar's own reply.
+ */
+public interface GoSidecar {
+
+    // Connection details gathered before the peer they are for is known
+    record Offer(String offerId, String connectionDetails) {
+    }
+
+    /*
+     * Start talking to the sidecar
+     * @param onConnected Called once the sidecar is reachable, and again after every reconnect
+     *                    since a restarted sidecar has lost its state; must not block
+     */
+    void start(Runnable onConnected);
+
+    /*
+     * Gather local connection details for a negotiation with one peer
+     * @param peerUserId The peer the details will be sent to
+     * @return Completes with the SDP/ICE details
+     */
+    CompletableFuture<String> requestConnectionInfo(String peerUserId);
+
+    // Gather connection details not yet tied to any peer, for the OfferPool
+    CompletableFuture<Offer> gatherOffer();
+
+    /*
+     * Tie a gathered offer to the peer it is sent to
+     * @param offerId The offer, as returned by gatherOffer
+     * @param peerUserId The peer
+     * @return Completes once bound, exceptionally if the sidecar no longer has the offer
+     */
+    CompletableFuture<Void> bindOffer(String offerId, String peerUserId);
+
+    // Discard a gathered offer that was never bound
+    CompletableFuture<Void> releaseOffer(String offerId);
+
+    /*
+     * Forward a peer's connection details
+     * @param connectionDetails The decrypted SDP/ICE information
+     * @param user The peer that sent them
+     * @return Completes once the sidecar acknowledged them
+     */
+    CompletableFuture<Void> connect(String connectionDetails, String user);
+
+    void close();
+}
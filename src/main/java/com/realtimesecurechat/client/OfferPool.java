@@ -0,0 +1,168 @@
+package com.realtimesecurechat.client;
+
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Connection offers gathered ahead of time, so an approval does not wait for ICE gathering.
+ * The sidecar gathers offers that are not tied to any peer yet; taking one
+ * binds it to the requester and starts gathering a replacement in the
+ * background. Offers older than the maximum age are released before their
+ * candidates go stale. When the pool is empty, or the sidecar no longer knows
+ * a pooled offer, the offer is gathered for the peer on demand as before.
+ *
+ * The pool is emptied and refilled whenever the sidecar (re)connects. The
+ * sidecar closes a client's offers when its connection drops, and a restarted
+ * sidecar has lost them, so there is nothing left to release. Closing the pool
+ * releases the offers it still holds.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.offerPool.size         (default 4, 0 disables the pool)
+ *   realtimesecurechat.offerPool.maxAgeMillis (default 30000)
+ */
+class OfferPool {
+    static final int SIZE = Integer.getInteger("realtimesecurechat.offerPool.size", 4);
+    static final long MAX_AGE_MILLIS = Long.getLong("realtimesecurechat.offerPool.maxAgeMillis", 30_000);
+
+    private static final ScheduledExecutorService expiryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "offer-pool-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private record PooledOffer(GoSidecar.Offer offer, long gatheredAt) {
+    }
+
+    private final GoSidecar goSidecar;
+    private final int size;
+    private final long maxAgeMillis;
+    private final Deque<PooledOffer> offers = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger reserved = new AtomicInteger(); // Offers pooled or being gathered
+    private volatile ScheduledFuture<?> expiry;
+    private volatile boolean closed;
+
+    OfferPool(GoSidecar goSidecar) {
+        this(goSidecar, SIZE, MAX_AGE_MILLIS);
+    }
+
+    // A pool of size offers, released once they are maxAgeMillis old
+    OfferPool(GoSidecar goSidecar, int size, long maxAgeMillis) {
+        this.goSidecar = goSidecar;
+        this.size = size;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    // Drop any offers from an earlier sidecar connection and gather a full pool, called on every (re)connect
+    void reset() {
+        while (offers.pollFirst() != null) {
+            reserved.decrementAndGet();
+        }
+        if (size > 0 && expiry == null) {
+            expiry = expiryTimer.scheduleWithFixedDelay(this::expire, maxAgeMillis / 2, maxAgeMillis / 2, TimeUnit.MILLISECONDS);
+        }
+        refill();
+    }
+
+    /*
+     * Take connection details for a negotiation with a peer
+     * @param peerUserId The peer the details will be sent to
+     * @return Completes with a pooled offer bound to the peer, or one gathered on demand
+     */
+    CompletableFuture<String> take(String peerUserId) {
+        PooledOffer pooled = pollFresh();
+        refill();
+        if (pooled == null) {
+            return goSidecar.requestConnectionInfo(peerUserId);
+        }
+        GoSidecar.Offer offer = pooled.offer();
+        return goSidecar.bindOffer(offer.offerId(), peerUserId)
+                .thenApply(ignored -> offer.connectionDetails())
+                .exceptionallyCompose(error -> goSidecar.requestConnectionInfo(peerUserId));
+    }
+
+    // Stop refilling and release the pooled offers, called before the sidecar is closed
+    void close() {
+        closed = true;
+        ScheduledFuture<?> currentExpiry = expiry;
+        if (currentExpiry != null) {
+            currentExpiry.cancel(false);
+        }
+        PooledOffer pooled;
+        while ((pooled = offers.pollFirst()) != null) {
+            reserved.decrementAndGet();
+            release(pooled);
+        }
+    }
+
+    // The oldest offer that is still fresh, releasing the stale ones in front of it
+    private PooledOffer pollFresh() {
+        long oldestFresh = System.currentTimeMillis() - maxAgeMillis;
+        PooledOffer pooled;
+        while ((pooled = offers.pollFirst()) != null) {
+            reserved.decrementAndGet();
+            if (pooled.gatheredAt() > oldestFresh) {
+                return pooled;
+            }
+            release(pooled);
+        }
+        return null;
+    }
+
+    // Gather offers in the background until the pool is full
+    private void refill() {
+        while (!closed) {
+            int current = reserved.get();
+            if (current >= size) {
+                return;
+            }
+            if (!reserved.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            CompletableFuture<GoSidecar.Offer> gathering = goSidecar.gatherOffer();
+            gathering.whenComplete((offer, error) -> {
+                if (error != null) {
+                    // A failed gathering is retried by the next expiry pass or reconnect
+                    reserved.decrementAndGet();
+                    return;
+                }
+                PooledOffer pooled = new PooledOffer(offer, System.currentTimeMillis());
+                offers.addLast(pooled);
+                // An offer that arrives while the pool closes is released rather than left behind
+                if (closed && offers.remove(pooled)) {
+                    reserved.decrementAndGet();
+                    release(pooled);
+                }
+            });
+            if (gathering.isCompletedExceptionally()) {
+                return;
+            }
+        }
+    }
+
+    // Release offers that went stale in the pool and gather replacements
+    private void expire() {
+        long oldestFresh = System.currentTimeMillis() - maxAgeMillis;
+        PooledOffer oldest;
+        while ((oldest = offers.peekFirst()) != null && oldest.gatheredAt() <= oldestFresh) {
+            if (offers.remove(oldest)) {
+                reserved.decrementAndGet();
+                release(oldest);
+            }
+        }
+        refill();
+    }
+
+    private void release(PooledOffer stale) {
+        goSidecar.releaseOffer(stale.offer().offerId()).whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Failed to release offer " + stale.offer().offerId() + ": " + error.getMessage());
+            }
+        });
+    }
+}
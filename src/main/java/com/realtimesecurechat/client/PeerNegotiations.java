@@ -0,0 +1,151 @@
+package com.realtimesecurechat.client;
+
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * The client's negotiations in progress, at most one per peer.
+ * Each negotiation is a small state machine advanced by compare-and-set, so
+ * the WebSocket callbacks, sidecar replies and timeouts that drive it can run
+ * on any thread and race without locks; whichever transition lands first wins
+ * and the others see a state they do not expect and back off. A negotiation
+ * leaves the registry when it reaches a terminal state.
+ *
+ *   incoming: REQUESTED -> GATHERING -> APPROVED
+ *             REQUESTED -> REJECTED
+ *   outgoing: REQUEST_SENT -> CONNECTING -> CONNECTED
+ *   either:   any non-terminal state -> FAILED or TIMED_OUT
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.negotiation.timeoutMillis (default 60000)
+ */
+class PeerNegotiations {
+    static final long TIMEOUT_MILLIS = Long.getLong("realtimesecurechat.negotiation.timeoutMillis", 60_000);
+
+    private static final ScheduledExecutorService timeoutTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "negotiation-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    enum State {
+        REQUESTED, GATHERING, APPROVED, REJECTED,
+        REQUEST_SENT, CONNECTING, CONNECTED,
+        FAILED, TIMED_OUT;
+
+        boolean isTerminal() {
+            return this == APPROVED || this == REJECTED || this == CONNECTED || this == FAILED || this == TIMED_OUT;
+        }
+    }
+
+    // One negotiation with one peer
+    final class Negotiation {
+        private final String peerUserId;
+        private final AtomicReference<State> state;
+        private final PublicKey peerPublicKey;
+        private volatile ScheduledFuture<?> timeout;
+
+        private Negotiation(String peerUserId, State initialState, PublicKey peerPublicKey) {
+            this.peerUserId = peerUserId;
+            this.state = new AtomicReference<>(initialState);
+            this.peerPublicKey = peerPublicKey;
+        }
+
+        /*
+         * Move to the next state, if the negotiation is still where the caller expects it
+         * Reaching a terminal state removes the negotiation from the registry.
+         * @return false if another transition got there first
+         */
+        boolean transition(State expected, State next) {
+            if (!state.compareAndSet(expected, next)) {
+                return false;
+            }
+            if (next.isTerminal()) {
+                negotiations.remove(peerUserId, this);
+                ScheduledFuture<?> currentTimeout = timeout;
+                if (currentTimeout != null) {
+                    currentTimeout.cancel(false);
+                }
+            }
+            return true;
+        }
+
+        // Fail from whatever non-terminal state the negotiation is in
+        boolean fail(State terminal) {
+            State current;
+            while (!(current = state.get()).isTerminal()) {
+                if (transition(current, terminal)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String getPeerUserId() {
+            return peerUserId;
+        }
+
+        State getState() {
+            return state.get();
+        }
+
+        // The peer's public key, sent with its connection request, or null for an outgoing negotiation
+        PublicKey getPeerPublicKey() {
+            return peerPublicKey;
+        }
+    }
+
+    private final Map<String, Negotiation> negotiations = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+
+    PeerNegotiations() {
+        this(TIMEOUT_MILLIS);
+    }
+
+    // A registry whose negotiations time out after timeoutMillis
+    PeerNegotiations(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /*
+     * Start a negotiation with a peer
+     * @param peerUserId The peer
+     * @param initialState REQUESTED for an incoming request, REQUEST_SENT for an outgoing one,
+     *                     CONNECTING for an approval nobody here was waiting for
+     * @param peerPublicKey The peer's public key, or null
+     * @return The new negotiation, or null if one with the peer is already in progress
+     */
+    Negotiation begin(String peerUserId, State initialState, PublicKey peerPublicKey) {
+        Negotiation negotiation = new Negotiation(peerUserId, initialState, peerPublicKey);
+        if (negotiations.putIfAbsent(peerUserId, negotiation) != null) {
+            return null;
+        }
+        negotiation.timeout = timeoutTimer.schedule(() -> {
+            if (negotiation.fail(State.TIMED_OUT)) {
+                System.err.println("Negotiation with " + peerUserId + " timed out.");
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return negotiation;
+    }
+
+    // The negotiation in progress with a peer, or null
+    Negotiation get(String peerUserId) {
+        return negotiations.get(peerUserId);
+    }
+
+    // Fail every negotiation in progress, when the client closes
+    void failAll() {
+        negotiations.values().forEach(negotiation -> negotiation.fail(State.FAILED));
+    }
+
+    // Negotiations in progress
+    int size() {
+        return negotiations.size();
+    }
+}
@@ -0,0 +1,250 @@
+package com.realtimesecurechat.client;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Framed request/response channel to the local sidecar over a SocketChannel.
+ * Every frame is a 4 byte big-endian length followed by one JSON Frame. Each
+ * request gets a correlation ID that the sidecar echoes in its reply, so any
+ * number of requests can be in flight at once and each caller gets its own
+ * CompletableFuture back.
+ *
+ * Frames are written by a single writer thread draining a queue, gathering
+ * whatever is queued into one write. The socket is read by a single reader
+ * thread. Both are virtual threads, so blocking socket calls park them
+ * instead of holding a carrier. When the sidecar closes the socket the
+ * requests in flight fail and the channel reconnects with backoff, calling
+ * onConnected again once it is back.
+ */
+class SidecarChannel implements AutoCloseable {
+    private static final int MAX_FRAME_LENGTH = 1 << 20;
+    private static final int MAX_GATHERED_FRAMES = 64;
+    private static final long RECONNECT_DELAY_MILLIS = 200;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 5_000;
+    private static final long REQUEST_TIMEOUT_MILLIS = 30_000;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final ObjectReader frameReader = objectMapper.readerFor(Frame.class);
+    private static final ObjectWriter frameWriter = objectMapper.writerFor(Frame.class);
+
+    /*
+     * A message to or from the sidecar
+     * The id correlates a reply with its request, 0 for messages nobody waits for.
+     */
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    record Frame(long id, String type, String from, String to, String payload) {
+    }
+
+    private final InetSocketAddress address;
+    private final String name;
+    private final Map<Long, CompletableFuture<Frame>> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile BlockingQueue<ByteBuffer> writeQueue; // Per connection, null while disconnected
+    private volatile SocketChannel channel;
+    private volatile boolean closed;
+    private Runnable onConnected;
+
+    /*
+     * @param address Where the sidecar listens
+     * @param name Names the channel's threads
+     */
+    SidecarChannel(InetSocketAddress address, String name) {
+        this.address = address;
+        this.name = name;
+    }
+
+    /*
+     * Connect in the background and keep reconnecting until closed
+     * @param onConnected Called after every (re)connect, on the reader thread
+     */
+    void start(Runnable onConnected) {
+        this.onConnected = onConnected;
+        Thread.ofVirtual().name(name + "-reader").start(this::run);
+    }
+
+    /*
+     * Send a request and wait for the reply with the same correlation ID
+     * @param type The request type
+     * @param to The peer the request concerns, or null
+     * @param payload The request payload, or null
+     * @return Completes with the reply, or exceptionally if the sidecar answers with an error,
+     *         the connection is lost or the request times out
+     */
+    CompletableFuture<Frame> request(String type, String to, String payload) {
+        long id = nextId.incrementAndGet();
+        CompletableFuture<Frame> reply = new CompletableFuture<>();
+        pendingRequests.put(id, reply);
+        reply.orTimeout(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .whenComplete((frame, error) -> pendingRequests.remove(id));
+
+        BlockingQueue<ByteBuffer> queue = writeQueue;
+        if (queue == null) {
+            reply.completeExceptionally(new IOException("Sidecar not connected."));
+            return reply;
+        }
+        try {
+            queue.add(encode(new Frame(id, type, null, to, payload)));
+        } catch (IOException e) {
+            reply.completeExceptionally(e);
+        }
+        return reply;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        SocketChannel current = channel;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close the sidecar channel: " + e.getMessage());
+            }
+        }
+    }
+
+    // Connect, read until the connection is lost, and start over until closed
+    private void run() {
+        long delay = RECONNECT_DELAY_MILLIS;
+        while (!closed) {
+            try (SocketChannel socketChannel = SocketChannel.open(address)) {
+                channel = socketChannel;
+                delay = RECONNECT_DELAY_MILLIS;
+                BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
+                Thread writer = Thread.ofVirtual().name(name + "-writer").start(() -> writeLoop(socketChannel, queue));
+                writeQueue = queue;
+                try {
+                    onConnected.run();
+                    readLoop(socketChannel);
+                } finally {
+                    writeQueue = null;
+                    writer.interrupt();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Sidecar connection lost: " + e.getMessage());
+                }
+            } finally {
+                channel = null;
+                failPendingRequests();
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MILLIS);
+        }
+    }
+
+    private void readLoop(SocketChannel socketChannel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (true) {
+            header.clear();
+            readFully(socketChannel, header);
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid sidecar frame length: " + length);
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(socketChannel, body);
+            dispatch(frameReader.readValue(body.array()));
+        }
+    }
+
+    private static void readFully(SocketChannel socketChannel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (socketChannel.read(buffer) < 0) {
+                throw new EOFException("Sidecar closed the connection.");
+            }
+        }
+    }
+
+    // Complete the request a reply belongs to
+    private void dispatch(Frame frame) {
+        CompletableFuture<Frame> reply = frame.id() != 0 ? pendingRequests.remove(frame.id()) : null;
+        if (reply == null) {
+            if ("error".equals(frame.type())) {
+                System.err.println("Error from Go Server: " + frame.payload());
+            } else {
+                System.err.println("Unexpected message from Go Server: " + frame.type());
+            }
+            return;
+        }
+        if ("error".equals(frame.type())) {
+            reply.completeExceptionally(new IOException("Error from Go Server: " + frame.payload()));
+        } else {
+            reply.complete(frame);
+        }
+    }
+
+    // Write whatever is queued in one gathering write, until the connection is replaced
+    private void writeLoop(SocketChannel socketChannel, BlockingQueue<ByteBuffer> queue) {
+        List<ByteBuffer> batch = new ArrayList<>(MAX_GATHERED_FRAMES);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_GATHERED_FRAMES - 1);
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= socketChannel.write(buffers);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // The connection was lost, the reader fails the requests in flight
+        } catch (IOException e) {
+            try {
+                // Wake the reader, which reconnects
+                socketChannel.close();
+            } catch (IOException closeException) {
+                System.err.println("Failed to close the sidecar channel: " + closeException.getMessage());
+            }
+        }
+    }
+
+    private void failPendingRequests() {
+        IOException lost = new IOException("Sidecar connection lost.");
+        for (Long id : pendingRequests.keySet()) {
+            CompletableFuture<Frame> reply = pendingRequests.remove(id);
+            if (reply != null) {
+                reply.completeExceptionally(lost);
+            }
+        }
+    }
+
+    private static ByteBuffer encode(Frame frame) throws IOException {
+        byte[] body = frameWriter.writeValueAsBytes(frame);
+        if (body.length > MAX_FRAME_LENGTH) {
+            throw new IOException("Sidecar frame too large: " + body.length);
+        }
+        return ByteBuffer.allocate(4 + body.length).putInt(body.length).put(body).flip();
+    }
+}
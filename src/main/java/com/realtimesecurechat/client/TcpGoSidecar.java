@@ -0,0 +1,80 @@
+package com.realtimesecurechat.client;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Go sidecar reached over its TCP socket through a SidecarChannel.
+ * Requests are pipelined on the one connection, see SidecarChannel for the framing.
+ */
+public class TcpGoSidecar implements GoSidecar {
+    private final SidecarChannel channel;
+
+    public TcpGoSidecar(String goServerHost, int goServerPort) {
+        this.channel = new SidecarChannel(new InetSocketAddress(goServerHost, goServerPort), "go-sidecar");
+    }
+
+    @Override
+    public void start(Runnable onConnected) {
+        channel.start(onConnected);
+    }
+
+    /*
+     * JSON Structure of the reply payload:
+     * {
+     *   "sdp": "SDP offer",
+     *   "iceCandidates": ["candidate1", "candidate2"]
+     * }
+     */
+    @Override
+    public CompletableFuture<String> requestConnectionInfo(String peerUserId) {
+        return channel.request("getInfo", peerUserId, null).thenApply(SidecarChannel.Frame::payload);
+    }
+
+    // A getInfo without a peer, answered with the new offer's ID in "from"
+    @Override
+    public CompletableFuture<Offer> gatherOffer() {
+        return channel.request("getInfo", null, null).thenApply(reply -> new Offer(reply.from(), reply.payload()));
+    }
+
+    /*
+     * JSON Structure:
+     * {
+     *   "id": 7,
+     *   "type": "bind",
+     *   "to": "User ID",
+     *   "payload": "Offer ID"
+     * }
+     */
+    @Override
+    public CompletableFuture<Void> bindOffer(String offerId, String peerUserId) {
+        return channel.request("bind", peerUserId, offerId).thenAccept(ack -> {
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseOffer(String offerId) {
+        return channel.request("release", null, offerId).thenAccept(ack -> {
+        });
+    }
+
+    /*
+     * JSON Structure:
+     * {
+     *   "id": 7,
+     *   "type": "connect",
+     *   "to": "User ID",
+     *   "payload": "SDP/ICE information"
+     * }
+     */
+    @Override
+    public CompletableFuture<Void> connect(String connectionDetails, String user) {
+        return channel.request("connect", user, connectionDetails).thenAccept(ack ->
+                System.out.println("Acknowledgment received from Go Server: " + ack.payload()));
+    }
+
+    @Override
+    public void close() {
+        channel.close();
+    }
+}
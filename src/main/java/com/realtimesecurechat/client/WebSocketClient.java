@@ -1,271 +1,338 @@
 package com.realtimesecurechat.client;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.realtimesecurechat.protocol.Approval;
+import com.realtimesecurechat.protocol.Confirmation;
+import com.realtimesecurechat.protocol.ConnectionApproval;
+import com.realtimesecurechat.protocol.ConnectionRejection;
+import com.realtimesecurechat.protocol.ConnectionRequest;
+import com.realtimesecurechat.protocol.ErrorMessage;
+import com.realtimesecurechat.protocol.IncomingConnectionRequest;
+import com.realtimesecurechat.protocol.Message;
+import com.realtimesecurechat.protocol.Register;
+import com.realtimesecurechat.protocol.Resume;
+import com.realtimesecurechat.protocol.WireFormat;
+import com.realtimesecurechat.utils.AsyncLogger;
+import com.realtimesecurechat.utils.ConnectionDetailsCodec;
+import com.realtimesecurechat.utils.CryptoPool;
+import com.realtimesecurechat.utils.PublicKeyCache;
+import com.realtimesecurechat.utils.SessionCipher;
+import com.realtimesecurechat.utils.SignedEnvelope;
+import com.realtimesecurechat.utils.WebSocketCompression;
 import jakarta.websocket.*;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.crypto.Cipher;
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
 
-@ClientEndpoint
-public class WebSocketClient {
+/*
+ * Signaling client.
+ * Every peer gets its own negotiation in PeerNegotiations, with connection
+ * details gathered by the sidecar for that peer alone, so any number of
+ * requests can be approved or connected in parallel.
+ * A dropped connection is reconnected with backoff. The reconnect resumes the
+ * session with the resumption token from the last confirmation, which needs
+ * only an HMAC on either side; if the server no longer knows the session it
+ * closes the connection and the next attempt registers from scratch.
+ * The connection offers permessage-deflate, see WebSocketCompression, which
+ * needs a programmatic endpoint since an annotated one cannot list extensions.
+ * Events are logged through AsyncLogger, never frames or connection details.
+ */
+public class WebSocketClient extends Endpoint {
+
+    /*
+     * Signaling events, for front ends and the load generator
+     * Callbacks run on the WebSocket container's threads and must not block.
+     */
+    public interface Listener {
+        default void onRegistered(String userId) {
+        }
+
+        default void onConnectionRequest(String requesterUserId) {
+        }
+
+        default void onApproval(String approverUserId, String connectionDetails) {
+        }
+
+        default void onError(String message) {
+        }
+    }
 
     static {
         // Register Bouncy Castle Provider
         Security.addProvider(new BouncyCastleProvider());
     }
 
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Wire format asked for at registration: text (default) or binary
+    private static final WireFormat REQUESTED_WIRE_FORMAT =
+            WireFormat.fromName(System.getProperty("realtimesecurechat.wireFormat", WireFormat.TEXT.getName()));
+
+    private static final long RECONNECT_DELAY_MILLIS = 500;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000;
+    private static final int RESUMPTION_NONCE_LENGTH = 16;
 
-    private Session session;
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final ClientEndpointConfig endpointConfig = ClientEndpointConfig.Builder.create()
+            .extensions(WebSocketCompression.extensions())
+            .build();
+
+    private volatile Session session;
+    private final WebSocketContainer container;
+    private final URI endpointURI;
     private final PublicKey publicKey;
     private final PrivateKey privateKey;
-    private final Map<String, PublicKey> requesterPublicKeys = new HashMap<>(); // Map of requester IDs to public keys
-    private final BufferedReader goServerReader; // Reader for Go Server responses
-    private final BufferedWriter goServerWriter; // Writer for sending commands to Go Server
-    private String clientUserId;
-    private String connectionDetails;
+    private final PeerNegotiations negotiations = new PeerNegotiations(); // Negotiations in progress, by peer
+    private final GoSidecar goSidecar; // Local WebRTC sidecar
+    private final OfferPool offerPool; // Offers gathered ahead of approvals
+    private final Listener listener;
+    private final String clientUserId;
+    private volatile SessionCipher sessionCipher; // Symmetric channel negotiated at registration
+    private volatile WireFormat wireFormat = WireFormat.TEXT; // Switched by the registration confirmation
+    private volatile byte[] resumptionSecret; // From the last confirmation, used for one reconnect
+    private volatile boolean closing;
+
+    public WebSocketClient(URI endpointURI, String clientUserId, GoSidecar goSidecar) {
+        this(ContainerProvider.getWebSocketContainer(), endpointURI, clientUserId, goSidecar, new Listener() {
+        });
+    }
 
-    public WebSocketClient(URI endpointURI, String goServerHost, int goServerPort) {
+    /*
+     * Connect and register, without any console interaction
+     * @param container The WebSocket container, shared when running many clients
+     * @param endpointURI The server endpoint
+     * @param clientUserId The user ID to register
+     * @param goSidecar The local WebRTC sidecar
+     * @param listener Receives signaling events
+     */
+    public WebSocketClient(WebSocketContainer container, URI endpointURI, String clientUserId, GoSidecar goSidecar, Listener listener) {
         try {
             KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
             keyGen.initialize(256);
             KeyPair keyPair = keyGen.generateKeyPair();
+            this.container = container;
+            this.endpointURI = endpointURI;
             this.publicKey = keyPair.getPublic();
             this.privateKey = keyPair.getPrivate();
+            this.clientUserId = clientUserId;
+            this.goSidecar = goSidecar;
+            this.offerPool = new OfferPool(goSidecar);
+            this.listener = listener;
 
-            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
-            container.connectToServer(this, endpointURI);
+            container.connectToServer(this, endpointConfig, endpointURI);
 
-            // Initialize connection to the local Go Server
-            // TCP Socket for communicating with the Go Server
-            Socket goServerSocket = new Socket(goServerHost, goServerPort);
-            this.goServerReader = new BufferedReader(new InputStreamReader(goServerSocket.getInputStream()));
-            this.goServerWriter = new BufferedWriter(new OutputStreamWriter(goServerSocket.getOutputStream()));
-
-            // Start listening for Go Server messages
-            startGoServerListener();
-            sendGetConnectionInformationToGoServer();
+            // Connection details are gathered ahead into the offer pool, again after a sidecar restart
+            goSidecar.start(offerPool::reset);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void startGoServerListener() {
-        new Thread(() -> {
-            try {
-                while (true) {
-                    // Listen for messages from the Go Server
-                    String response = goServerReader.readLine();
-                    if (response != null) {
-                        handleGoServerMessage(response);
-                    }
-
-                }
-            } catch (IOException e) {
-                System.err.println("Error reading from Go Server: " + e.getMessage());
-            }
-        }).start();
+    @Override
+    public void onOpen(Session session, EndpointConfig config) {
+        this.session = session;
+        session.addMessageHandler(String.class, this::onMessage);
+        session.addMessageHandler(ByteBuffer.class, this::onMessage);
+        AsyncLogger.info("Connected to server: " + session.getId());
+
+        // Resume the previous session if there is one, register otherwise
+        if (resumptionSecret != null) {
+            performResumption();
+        } else {
+            performRegistration();
+        }
     }
 
-    private void handleGoServerMessage(String message) {
-        try {
-            JsonNode jsonMessage = objectMapper.readTree(message);
-
-            String messageType = jsonMessage.get("type").asText(); // Message type from the Go Server
-            switch (messageType) {
-                case "connectionInfo":
-                    processConnectionInfo(jsonMessage);
-                    break;
-
-                case "ack":
-                    processAcknowledgment(jsonMessage);
-                    break;
-
-                case "error":
-                    processErrorMessage(jsonMessage);
-                    break;
+    @Override
+    public void onClose(Session session, CloseReason closeReason) {
+        AsyncLogger.info("Disconnected from server: " + closeReason.getReasonPhrase());
+        sessionCipher = null;
+        wireFormat = WireFormat.TEXT;
+        if (!closing) {
+            scheduleReconnect();
+        }
+    }
 
-                default:
-                    System.err.println("Unhandled message type from Go Server: " + messageType);
+    // Reconnect with exponential backoff until connected or closed
+    private void scheduleReconnect() {
+        Thread.ofVirtual().name("reconnect-" + clientUserId).start(() -> {
+            long delay = RECONNECT_DELAY_MILLIS;
+            while (!closing) {
+                try {
+                    Thread.sleep(delay);
+                    container.connectToServer(this, endpointConfig, endpointURI);
+                    return;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    AsyncLogger.error("Reconnect failed: " + e.getMessage());
+                    delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MILLIS);
+                }
             }
-        } catch (Exception e) {
-            System.err.println("Failed to process message from Go Server: " + e.getMessage());
-            e.printStackTrace();
-        }
+        });
     }
 
-    private void processConnectionInfo(JsonNode message) {
+    /*
+     * Resume the previous session instead of registering
+     * The resumed session key is derived here and used for the server's confirmation.
+     * The token is used once: if the server refuses it and closes, the next attempt registers.
+     */
+    private void performResumption() {
+        byte[] secret = resumptionSecret;
+        resumptionSecret = null;
         try {
-            this.connectionDetails = message.get("payload").asText();
-            System.out.println("Received connection info: " + connectionDetails);
+            byte[] clientNonce = new byte[RESUMPTION_NONCE_LENGTH];
+            random.nextBytes(clientNonce);
+            sessionCipher = SessionCipher.resume(secret, clientNonce);
+
+            String requestedWireFormat = REQUESTED_WIRE_FORMAT != WireFormat.TEXT ? REQUESTED_WIRE_FORMAT.getName() : null;
+            String payload = WireFormat.TEXT.writeString(new Resume(clientUserId, Base64.getEncoder().encodeToString(clientNonce), requestedWireFormat));
+            byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+            byte[] mac = SessionCipher.authenticate(secret, payloadBytes, 0, payloadBytes.length);
+            session.getAsyncRemote().sendText(SignedEnvelope.encode(mac, payload));
         } catch (Exception e) {
-            System.err.println("Failed to process connection info: " + e.getMessage());
-            e.printStackTrace();
+            AsyncLogger.error("Failed to resume session, registering instead: " + e.getMessage());
+            sessionCipher = null;
+            performRegistration();
         }
     }
 
-    private void processAcknowledgment(JsonNode message) {
-        System.out.println("Acknowledgment received from Go Server: " + message.get("payload").asText());
-    }
-
-    private void processErrorMessage(JsonNode message) {
-        System.err.println("Error from Go Server: " + message.get("payload").asText());
-    }
-
-    @OnOpen
-    public void onOpen(Session session) {
-        this.session = session;
-        System.out.println("Connected to server: " + session.getId());
-
-        // Perform registration
-        performRegistration();
-    }
-
     private void performRegistration() {
-        // Prompt user for client ID
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("Enter your client user ID: ");
-        clientUserId = scanner.nextLine();
-
-        // Prepare registration message
-        Map<String, String> message = new HashMap<>();
-        message.put("messageType", "Register");
-        message.put("userId", clientUserId);
-        message.put("publicKey", Base64.getEncoder().encodeToString(publicKey.getEncoded()));
+        // Prepare registration message, text is the default and left out
+        String requestedWireFormat = REQUESTED_WIRE_FORMAT != WireFormat.TEXT ? REQUESTED_WIRE_FORMAT.getName() : null;
+        Register message = new Register(clientUserId, Base64.getEncoder().encodeToString(publicKey.getEncoded()), requestedWireFormat);
 
         // Send the registration message
         sendSignedMessage(message);
     }
 
-    public void fetchConnectionInfo() {
-        try {
-            // Send a `getInfo` request to the Go Server
-            Map<String, String> command = new HashMap<>();
-            command.put("type", "getInfo");
-
-            String commandJson = objectMapper.writeValueAsString(command);
-            goServerWriter.write(commandJson);
-            goServerWriter.newLine();
-            goServerWriter.flush();
-        } catch (IOException e) {
-            System.err.println("Failed to communicate with Go Server: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
     /*
     * Forward connection details to the Go Server for processing
     * @param connectionDetails The connection details to forward
     * @param user The user who sent the connection details
-    * JSON Structure:
+    * JSON Structure (framed by SidecarChannel):
     * {
-    *   "messageType": "connect",
-    *   "connectionDetails": "SDP/ICE information",
-    *   "user": "User ID"
+    *   "id": 7,
+    *   "type": "connect",
+    *   "to": "User ID",
+    *   "payload": "SDP/ICE information"
     * }
      */
 
-    private void forwardConnectionInfoToGoServer(String connectionDetails, String user) {
-        // Forward connection info to the central WebSocket server
-        try {
-            Map<String, String> message = new HashMap<>();
-            message.put("messageType", "connect");
-            message.put("connectionDetails", connectionDetails);
-            message.put("user", user);
-
-            // Convert the command to JSON
-            String messageJson = objectMapper.writeValueAsString(message);
-
-            // Send the JSON to the Go Server via the TCP socket
-            goServerWriter.write(messageJson);
-            goServerWriter.newLine();
-            goServerWriter.flush();
-
-            System.out.println("Forwarded connection info to the Go Server.");
-        } catch (IOException e) {
-            System.err.println("Failed to send connection details to the Go Server.");
-            e.printStackTrace();
-        }
+    private void forwardConnectionInfoToGoServer(PeerNegotiations.Negotiation negotiation, String connectionDetails) {
+        // Forward connection info to the local Go Server
+        goSidecar.connect(connectionDetails, negotiation.getPeerUserId()).whenComplete((ignored, error) -> {
+            if (error != null) {
+                AsyncLogger.error("Failed to send connection details to the Go Server: " + error.getMessage());
+                negotiation.transition(PeerNegotiations.State.CONNECTING, PeerNegotiations.State.FAILED);
+            } else if (negotiation.transition(PeerNegotiations.State.CONNECTING, PeerNegotiations.State.CONNECTED)) {
+                AsyncLogger.info("Forwarded connection info to the Go Server.");
+            }
+        });
     }
 
     public void requestConnection(String targetUserId) {
-        Map<String, String> message = new HashMap<>();
-        message.put("messageType", "Connection request");
-        message.put("targetUserId", targetUserId);
-
-        sendSignedMessage(message);
+        if (negotiations.begin(targetUserId, PeerNegotiations.State.REQUEST_SENT, null) == null) {
+            AsyncLogger.error("A negotiation with " + targetUserId + " is already in progress.");
+            return;
+        }
+        sendSignedMessage(new ConnectionRequest(targetUserId));
     }
 
-    @OnMessage
     public void onMessage(String encryptedMessage) {
-        System.out.println("Received encrypted message: " + encryptedMessage);
         try {
-            // Decrypt the message using the private key
-            String decryptedMessage = decryptMessage(encryptedMessage);
-            System.out.println("Decrypted message: " + decryptedMessage);
-
-            // Parse the decrypted message as JSON
-            JsonNode jsonMessage = objectMapper.readTree(decryptedMessage);
+            // Decrypt with the session cipher once negotiated, with the private key before that
+            SessionCipher currentSessionCipher = sessionCipher;
+            String decryptedMessage = currentSessionCipher != null
+                    ? currentSessionCipher.decrypt(encryptedMessage)
+                    : decryptMessage(encryptedMessage);
+
+            // Bind the decrypted JSON to its protocol record
+            handleServerMessage(WireFormat.TEXT.read(decryptedMessage.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            AsyncLogger.error("Failed to process message from server.", e);
+        }
+    }
 
-            if (!jsonMessage.has("messageType")) {
-                System.err.println("Invalid server response: Missing 'messageType'");
+    // Binary wire format: raw session frames carrying CBOR messages
+    public void onMessage(ByteBuffer encryptedMessage) {
+        try {
+            SessionCipher currentSessionCipher = sessionCipher;
+            if (currentSessionCipher == null) {
+                AsyncLogger.error("Binary message received before the session key was established.");
                 return;
             }
+            byte[] frame = new byte[encryptedMessage.remaining()];
+            encryptedMessage.get(frame);
+            handleServerMessage(WireFormat.BINARY.read(currentSessionCipher.decryptBytes(frame)));
+        } catch (Exception e) {
+            AsyncLogger.error("Failed to process binary message from server.", e);
+        }
+    }
 
-            String messageType = jsonMessage.get("messageType").asText();
-            switch (messageType) {
-                case "connectionRequest":
-                    handleConnectionRequest(jsonMessage);
-                    break;
-
-                case "Error":
-                    System.err.println("Error from server: " + jsonMessage.get("message").asText());
-                    break;
-
-                case "Confirmation":
-                    System.out.println("Server confirmation: " + jsonMessage.get("message").asText());
-                    break;
-
-                case "Approval":
-                    handleApproval(jsonMessage);
-
-                default:
-                    System.err.println("Unhandled messageType: " + messageType);
-                    break;
+    private void handleServerMessage(Message message) {
+        try {
+            switch (message) {
+                case IncomingConnectionRequest connectionRequest -> handleConnectionRequest(connectionRequest);
+                case ErrorMessage error -> {
+                    AsyncLogger.error("Error from server: " + error.message());
+                    listener.onError(error.message());
+                }
+                case Confirmation confirmation -> {
+                    AsyncLogger.info("Server confirmation: " + confirmation.message());
+                    // Registration and resumption confirmations carry the accepted wire format
+                    if (confirmation.wireFormat() != null) {
+                        if (confirmation.sessionKey() != null) {
+                            establishSession(confirmation.sessionKey());
+                        }
+                        if (confirmation.resumptionToken() != null) {
+                            resumptionSecret = Base64.getDecoder().decode(confirmation.resumptionToken());
+                        }
+                        wireFormat = WireFormat.fromName(confirmation.wireFormat());
+                        listener.onRegistered(clientUserId);
+                    }
+                }
+                case Approval approval -> handleApproval(approval);
+                default -> AsyncLogger.error("Unhandled messageType: " + message.messageType());
             }
         } catch (Exception e) {
-            System.err.println("Failed to process message from server.");
-            e.printStackTrace();
+            AsyncLogger.error("Failed to process message from server.", e);
         }
     }
 
 
-    private void handleApproval(JsonNode jsonMessage) {
+    private void handleApproval(Approval approval) {
+        String approverUserId = approval.user();
+        // The server only forwards approvals of requests this user sent, even ones this client no longer waits for
+        PeerNegotiations.Negotiation negotiation = negotiations.get(approverUserId);
+        if (negotiation == null) {
+            negotiation = negotiations.begin(approverUserId, PeerNegotiations.State.CONNECTING, null);
+        } else if (!negotiation.transition(PeerNegotiations.State.REQUEST_SENT, PeerNegotiations.State.CONNECTING)) {
+            negotiation = null;
+        }
+        if (negotiation == null) {
+            AsyncLogger.error("Ignoring approval from " + approverUserId + ": negotiation already past the request.");
+            return;
+        }
+
         try {
-            String approverUserId = jsonMessage.get("user").asText();
-            String encryptedConnectionDetails = jsonMessage.get("connectionDetails").asText();
+            String encryptedConnectionDetails = approval.connectionDetails();
 
-            // Decrypt the connection details using the private key
-            String decryptedConnectionDetails = decryptMessage(encryptedConnectionDetails);
+            // Decrypt the connection details using the private key, then expand them
+            String decryptedConnectionDetails = ConnectionDetailsCodec.decode(decryptBytes(encryptedConnectionDetails));
 
-            System.out.println("Received connection approval from: " + approverUserId);
-            System.out.println("Decrypted connection details: " + decryptedConnectionDetails);
+            AsyncLogger.info("Received connection approval from: " + approverUserId);
 
             // Additional processing of connection details (e.g., parse SDP/ICE information)
-            processConnectionDetails(decryptedConnectionDetails, approverUserId);
+            processConnectionDetails(negotiation, decryptedConnectionDetails);
+            listener.onApproval(approverUserId, decryptedConnectionDetails);
         } catch (Exception e) {
-            System.err.println("Failed to handle approval message.");
-            e.printStackTrace();
+            negotiation.transition(PeerNegotiations.State.CONNECTING, PeerNegotiations.State.FAILED);
+            AsyncLogger.error("Failed to handle approval message.", e);
         }
     }
 
@@ -273,139 +340,166 @@ public class WebSocketClient {
      * Forward connection details to the Go Server for processing
      * @param connectionDetails The connection details to forward
      * @param user The user who sent the connection details
-     * JSON Structure:
+     * JSON Structure (framed by SidecarChannel):
      * {
-     *   "messageType": "connect",
-     *   "connectionDetails": "SDP/ICE information",
-     *   "user": "User ID"
+     *   "id": 7,
+     *   "type": "connect",
+     *   "to": "User ID",
+     *   "payload": "SDP/ICE information"
      * }
      */
-    private void processConnectionDetails(String connectionDetails, String approverUserId) {
+    private void processConnectionDetails(PeerNegotiations.Negotiation negotiation, String connectionDetails) {
         // Add logic to handle or parse the decrypted connection details (SDP/ICE)
-        System.out.println("Processing connection details: " + connectionDetails);
-        forwardConnectionInfoToGoServer(connectionDetails, approverUserId);
+        forwardConnectionInfoToGoServer(negotiation, connectionDetails);
     }
 
-    private void handleReceivedConnectionInfo(JsonNode jsonMessage) {
-        String connectionDetails = jsonMessage.get("connectionDetails").asText();
-        System.out.println("Received connection details: " + connectionDetails);
-
-        // Forward these details to the Go Server for processing
-        try {
-            Map<String, String> command = new HashMap<>();
-            command.put("type", "processConnectionDetails");
-            command.put("payload", connectionDetails);
-
-            String commandJson = objectMapper.writeValueAsString(command);
-            goServerWriter.write(commandJson);
-            goServerWriter.newLine();
-            goServerWriter.flush();
-        } catch (IOException e) {
-            System.err.println("Failed to send connection details to Go Server.");
-            e.printStackTrace();
-        }
+    /*
+     * Complete the session handshake started by the server's registration confirmation
+     * @param sessionKey The server's ephemeral public key
+     */
+    private void establishSession(String sessionKey) throws GeneralSecurityException {
+        sessionCipher = SessionCipher.accept(privateKey, sessionKey);
+        AsyncLogger.info("Session key established.");
     }
 
     private String decryptMessage(String encryptedMessage) throws Exception {
+        return new String(decryptBytes(encryptedMessage));
+    }
+
+    // ECIES decryption with this client's private key
+    private byte[] decryptBytes(String encryptedMessage) throws Exception {
         byte[] encryptedBytes = Base64.getDecoder().decode(encryptedMessage);
-        Cipher cipher = Cipher.getInstance("ECIES", "BC");
-        cipher.init(Cipher.DECRYPT_MODE, privateKey);
-        byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
-        return new String(decryptedBytes);
+        Cipher cipher = CryptoPool.borrowCipher(CryptoPool.ECIES);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            return cipher.doFinal(encryptedBytes);
+        } finally {
+            CryptoPool.releaseCipher(CryptoPool.ECIES, cipher);
+        }
     }
 
-    private void handleConnectionRequest(JsonNode jsonMessage) {
+    private void handleConnectionRequest(IncomingConnectionRequest connectionRequest) {
         try {
-            String requesterUserId = jsonMessage.get("fromUserId").asText();
-            String requesterPublicKeyString = jsonMessage.get("requesterPublicKey").asText();
-            byte[] publicKeyBytes = Base64.getDecoder().decode(requesterPublicKeyString);
-            KeyFactory keyFactory = KeyFactory.getInstance("EC");
-            PublicKey requesterPublicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+            String requesterUserId = connectionRequest.fromUserId();
+            String requesterPublicKeyString = connectionRequest.requesterPublicKey();
+            // Peers asking again are served from the shared cache instead of being decoded again
+            PublicKey requesterPublicKey = PublicKeyCache.decode(requesterPublicKeyString);
 
-            System.out.println("Connection request from: " + requesterUserId);
+            AsyncLogger.info("Connection request from: " + requesterUserId);
 
-            // Store the requester's public key in the map
-            requesterPublicKeys.put(requesterUserId, requesterPublicKey);
+            // Keep the requester's public key with its negotiation, a repeated request joins the one in progress
+            if (negotiations.begin(requesterUserId, PeerNegotiations.State.REQUESTED, requesterPublicKey) == null) {
+                AsyncLogger.info("Negotiation with " + requesterUserId + " already in progress.");
+                return;
+            }
+            listener.onConnectionRequest(requesterUserId);
 
             // Automatically approve for now (this can be replaced with a UI hook)
             approveConnection(requesterUserId);
         } catch (Exception e) {
-            e.printStackTrace();
+            AsyncLogger.error("Failed to handle connection request.", e);
         }
     }
 
+    /*
+     * Approve a pending request with connection details for this requester alone
+     * A pooled offer is bound to the requester, or one is gathered if the pool ran dry. The
+     * approval is sent when the sidecar answers, unless the negotiation timed out meanwhile.
+     */
     private void approveConnection(String requesterUserId) {
-        PublicKey requesterPublicKey = requesterPublicKeys.remove(requesterUserId); // Remove from map
-        if (requesterPublicKey == null) {
-            System.err.println("No pending request from: " + requesterUserId);
+        PeerNegotiations.Negotiation negotiation = negotiations.get(requesterUserId);
+        if (negotiation == null || !negotiation.transition(PeerNegotiations.State.REQUESTED, PeerNegotiations.State.GATHERING)) {
+            AsyncLogger.error("No pending request from: " + requesterUserId);
             return;
         }
-        try {
-            Cipher cipher = Cipher.getInstance("ECIES", "BC");
-            cipher.init(Cipher.ENCRYPT_MODE, requesterPublicKey);
-            byte[] encryptedDetails = cipher.doFinal(connectionDetails.getBytes());
+        offerPool.take(requesterUserId).whenComplete((details, error) -> {
+            if (error != null) {
+                AsyncLogger.error("Failed to get connection info for " + requesterUserId + ": " + error.getMessage());
+                negotiation.transition(PeerNegotiations.State.GATHERING, PeerNegotiations.State.FAILED);
+            } else {
+                sendApproval(negotiation, details);
+            }
+        });
+    }
 
-            Map<String, String> approvalMessage = new HashMap<>();
-            approvalMessage.put("messageType", "Connection approval");
-            approvalMessage.put("requesterUserId", requesterUserId);
-            approvalMessage.put("connectionDetails", Base64.getEncoder().encodeToString(encryptedDetails));
+    private void sendApproval(PeerNegotiations.Negotiation negotiation, String connectionDetails) {
+        String requesterUserId = negotiation.getPeerUserId();
+        try {
+            byte[] encryptedDetails;
+            Cipher cipher = CryptoPool.borrowCipher(CryptoPool.ECIES);
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, negotiation.getPeerPublicKey());
+                // Compacted before encryption, the ciphertext would not compress afterwards
+                encryptedDetails = cipher.doFinal(ConnectionDetailsCodec.encode(connectionDetails));
+            } finally {
+                CryptoPool.releaseCipher(CryptoPool.ECIES, cipher);
+            }
 
-            sendSignedMessage(approvalMessage);
-            System.out.println("Approved connection for: " + requesterUserId);
+            if (!negotiation.transition(PeerNegotiations.State.GATHERING, PeerNegotiations.State.APPROVED)) {
+                AsyncLogger.error("Negotiation with " + requesterUserId + " ended before the approval was sent.");
+                return;
+            }
+            sendSignedMessage(new ConnectionApproval(requesterUserId, Base64.getEncoder().encodeToString(encryptedDetails)));
+            AsyncLogger.info("Approved connection for: " + requesterUserId);
         } catch (Exception e) {
-            System.err.println("Failed to encrypt connection details for: " + requesterUserId);
-            e.printStackTrace();
+            negotiation.transition(PeerNegotiations.State.GATHERING, PeerNegotiations.State.FAILED);
+            AsyncLogger.error("Failed to encrypt connection details for: " + requesterUserId, e);
         }
     }
 
     private void rejectConnection(String requesterUserId) {
-        // Remove the requester's public key from the map
-        PublicKey removedKey = requesterPublicKeys.remove(requesterUserId);
-        if (removedKey == null) {
-            System.err.println("No pending request from: " + requesterUserId);
+        PeerNegotiations.Negotiation negotiation = negotiations.get(requesterUserId);
+        if (negotiation == null || !negotiation.transition(PeerNegotiations.State.REQUESTED, PeerNegotiations.State.REJECTED)) {
+            AsyncLogger.error("No pending request from: " + requesterUserId);
             return;
         }
 
         // Send rejection message to the server
-        Map<String, String> rejectionMessage = new HashMap<>();
-        rejectionMessage.put("messageType", "Connection rejection");
-        rejectionMessage.put("requesterUserId", requesterUserId);
-
-        sendSignedMessage(rejectionMessage);
-        System.out.println("Rejected connection for: " + requesterUserId);
+        sendSignedMessage(new ConnectionRejection(requesterUserId));
+        AsyncLogger.info("Rejected connection for: " + requesterUserId);
     }
 
-    private void sendSignedMessage(Map<String, String> messageData) {
+    private void sendSignedMessage(Message message) {
         try {
-            String payload = objectMapper.writeValueAsString(messageData);
+            if (wireFormat == WireFormat.BINARY) {
+                byte[] payload = WireFormat.BINARY.writeBytes(message);
+                session.getAsyncRemote().sendBinary(SignedEnvelope.encodeBinary(sign(payload), payload));
+            } else {
+                String payload = WireFormat.TEXT.writeString(message);
+                session.getAsyncRemote().sendText(SignedEnvelope.encode(sign(payload.getBytes(StandardCharsets.UTF_8)), payload));
+            }
+        } catch (Exception e) {
+            AsyncLogger.error("Failed to send " + message.messageType() + " message.", e);
+        }
+    }
 
-            Signature signature = Signature.getInstance("SHA256withECDSA");
+    // Sign the exact payload bytes, the server verifies them as received
+    private byte[] sign(byte[] payload) throws GeneralSecurityException {
+        Signature signature = CryptoPool.borrowSignature(CryptoPool.ECDSA_SHA256);
+        try {
             signature.initSign(privateKey);
-            signature.update(payload.getBytes());
-            String signatureBase64 = Base64.getEncoder().encodeToString(signature.sign());
-
-            messageData.put("signature", signatureBase64);
-
-            String signedJsonMessage = objectMapper.writeValueAsString(messageData);
-            session.getAsyncRemote().sendText(signedJsonMessage);
-        } catch (Exception e) {
-            e.printStackTrace();
+            signature.update(payload);
+            return signature.sign();
+        } finally {
+            CryptoPool.releaseSignature(CryptoPool.ECDSA_SHA256, signature);
         }
     }
 
-    private void sendGetConnectionInformationToGoServer() {
+    /*
+     * Close the server connection and the sidecar
+     */
+    public void close() {
+        closing = true;
+        negotiations.failAll();
+        offerPool.close();
         try {
-            // Send a `getInfo` request to the Go Server
-            Map<String, String> command = new HashMap<>();
-            command.put("type", "getInfo");
-
-            String commandJson = objectMapper.writeValueAsString(command);
-            goServerWriter.write(commandJson);
-            goServerWriter.newLine();
-            goServerWriter.flush();
+            if (session != null) {
+                session.close();
+            }
         } catch (IOException e) {
-            System.err.println("Failed to communicate with Go Server: " + e.getMessage());
-            e.printStackTrace();
+            AsyncLogger.error("Failed to close the server connection: " + e.getMessage());
+        } finally {
+            goSidecar.close();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,203 @@
+package com.realtimesecurechat.loadtest;
+
+import com.realtimesecurechat.client.WebSocketClient;
+import com.realtimesecurechat.server.ServerLauncher;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.glassfish.tyrus.server.Server;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Headless load generator for the signaling server.
+ * Clients run in pairs, each pair driven by its own virtual thread:
+ *   both clients connect and register,
+ *   the requester sends a connection request to the approver,
+ *   the approver approves automatically,
+ *   the requester receives and decrypts the approver's connection details.
+ * Clients stay connected until the run ends, so the server carries the full
+ * client count at the peak. The Go sidecar is replaced by a stub.
+ *
+ * Given several endpoints, the nodes of a cluster, pairs are spread over them
+ * with the requester and approver of each pair on neighbouring nodes, so every
+ * handshake is routed between two nodes.
+ *
+ * Registration latency is measured per client from connect to the session key
+ * being established, handshake latency per pair from the connection request
+ * to the decrypted approval. Both are reported as HdrHistograms.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.loadtest.uri            (comma separated, default: start a server in-process on localhost:8080)
+ *   realtimesecurechat.loadtest.clients        (default 2000, rounded down to an even number)
+ *   realtimesecurechat.loadtest.maxInFlight    (pairs between connect and approval at once, default 256)
+ *   realtimesecurechat.loadtest.timeoutSeconds (per step, default 30)
+ */
+public class LoadGenerator {
+    private static final String URI_PROPERTY = System.getProperty("realtimesecurechat.loadtest.uri");
+    private static final int CLIENTS = Integer.getInteger("realtimesecurechat.loadtest.clients", 2000);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("realtimesecurechat.loadtest.maxInFlight", 256);
+    private static final long TIMEOUT_SECONDS = Long.getLong("realtimesecurechat.loadtest.timeoutSeconds", 30);
+
+    // Latencies are recorded in microseconds, up to one hour, with three significant digits
+    private final Histogram registrationLatency = new ConcurrentHistogram(TimeUnit.HOURS.toMicros(1), 3);
+    private final Histogram handshakeLatency = new ConcurrentHistogram(TimeUnit.HOURS.toMicros(1), 3);
+    private final LongAdder failedPairs = new LongAdder();
+    private final Queue<WebSocketClient> clients = new ConcurrentLinkedQueue<>();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    private final WebSocketContainer container;
+    private final List<URI> endpointURIs;
+
+    LoadGenerator(WebSocketContainer container, List<URI> endpointURIs) {
+        this.container = container;
+        this.endpointURIs = endpointURIs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Server server = null;
+        List<URI> endpointURIs;
+        if (URI_PROPERTY != null) {
+            endpointURIs = Arrays.stream(URI_PROPERTY.split(","))
+                    .map(String::trim)
+                    .filter(uri -> !uri.isEmpty())
+                    .map(URI::create)
+                    .toList();
+        } else {
+            server = ServerLauncher.start("localhost", 8080);
+            endpointURIs = List.of(URI.create("ws://localhost:8080/ws/chat"));
+        }
+
+        try {
+            LoadGenerator loadGenerator = new LoadGenerator(ContainerProvider.getWebSocketContainer(), endpointURIs);
+            loadGenerator.run(CLIENTS / 2);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    /*
+     * Drive the given number of client pairs and print the report
+     * @param pairs The number of requester/approver pairs
+     */
+    void run(int pairs) {
+        System.out.println("Load test: " + pairs * 2 + " clients against " + endpointURIs);
+        long startTime = System.nanoTime();
+
+        // Closing the executor waits for every pair to finish
+        try (ExecutorService pairExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int pair = 0; pair < pairs; pair++) {
+                int pairIndex = pair;
+                pairExecutor.execute(() -> runPair(pairIndex));
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - startTime;
+        report(pairs, elapsedNanos);
+
+        WebSocketClient client;
+        while ((client = clients.poll()) != null) {
+            client.close();
+        }
+    }
+
+    private void runPair(int pair) {
+        String requesterUserId = "load-requester-" + pair;
+        String approverUserId = "load-approver-" + pair;
+        ClientEvents requesterEvents = new ClientEvents();
+        ClientEvents approverEvents = new ClientEvents();
+
+        inFlight.acquireUninterruptibly();
+        try {
+            URI requesterURI = endpointURIs.get(pair % endpointURIs.size());
+            URI approverURI = endpointURIs.get((pair + 1) % endpointURIs.size());
+
+            long connectTime = System.nanoTime();
+            WebSocketClient requester = new WebSocketClient(container, requesterURI, requesterUserId, new StubGoSidecar(), requesterEvents);
+            clients.add(requester);
+            clients.add(new WebSocketClient(container, approverURI, approverUserId, new StubGoSidecar(), approverEvents));
+
+            long requesterRegistered = requesterEvents.registered.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            long approverRegistered = approverEvents.registered.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            registrationLatency.recordValue(micros(requesterRegistered - connectTime));
+            registrationLatency.recordValue(micros(approverRegistered - connectTime));
+
+            long requestTime = System.nanoTime();
+            requester.requestConnection(approverUserId);
+            long approvalTime = requesterEvents.approved.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            handshakeLatency.recordValue(micros(approvalTime - requestTime));
+        } catch (Exception e) {
+            failedPairs.increment();
+            System.err.println("Load test pair " + pair + " failed: " + e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private void report(int pairs, long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / 1e9;
+        long completed = handshakeLatency.getTotalCount();
+
+        System.out.println();
+        System.out.println("Clients:            " + pairs * 2);
+        System.out.println("Completed pairs:    " + completed);
+        System.out.println("Failed pairs:       " + failedPairs.sum());
+        System.out.println("Forwarded to stub:  " + StubGoSidecar.getForwardedConnections());
+        System.out.printf("Elapsed:            %.2f s%n", elapsedSeconds);
+        System.out.printf("Registrations/s:    %.1f%n", registrationLatency.getTotalCount() / elapsedSeconds);
+        System.out.printf("Handshakes/s:       %.1f%n", completed / elapsedSeconds);
+        printLatency("Registration", registrationLatency);
+        printLatency("Handshake", handshakeLatency);
+    }
+
+    private static void printLatency(String name, Histogram histogram) {
+        System.out.println();
+        System.out.printf("%s latency (ms): p50=%.2f p99=%.2f p999=%.2f max=%.2f%n", name,
+                histogram.getValueAtPercentile(50.0) / 1000.0,
+                histogram.getValueAtPercentile(99.0) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+        // Full distribution in milliseconds, in the HdrHistogram percentile format
+        histogram.outputPercentileDistribution(System.out, 1000.0);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    // Signaling events of one client, completed with the System.nanoTime() they arrived at
+    private static class ClientEvents implements WebSocketClient.Listener {
+        final CompletableFuture<Long> registered = new CompletableFuture<>();
+        final CompletableFuture<Long> approved = new CompletableFuture<>();
+
+        @Override
+        public void onRegistered(String userId) {
+            registered.complete(System.nanoTime());
+        }
+
+        @Override
+        public void onApproval(String approverUserId, String connectionDetails) {
+            approved.complete(System.nanoTime());
+        }
+
+        @Override
+        public void onError(String message) {
+            IllegalStateException error = new IllegalStateException("Error from server: " + message);
+            registered.completeExceptionally(error);
+            approved.completeExceptionally(error);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.realtimesecurechat.loadtest;
+
+import com.realtimesecurechat.client.GoSidecar;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Stand-in for the Go WebRTC sidecar.
+ * Answers connection info and offer requests immediately with canned SDP sized
+ * details and accepts bindings and forwarded peer details without doing
+ * anything with them.
+ */
+public class StubGoSidecar implements GoSidecar {
+    public static final String CONNECTION_DETAILS = "v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n".repeat(24);
+
+    private static final LongAdder forwardedConnections = new LongAdder();
+    private static final AtomicLong gatheredOffers = new AtomicLong();
+
+    @Override
+    public void start(Runnable onConnected) {
+        onConnected.run();
+    }
+
+    @Override
+    public CompletableFuture<String> requestConnectionInfo(String peerUserId) {
+        return CompletableFuture.completedFuture(CONNECTION_DETAILS);
+    }
+
+    @Override
+    public CompletableFuture<Offer> gatherOffer() {
+        return CompletableFuture.completedFuture(new Offer("offer-" + gatheredOffers.incrementAndGet(), CONNECTION_DETAILS));
+    }
+
+    @Override
+    public CompletableFuture<Void> bindOffer(String offerId, String peerUserId) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseOffer(String offerId) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> connect(String connectionDetails, String user) {
+        forwardedConnections.increment();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public static long getForwardedConnections() {
+        return forwardedConnections.sum();
+    }
+}
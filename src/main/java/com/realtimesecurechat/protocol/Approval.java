@@ -0,0 +1,15 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Connection approval forwarded to the requester
+ * @param user The approving user
+ * @param connectionDetails The approver's connection details, ECIES encrypted to the requester
+ */
+public record Approval(String user, String connectionDetails) implements Message {
+    public static final String TYPE = "Approval";
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
@@ -0,0 +1,24 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Confirmation of a client request
+ * The registration confirmation also carries the session handshake.
+ * @param message Human readable confirmation
+ * @param user The user the confirmation concerns
+ * @param sessionKey The server's ephemeral public key, registration only
+ * @param wireFormat The accepted wire format, registration and resumption only
+ * @param resumptionToken Base64 secret for resuming the session, registration and resumption only
+ */
+public record Confirmation(String message, String user, String sessionKey, String wireFormat,
+                           String resumptionToken) implements Message {
+    public static final String TYPE = "Confirmation";
+
+    public Confirmation(String message, String user) {
+        this(message, user, null, null, null);
+    }
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
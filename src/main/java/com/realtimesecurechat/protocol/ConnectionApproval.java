@@ -0,0 +1,15 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Approval of a pending connection request
+ * @param requesterUserId The user whose request is approved
+ * @param connectionDetails Connection details, ECIES encrypted to the requester and Base64 encoded
+ */
+public record ConnectionApproval(String requesterUserId, String connectionDetails) implements Message {
+    public static final String TYPE = "Connection approval";
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
@@ -0,0 +1,14 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Rejection of a pending connection request
+ * @param requesterUserId The user whose request is rejected
+ */
+public record ConnectionRejection(String requesterUserId) implements Message {
+    public static final String TYPE = "Connection rejection";
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
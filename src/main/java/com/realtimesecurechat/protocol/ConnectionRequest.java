@@ -0,0 +1,14 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Request to connect to another user
+ * @param targetUserId The user to connect to
+ */
+public record ConnectionRequest(String targetUserId) implements Message {
+    public static final String TYPE = "Connection request";
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
@@ -0,0 +1,14 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Error reported to the client
+ * @param message Human readable error
+ */
+public record ErrorMessage(String message) implements Message {
+    public static final String TYPE = "Error";
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
@@ -0,0 +1,15 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Connection request forwarded to its target
+ * @param fromUserId The requesting user
+ * @param requesterPublicKey The requester's Base64 public key, to encrypt the connection details to
+ */
+public record IncomingConnectionRequest(String fromUserId, String requesterPublicKey) implements Message {
+    public static final String TYPE = "connectionRequest";
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
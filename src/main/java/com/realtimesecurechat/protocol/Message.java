@@ -0,0 +1,37 @@
+package com.realtimesecurechat.protocol;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/*
+ * Signaling protocol message.
+ * The "messageType" field selects the record and is written first, so the
+ * reader picks the concrete type from the first field and binds the rest
+ * straight into the record, without building a tree. Absent optional fields
+ * are left out.
+ *
+ * Client to server: Register, Resume, ConnectionRequest, ConnectionApproval, ConnectionRejection
+ * Server to client: Confirmation, ErrorMessage, IncomingConnectionRequest, Approval
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "messageType")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = Register.class, name = Register.TYPE),
+        @JsonSubTypes.Type(value = Resume.class, name = Resume.TYPE),
+        @JsonSubTypes.Type(value = ConnectionRequest.class, name = ConnectionRequest.TYPE),
+        @JsonSubTypes.Type(value = ConnectionApproval.class, name = ConnectionApproval.TYPE),
+        @JsonSubTypes.Type(value = ConnectionRejection.class, name = ConnectionRejection.TYPE),
+        @JsonSubTypes.Type(value = Confirmation.class, name = Confirmation.TYPE),
+        @JsonSubTypes.Type(value = ErrorMessage.class, name = ErrorMessage.TYPE),
+        @JsonSubTypes.Type(value = IncomingConnectionRequest.class, name = IncomingConnectionRequest.TYPE),
+        @JsonSubTypes.Type(value = Approval.class, name = Approval.TYPE)
+})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public sealed interface Message permits Register, Resume, ConnectionRequest, ConnectionApproval, ConnectionRejection,
+        Confirmation, ErrorMessage, IncomingConnectionRequest, Approval {
+
+    // The value of the "messageType" field
+    @JsonIgnore
+    String messageType();
+}
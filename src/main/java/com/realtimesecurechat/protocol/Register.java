@@ -0,0 +1,16 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Client registration, signed with the key it carries
+ * @param userId The user ID to register
+ * @param publicKey Base64 X.509 EC public key
+ * @param wireFormat Requested wire format, null for text
+ */
+public record Register(String userId, String publicKey, String wireFormat) implements Message {
+    public static final String TYPE = "Register";
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
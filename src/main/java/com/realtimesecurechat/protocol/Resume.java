@@ -0,0 +1,17 @@
+package com.realtimesecurechat.protocol;
+
+/*
+ * Resumption of a recently closed session, sent instead of Register
+ * The envelope carries an HMAC under the resumption token instead of a signature.
+ * @param userId The user to resume
+ * @param clientNonce Base64 random nonce, salts the resumed session key
+ * @param wireFormat Requested wire format, null for text
+ */
+public record Resume(String userId, String clientNonce, String wireFormat) implements Message {
+    public static final String TYPE = "Resume";
+
+    @Override
+    public String messageType() {
+        return TYPE;
+    }
+}
@@ -0,0 +1,76 @@
+package com.realtimesecurechat.protocol;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import java.io.IOException;
+
+/*
+ * Encoding of message bodies on the WebSocket.
+ *   TEXT   - JSON in text frames, encrypted frames Base64 encoded
+ *   BINARY - CBOR in binary frames, encrypted frames sent raw
+ * Clients ask for a format in their registration message ("wireFormat") and
+ * the server echoes the accepted one in the registration confirmation. The
+ * registration exchange itself is always TEXT; both directions switch right
+ * after the confirmation, together with the session cipher.
+ *
+ * Each format holds a reader and writer bound to Message once, so reading
+ * and writing skip the per-call type lookup. Unknown fields are ignored.
+ */
+public enum WireFormat {
+    TEXT("text", new ObjectMapper()),
+    BINARY("binary", new ObjectMapper(new CBORFactory()));
+
+    private final String name;
+    private final ObjectReader messageReader;
+    private final ObjectWriter messageWriter;
+
+    WireFormat(String name, ObjectMapper objectMapper) {
+        this.name = name;
+        objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.messageReader = objectMapper.readerFor(Message.class);
+        this.messageWriter = objectMapper.writerFor(Message.class);
+    }
+
+    // The value used in the "wireFormat" message field
+    public String getName() {
+        return name;
+    }
+
+    /*
+     * Read a message from a range of a buffer
+     * Throws InvalidTypeIdException for a missing or unknown messageType.
+     * @param buffer The buffer holding the encoded message
+     * @param offset The start of the message
+     * @param length The number of bytes of the message
+     * @return The message
+     */
+    public Message read(byte[] buffer, int offset, int length) throws IOException {
+        return messageReader.readValue(buffer, offset, length);
+    }
+
+    public Message read(byte[] buffer) throws IOException {
+        return messageReader.readValue(buffer);
+    }
+
+    public byte[] writeBytes(Message message) throws IOException {
+        return messageWriter.writeValueAsBytes(message);
+    }
+
+    // Only meaningful for TEXT
+    public String writeString(Message message) throws IOException {
+        return messageWriter.writeValueAsString(message);
+    }
+
+    /*
+     * Look up a format by its message field value
+     * @param name The requested format, may be null
+     * @return The format, TEXT for missing or unknown values
+     */
+    public static WireFormat fromName(String name) {
+        return BINARY.name.equals(name) ? BINARY : TEXT;
+    }
+}
@@ -0,0 +1,166 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.protocol.Message;
+import com.realtimesecurechat.utils.AsyncLogger;
+import com.realtimesecurechat.utils.CryptoPool;
+import com.realtimesecurechat.utils.SerialExecutor;
+import jakarta.websocket.Session;
+
+import javax.crypto.Cipher;
+import java.util.Base64;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * All server state for one client connection.
+ * Created when the session opens and stored in the session's user properties,
+ * so handlers holding a Session reach it with a single property lookup.
+ * Holds the registered identity, its verification context, the outbound queue
+ * (which owns the negotiated session cipher), the per-session dispatcher and
+ * the frame rate limit.
+ * Pending connection requests are kept by user ID in the PendingRequestIndex.
+ */
+class ClientConnection {
+    private static final String USER_PROPERTY = ClientConnection.class.getName();
+
+    enum FrameAdmission { ADMITTED, FIRST_LIMITED, LIMITED }
+
+    private final Session session;
+    private final SerialExecutor dispatcher;
+    private final OutboundQueue outboundQueue;
+    private final TokenBucket frameLimiter = RateLimits.newSessionBucket();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean rateLimited = new AtomicBoolean();
+    private volatile String userId;
+    private volatile ClientVerificationContext verificationContext;
+    private volatile byte[] resumptionSecret;
+
+    private ClientConnection(Session session, Executor messageExecutor) {
+        this.session = session;
+        this.dispatcher = new SerialExecutor(messageExecutor);
+        this.outboundQueue = new OutboundQueue(session, this::encryptWithPublicKey);
+    }
+
+    /*
+     * Create the connection state for a newly opened session
+     * @param session The opened session
+     * @param messageExecutor The executor the session's dispatcher runs on
+     * @return The attached connection
+     */
+    static ClientConnection attach(Session session, Executor messageExecutor) {
+        ClientConnection connection = new ClientConnection(session, messageExecutor);
+        session.getUserProperties().put(USER_PROPERTY, connection);
+        return connection;
+    }
+
+    // The connection attached to a session, or null if none
+    static ClientConnection of(Session session) {
+        return (ClientConnection) session.getUserProperties().get(USER_PROPERTY);
+    }
+
+    // Set the identity, called by the registry once the registration signature is verified
+    synchronized void register(String userId, ClientVerificationContext verificationContext) {
+        this.verificationContext = verificationContext;
+        this.userId = userId;
+    }
+
+    /*
+     * Drop the identity if it is still userId, called when a newer connection takes the user ID over
+     * The connection stays open as an unregistered one, and its close no longer affects the user.
+     */
+    synchronized void displace(String userId) {
+        if (userId.equals(this.userId)) {
+            this.userId = null;
+            this.verificationContext = null;
+            this.resumptionSecret = null;
+        }
+    }
+
+    /*
+     * Mark the connection closed and release its queued state
+     * @return true for the first call, false if it was already closed
+     */
+    boolean close() {
+        if (!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        outboundQueue.close();
+        return true;
+    }
+
+    /*
+     * Queue a message for encryption and delivery to this client
+     * @param message The message to send
+     */
+    void send(Message message) {
+        outboundQueue.send(message);
+    }
+
+    /*
+     * Take a frame token from the session's bucket
+     * @return ADMITTED, or LIMITED for a frame over the limit, FIRST_LIMITED for the first of a run of them
+     */
+    FrameAdmission admitFrame() {
+        if (frameLimiter.tryAcquire()) {
+            if (rateLimited.get()) {
+                rateLimited.set(false);
+            }
+            return FrameAdmission.ADMITTED;
+        }
+        return rateLimited.compareAndSet(false, true) ? FrameAdmission.FIRST_LIMITED : FrameAdmission.LIMITED;
+    }
+
+    private String encryptWithPublicKey(String plainText) throws Exception {
+        // Encrypt the message with the client's public key
+        ClientVerificationContext currentVerificationContext = verificationContext;
+        if (currentVerificationContext == null) {
+            AsyncLogger.info("Public key not found for session: " + session.getId());
+            return null;
+        }
+        Cipher cipher = CryptoPool.borrowCipher(CryptoPool.ECIES);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, currentVerificationContext.getPublicKey());
+            byte[] encryptedMessage = cipher.doFinal(plainText.getBytes());
+            return Base64.getEncoder().encodeToString(encryptedMessage);
+        } finally {
+            CryptoPool.releaseCipher(CryptoPool.ECIES, cipher);
+        }
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    SerialExecutor getDispatcher() {
+        return dispatcher;
+    }
+
+    OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    String getUserId() {
+        return userId;
+    }
+
+    ClientVerificationContext getVerificationContext() {
+        return verificationContext;
+    }
+
+    // The secret of the resumption token issued to this connection, or null
+    byte[] getResumptionSecret() {
+        return resumptionSecret;
+    }
+
+    void setResumptionSecret(byte[] resumptionSecret) {
+        this.resumptionSecret = resumptionSecret;
+    }
+
+    boolean isRegistered() {
+        return userId != null;
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+}
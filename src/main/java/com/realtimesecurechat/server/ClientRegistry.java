@@ -0,0 +1,164 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.BiDirectionalMap;
+import jakarta.websocket.Session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Registry of client connections.
+ * A connection is reachable from its session through the user properties, and
+ * from its user ID through this registry once registered. The registry also
+ * owns the pending connection requests sent by its users, and reports its
+ * users to the presence directory. A user's pending requests outlive its last
+ * connection by the session resumption grace period.
+ */
+class ClientRegistry {
+    // Bidirectional map for client user ID to connection
+    private final BiDirectionalMap<String, ClientConnection> userIdToConnection = new BiDirectionalMap<>();
+    private final PendingRequestIndex pendingRequests = new PendingRequestIndex();
+    private final SessionResumption resumption = new SessionResumption(this::expireParked);
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    private final Executor messageExecutor;
+    private final PresenceDirectory presenceDirectory;
+
+    ClientRegistry(Executor messageExecutor, PresenceDirectory presenceDirectory) {
+        this.messageExecutor = messageExecutor;
+        this.presenceDirectory = presenceDirectory;
+    }
+
+    // Attach connection state to a newly opened session
+    ClientConnection open(Session session) {
+        openConnections.incrementAndGet();
+        return ClientConnection.attach(session, messageExecutor);
+    }
+
+    // A connection to register under a user ID
+    interface Registration {
+        ClientConnection connection();
+
+        String userId();
+
+        ClientVerificationContext verificationContext();
+    }
+
+    /*
+     * Register a connection under a user ID
+     * A connection registering again moves to the new ID, leaving the previous
+     * one offline. A later connection for an ID takes it over from the earlier
+     * one, which loses its identity.
+     * @return false if the connection was already closed
+     */
+    boolean register(ClientConnection connection, String userId, ClientVerificationContext verificationContext) {
+        if (!attach(connection, userId, verificationContext)) {
+            return false;
+        }
+        presenceDirectory.register(userId);
+        return true;
+    }
+
+    /*
+     * Register a batch of connections, announcing them to the presence directory together
+     * @param registrations The registrations, applied in order
+     * @return The registrations whose connection was still open
+     */
+    <T extends Registration> List<T> registerAll(List<T> registrations) {
+        List<T> registered = new ArrayList<>(registrations.size());
+        List<String> userIds = new ArrayList<>(registrations.size());
+        for (T registration : registrations) {
+            if (attach(registration.connection(), registration.userId(), registration.verificationContext())) {
+                registered.add(registration);
+                userIds.add(registration.userId());
+            }
+        }
+        presenceDirectory.registerAll(userIds);
+        return registered;
+    }
+
+    private boolean attach(ClientConnection connection, String userId, ClientVerificationContext verificationContext) {
+        if (connection.isClosed()) {
+            return false;
+        }
+        String previousUserId = connection.getUserId();
+        connection.register(userId, verificationContext);
+        resumption.discard(userId);
+        ClientConnection displaced = userIdToConnection.put(userId, connection);
+        if (displaced != null && displaced != connection) {
+            displaced.displace(userId);
+        }
+        if (previousUserId != null && !previousUserId.equals(userId)) {
+            release(previousUserId);
+        }
+        // A close that raced the put has to undo it
+        if (connection.isClosed()) {
+            userIdToConnection.remove(userId, connection);
+            return false;
+        }
+        return true;
+    }
+
+    // A connection left a user ID for another one, the user is offline unless connected again meanwhile
+    private void release(String userId) {
+        if (findByUserId(userId) == null) {
+            presenceDirectory.unregister(userId);
+            pendingRequests.removeUser(userId);
+        }
+    }
+
+    // The open connection registered under a user ID, or null
+    ClientConnection findByUserId(String userId) {
+        return userIdToConnection.getValue(userId);
+    }
+
+    /*
+     * Close a connection and remove every trace of it
+     * @return true if this call closed it
+     */
+    boolean close(ClientConnection connection) {
+        if (!connection.close()) {
+            return false;
+        }
+        openConnections.decrementAndGet();
+        String userId = connection.getUserId();
+        // Only drop the mapping if no newer connection took over the user ID
+        userIdToConnection.removeByValue(connection);
+        if (userId != null && findByUserId(userId) == null) {
+            presenceDirectory.unregister(userId);
+            // Pending requests are kept while the identity waits to be resumed
+            byte[] resumptionSecret = connection.getResumptionSecret();
+            if (resumptionSecret == null || !resumption.park(userId, connection.getVerificationContext(), resumptionSecret)) {
+                pendingRequests.removeUser(userId);
+            }
+        }
+        return true;
+    }
+
+    // A parked identity expired, drop its requests unless the user registered again meanwhile
+    private void expireParked(String userId) {
+        if (findByUserId(userId) == null) {
+            pendingRequests.removeUser(userId);
+        }
+    }
+
+    SessionResumption getResumption() {
+        return resumption;
+    }
+
+    PendingRequestIndex getPendingRequests() {
+        return pendingRequests;
+    }
+
+    // Sessions opened and not yet closed
+    int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    // Users with a registered connection
+    int getRegisteredUsers() {
+        return userIdToConnection.size();
+    }
+}
@@ -0,0 +1,94 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.CryptoPool;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Verification context for a registered client.
+ * Holds the decoded public key together with a small pool of Signature
+ * objects that are already initialised for verification, so checking a frame
+ * only borrows an instance, verifies and hands it back.
+ * A borrowed Signature is confined to the calling thread until it is returned.
+ */
+class ClientVerificationContext {
+
+    private static final int MAX_POOLED_VERIFIERS = 8;
+
+    private final PublicKey publicKey;
+    private final String encodedPublicKey;
+    private final Queue<Signature> verifiers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledVerifiers = new AtomicInteger();
+
+    private ClientVerificationContext(PublicKey publicKey, String encodedPublicKey) {
+        this.publicKey = publicKey;
+        this.encodedPublicKey = encodedPublicKey;
+    }
+
+    /*
+     * Decode a Base64 X.509 EC public key and build a context for it
+     * @param publicKeyBase64 The key as sent in the registration message
+     * @return The verification context for the key
+     */
+    static ClientVerificationContext fromEncodedKey(String publicKeyBase64) throws GeneralSecurityException {
+        byte[] publicKeyBytes = Base64.getDecoder().decode(publicKeyBase64);
+        // Registrations run on virtual threads, a per-thread KeyFactory would never be reused
+        PublicKey publicKey = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+        return new ClientVerificationContext(publicKey, publicKeyBase64);
+    }
+
+    PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    // Base64 form of the key, kept so forwarding it does not re-encode
+    String getEncodedPublicKey() {
+        return encodedPublicKey;
+    }
+
+    /*
+     * Verify a signature over a range of the given buffer
+     * @param buffer The buffer holding the signed bytes
+     * @param offset The start of the signed bytes
+     * @param length The number of signed bytes
+     * @param signatureBytes The DER encoded ECDSA signature
+     * @return true if the signature is valid, false otherwise
+     */
+    boolean verify(byte[] buffer, int offset, int length, byte[] signatureBytes) throws GeneralSecurityException {
+        Signature verifier = borrowVerifier();
+        verifier.update(buffer, offset, length);
+        // verify() throws on malformed signatures, in which case the instance is dropped
+        boolean isValid = verifier.verify(signatureBytes);
+        returnVerifier(verifier);
+        return isValid;
+    }
+
+    private Signature borrowVerifier() throws GeneralSecurityException {
+        Signature verifier = verifiers.poll();
+        if (verifier != null) {
+            pooledVerifiers.decrementAndGet();
+            return verifier;
+        }
+        verifier = CryptoPool.borrowSignature(CryptoPool.ECDSA_SHA256);
+        verifier.initVerify(publicKey);
+        return verifier;
+    }
+
+    private void returnVerifier(Signature verifier) {
+        // verify() resets the instance to its post-initVerify state, so it can be reused as is
+        if (pooledVerifiers.incrementAndGet() <= MAX_POOLED_VERIFIERS) {
+            verifiers.offer(verifier);
+        } else {
+            pooledVerifiers.decrementAndGet();
+            CryptoPool.releaseSignature(CryptoPool.ECDSA_SHA256, verifier);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.realtimesecurechat.server;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.realtimesecurechat.protocol.Message;
+
+/*
+ * Frame on a link between two signaling nodes, one JSON object per line.
+ *   hello   - first frame on a link, names the sending node
+ *   online  - a user registered on the sending node at registeredAt
+ *   offline - a user's last connection on the sending node closed
+ *   route   - a message for a user connected to the receiving node
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+record ClusterFrame(String type, String nodeId, String userId, Long registeredAt, Message message) {
+    static final String HELLO = "hello";
+    static final String ONLINE = "online";
+    static final String OFFLINE = "offline";
+    static final String ROUTE = "route";
+
+    static ClusterFrame hello(String nodeId) {
+        return new ClusterFrame(HELLO, nodeId, null, null, null);
+    }
+
+    static ClusterFrame online(String userId, long registeredAt) {
+        return new ClusterFrame(ONLINE, null, userId, registeredAt, null);
+    }
+
+    static ClusterFrame offline(String userId) {
+        return new ClusterFrame(OFFLINE, null, userId, null, null);
+    }
+
+    static ClusterFrame route(String userId, Message message) {
+        return new ClusterFrame(ROUTE, null, userId, null, message);
+    }
+}
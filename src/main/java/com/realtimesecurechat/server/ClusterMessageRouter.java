@@ -0,0 +1,44 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.protocol.Message;
+import com.realtimesecurechat.utils.AsyncLogger;
+
+/*
+ * Routing across the cluster.
+ * Messages for users on this node are delivered locally, the rest are
+ * forwarded to the node the presence directory names, which delivers them to
+ * its local session. Forwarding is best effort: a message for a peer that is
+ * disconnected, or for a user who moved meanwhile, is dropped.
+ */
+class ClusterMessageRouter implements MessageRouter, ClusterTransport.Listener {
+    private final ClusterTransport transport;
+    private final PresenceDirectory presenceDirectory;
+    private final LocalDelivery localDelivery;
+
+    ClusterMessageRouter(ClusterTransport transport, PresenceDirectory presenceDirectory, LocalDelivery localDelivery) {
+        this.transport = transport;
+        this.presenceDirectory = presenceDirectory;
+        this.localDelivery = localDelivery;
+    }
+
+    @Override
+    public boolean route(String userId, Message message) {
+        String nodeId = presenceDirectory.findNode(userId);
+        if (nodeId == null) {
+            return false;
+        }
+        if (nodeId.equals(presenceDirectory.getLocalNodeId())) {
+            return localDelivery.deliver(userId, message);
+        }
+        return transport.send(nodeId, ClusterFrame.route(userId, message));
+    }
+
+    @Override
+    public void onFrame(String nodeId, ClusterFrame frame) {
+        if (ClusterFrame.ROUTE.equals(frame.type()) && frame.message() != null
+                && !localDelivery.deliver(frame.userId(), frame.message())) {
+            AsyncLogger.info("Message routed from " + nodeId + " not delivered: " + frame.message().messageType()
+                    + " for " + frame.userId());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.realtimesecurechat.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Presence replicated to every node of the cluster.
+ * Each node announces its own users to all peers, and sends its full list of
+ * local users whenever a link to a peer comes up. A user announced by two
+ * nodes belongs to the later registration, with ties going to the higher node
+ * ID, so all nodes settle on the same owner. A node's users are forgotten when
+ * its link drops and learnt again from its next announcement.
+ *
+ * Local changes are announced under one lock, so a full announcement never
+ * overtakes a later change on the same link.
+ */
+class ClusterPresenceDirectory implements PresenceDirectory, ClusterTransport.Listener {
+
+    private record Presence(String nodeId, long registeredAt) {
+        boolean supersedes(Presence other) {
+            return registeredAt != other.registeredAt ? registeredAt > other.registeredAt : nodeId.compareTo(other.nodeId) > 0;
+        }
+    }
+
+    private final ClusterTransport transport;
+    private final String localNodeId;
+    private final Map<String, Presence> presence = new ConcurrentHashMap<>();
+    private final Map<String, Long> localRegistrations = new ConcurrentHashMap<>();
+    private final ReentrantLock announceLock = new ReentrantLock();
+
+    ClusterPresenceDirectory(ClusterTransport transport) {
+        this.transport = transport;
+        this.localNodeId = transport.getLocalNodeId();
+    }
+
+    @Override
+    public String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    @Override
+    public void register(String userId) {
+        registerAll(List.of(userId));
+    }
+
+    // Announces the whole batch under one hold of the lock
+    @Override
+    public void registerAll(List<String> userIds) {
+        announceLock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            for (String userId : userIds) {
+                // A registration here always takes over from whatever this node knew, whatever the peers' clocks say
+                Presence known = presence.get(userId);
+                long registeredAt = Math.max(now, known != null ? known.registeredAt() + 1 : 0);
+                localRegistrations.put(userId, registeredAt);
+                presence.put(userId, new Presence(localNodeId, registeredAt));
+                transport.broadcast(ClusterFrame.online(userId, registeredAt));
+            }
+        } finally {
+            announceLock.unlock();
+        }
+    }
+
+    @Override
+    public void unregister(String userId) {
+        announceLock.lock();
+        try {
+            localRegistrations.remove(userId);
+            removeIfOwnedBy(userId, localNodeId);
+            transport.broadcast(ClusterFrame.offline(userId));
+        } finally {
+            announceLock.unlock();
+        }
+    }
+
+    @Override
+    public String findNode(String userId) {
+        Presence current = presence.get(userId);
+        return current != null ? current.nodeId() : null;
+    }
+
+    @Override
+    public void onPeerConnected(String nodeId) {
+        announceLock.lock();
+        try {
+            localRegistrations.forEach((userId, registeredAt) -> transport.send(nodeId, ClusterFrame.online(userId, registeredAt)));
+        } finally {
+            announceLock.unlock();
+        }
+    }
+
+    @Override
+    public void onPeerDisconnected(String nodeId) {
+        presence.values().removeIf(current -> current.nodeId().equals(nodeId));
+    }
+
+    @Override
+    public void onFrame(String nodeId, ClusterFrame frame) {
+        switch (frame.type()) {
+            case ClusterFrame.ONLINE -> {
+                Presence announced = new Presence(nodeId, frame.registeredAt());
+                presence.merge(frame.userId(), announced, (current, update) -> update.supersedes(current) ? update : current);
+            }
+            case ClusterFrame.OFFLINE -> removeIfOwnedBy(frame.userId(), nodeId);
+            default -> {
+            }
+        }
+    }
+
+    // Number of users known across the cluster
+    int size() {
+        return presence.size();
+    }
+
+    private void removeIfOwnedBy(String userId, String nodeId) {
+        presence.computeIfPresent(userId, (key, current) -> current.nodeId().equals(nodeId) ? null : current);
+    }
+}
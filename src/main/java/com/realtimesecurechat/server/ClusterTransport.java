@@ -0,0 +1,309 @@
+package com.realtimesecurechat.server;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.realtimesecurechat.utils.AsyncLogger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * TCP links between the signaling nodes of a cluster, one ClusterFrame per line.
+ * Every node dials every peer and only writes on the links it dialled, and
+ * only reads on the links it accepted, so there is exactly one ordered stream
+ * from each node to each other node. A node's ID is the host:port its peers
+ * dial, so the peer list is also the list of node IDs.
+ *
+ * Frames are queued per peer and written by one virtual thread per link,
+ * which reconnects after a fixed backoff. Nothing is ever written back on a
+ * dialled link, so reading its end of stream tells the dialling node that the
+ * peer dropped the link even while it has nothing to send. Frames for a disconnected peer, or
+ * beyond the queue capacity, are dropped; listeners resend their state when
+ * the link comes back. Links are neither authenticated nor encrypted, the
+ * cluster port belongs on a private network.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.cluster.port          (clustering is off when unset)
+ *   realtimesecurechat.cluster.host          (default localhost)
+ *   realtimesecurechat.cluster.nodeId        (default host:port)
+ *   realtimesecurechat.cluster.peers         (comma separated node IDs of the other nodes)
+ *   realtimesecurechat.cluster.queueCapacity (frames per peer, default 65536)
+ */
+class ClusterTransport {
+    private static final Integer PORT = Integer.getInteger("realtimesecurechat.cluster.port");
+    private static final String HOST = System.getProperty("realtimesecurechat.cluster.host", "localhost");
+    private static final int QUEUE_CAPACITY = Integer.getInteger("realtimesecurechat.cluster.queueCapacity", 65536);
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final ObjectReader frameReader = objectMapper.readerFor(ClusterFrame.class);
+    private static final ObjectWriter frameWriter = objectMapper.writerFor(ClusterFrame.class);
+
+    // Link events and inbound frames, called on the link threads
+    interface Listener {
+        // A link to the peer was established, frames sent from now on reach it in order
+        default void onPeerConnected(String nodeId) {
+        }
+
+        // The peer's link to this node closed, whatever it announced may be stale
+        default void onPeerDisconnected(String nodeId) {
+        }
+
+        void onFrame(String nodeId, ClusterFrame frame);
+    }
+
+    private static final class PeerLink {
+        final String nodeId;
+        final BlockingQueue<ClusterFrame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        volatile boolean connected;
+
+        PeerLink(String nodeId) {
+            this.nodeId = nodeId;
+        }
+    }
+
+    private final String localNodeId;
+    private final InetSocketAddress bindAddress;
+    private final Map<String, PeerLink> peers = new ConcurrentHashMap<>();
+    private final Map<String, Socket> inboundLinks = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connectedPeers = new AtomicInteger();
+    private final LongAdder droppedFrames = new LongAdder();
+
+    /*
+     * @param localNodeId The ID peers know this node by
+     * @param bindAddress The address to accept peer links on
+     * @param peerNodeIds The host:port of every other node, this node's own ID is skipped
+     */
+    ClusterTransport(String localNodeId, InetSocketAddress bindAddress, List<String> peerNodeIds) {
+        this.localNodeId = localNodeId;
+        this.bindAddress = bindAddress;
+        for (String peerNodeId : peerNodeIds) {
+            if (!peerNodeId.equals(localNodeId)) {
+                peers.put(peerNodeId, new PeerLink(peerNodeId));
+            }
+        }
+    }
+
+    // Whether clustering is configured
+    static boolean isEnabled() {
+        return PORT != null;
+    }
+
+    static ClusterTransport fromSystemProperties() {
+        String localNodeId = System.getProperty("realtimesecurechat.cluster.nodeId", HOST + ":" + PORT);
+        List<String> peerNodeIds = Arrays.stream(System.getProperty("realtimesecurechat.cluster.peers", "").split(","))
+                .map(String::trim)
+                .filter(peer -> !peer.isEmpty())
+                .toList();
+        return new ClusterTransport(localNodeId, new InetSocketAddress(HOST, PORT), peerNodeIds);
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /*
+     * Listen for peers and start dialling them
+     * Listeners must be added before.
+     */
+    void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+        Thread.ofVirtual().name("cluster-accept").start(() -> acceptLinks(serverSocket));
+        for (PeerLink link : peers.values()) {
+            Thread.ofVirtual().name("cluster-link-" + link.nodeId).start(() -> runLink(link));
+        }
+        AsyncLogger.info("Cluster node " + localNodeId + " listening on " + bindAddress + ", peers: " + peers.keySet());
+    }
+
+    /*
+     * Queue a frame for one peer
+     * @return false if the peer is not connected or its queue is full
+     */
+    boolean send(String nodeId, ClusterFrame frame) {
+        PeerLink link = peers.get(nodeId);
+        if (link == null || !link.connected) {
+            return false;
+        }
+        if (!link.queue.offer(frame)) {
+            droppedFrames.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // Queue a frame for every connected peer
+    void broadcast(ClusterFrame frame) {
+        for (String nodeId : peers.keySet()) {
+            send(nodeId, frame);
+        }
+    }
+
+    String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    int getConnectedPeers() {
+        return connectedPeers.get();
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    // Dial a peer and write its queued frames, for as long as the server runs
+    private void runLink(PeerLink link) {
+        String[] hostAndPort = link.nodeId.split(":", 2);
+        InetSocketAddress address = new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+        boolean reportFailure = true;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                // Dialling a local port nobody listens on can connect the socket to itself,
+                // which would hold the peer's port until the link is dropped
+                if (socket.getLocalPort() == socket.getPort() && socket.getLocalAddress().equals(socket.getInetAddress())) {
+                    throw new IOException("connected to itself");
+                }
+                socket.setTcpNoDelay(true);
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                writeFrame(writer, ClusterFrame.hello(localNodeId));
+                writer.flush();
+
+                // Anything left from the previous link is superseded by what listeners send now
+                droppedFrames.add(link.queue.size());
+                link.queue.clear();
+                link.connected = true;
+                connectedPeers.incrementAndGet();
+                reportFailure = true;
+                AsyncLogger.info("Cluster link to " + link.nodeId + " established.");
+                Thread.ofVirtual().name("cluster-watch-" + link.nodeId).start(() -> watchLink(socket));
+                try {
+                    listeners.forEach(listener -> listener.onPeerConnected(link.nodeId));
+                    while (true) {
+                        ClusterFrame frame = link.queue.poll(RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+                        if (frame == null) {
+                            if (socket.isClosed()) {
+                                throw new IOException("link closed by the peer");
+                            }
+                            continue;
+                        }
+                        writeFrame(writer, frame);
+                        // Flush once the queue is drained, so bursts go out in few packets
+                        if (link.queue.isEmpty()) {
+                            writer.flush();
+                        }
+                    }
+                } finally {
+                    link.connected = false;
+                    connectedPeers.decrementAndGet();
+                }
+            } catch (IOException e) {
+                if (reportFailure) {
+                    AsyncLogger.info("Cluster link to " + link.nodeId + " unavailable: " + e.getMessage());
+                    reportFailure = false;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Close a dialled link once the peer closes its end, the peer never writes on it
+    private static void watchLink(Socket socket) {
+        try (socket) {
+            while (socket.getInputStream().read() >= 0) {
+                // Nothing is expected, keep waiting for the end of stream
+            }
+        } catch (IOException e) {
+            // Closed by either side, the writer reconnects
+        }
+    }
+
+    private void acceptLinks(ServerSocket serverSocket) {
+        while (true) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("cluster-reader").start(() -> readLink(socket));
+            } catch (IOException e) {
+                AsyncLogger.error("Cluster listener failed", e);
+                return;
+            }
+        }
+    }
+
+    // Read the frames a peer sends on the link it dialled
+    private void readLink(Socket socket) {
+        String nodeId = null;
+        try (socket; BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            ClusterFrame hello = line != null ? frameReader.readValue(line) : null;
+            if (hello == null || !ClusterFrame.HELLO.equals(hello.type()) || hello.nodeId() == null) {
+                AsyncLogger.info("Cluster link from " + socket.getRemoteSocketAddress() + " closed: no hello.");
+                return;
+            }
+            nodeId = hello.nodeId();
+
+            // A new link from a node replaces its previous one
+            Socket previous = inboundLinks.put(nodeId, socket);
+            if (previous != null) {
+                previous.close();
+            }
+
+            while ((line = reader.readLine()) != null) {
+                ClusterFrame frame;
+                try {
+                    frame = frameReader.readValue(line);
+                } catch (IOException e) {
+                    AsyncLogger.error("Invalid cluster frame from " + nodeId + ": " + e.getMessage());
+                    continue;
+                }
+                for (Listener listener : listeners) {
+                    listener.onFrame(nodeId, frame);
+                }
+            }
+        } catch (IOException e) {
+            if (nodeId != null) {
+                AsyncLogger.info("Cluster link from " + nodeId + " failed: " + e.getMessage());
+            }
+        } finally {
+            // Only the current link of a node reports it gone
+            if (nodeId != null && inboundLinks.remove(nodeId, socket)) {
+                String disconnectedNodeId = nodeId;
+                listeners.forEach(listener -> listener.onPeerDisconnected(disconnectedNodeId));
+            }
+        }
+    }
+
+    private static void writeFrame(BufferedWriter writer, ClusterFrame frame) throws IOException {
+        writer.write(frameWriter.writeValueAsString(frame));
+        writer.newLine();
+    }
+}
@@ -0,0 +1,29 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.WebSocketCompression;
+import jakarta.websocket.Extension;
+import jakarta.websocket.server.ServerEndpointConfig;
+
+import java.util.List;
+
+/*
+ * Accepts permessage-deflate when the client offers it.
+ * An annotated endpoint has no installed extensions of its own, so the
+ * extensions from WebSocketCompression are negotiated here instead. The
+ * installed extension itself is returned rather than the client's offer,
+ * which is what Tyrus needs to compress and inflate the connection's frames.
+ */
+public class CompressionConfigurator extends ServerEndpointConfig.Configurator {
+
+    @Override
+    public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+        for (Extension offered : requested) {
+            for (Extension supported : WebSocketCompression.extensions()) {
+                if (supported.getName().equals(offered.getName())) {
+                    return List.of(supported);
+                }
+            }
+        }
+        return List.of();
+    }
+}
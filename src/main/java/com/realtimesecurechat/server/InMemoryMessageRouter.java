@@ -0,0 +1,19 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.protocol.Message;
+
+/*
+ * Routing within a single node, every message is delivered locally.
+ */
+class InMemoryMessageRouter implements MessageRouter {
+    private final LocalDelivery localDelivery;
+
+    InMemoryMessageRouter(LocalDelivery localDelivery) {
+        this.localDelivery = localDelivery;
+    }
+
+    @Override
+    public boolean route(String userId, Message message) {
+        return localDelivery.deliver(userId, message);
+    }
+}
@@ -0,0 +1,33 @@
+package com.realtimesecurechat.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Presence of a single node, every online user is connected to it.
+ */
+class InMemoryPresenceDirectory implements PresenceDirectory {
+    static final String LOCAL_NODE_ID = "local";
+
+    private final Set<String> onlineUsers = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public String getLocalNodeId() {
+        return LOCAL_NODE_ID;
+    }
+
+    @Override
+    public void register(String userId) {
+        onlineUsers.add(userId);
+    }
+
+    @Override
+    public void unregister(String userId) {
+        onlineUsers.remove(userId);
+    }
+
+    @Override
+    public String findNode(String userId) {
+        return onlineUsers.contains(userId) ? LOCAL_NODE_ID : null;
+    }
+}
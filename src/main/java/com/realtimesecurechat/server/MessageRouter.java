@@ -0,0 +1,30 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.protocol.Message;
+
+/*
+ * Delivers server messages to a user wherever the user is connected.
+ * Messages for users on this node, and messages arriving from other nodes,
+ * are handed to the LocalDelivery.
+ */
+interface MessageRouter {
+
+    // Delivery to a user connected to this node
+    @FunctionalInterface
+    interface LocalDelivery {
+        /*
+         * @param userId The recipient
+         * @param message The message to send
+         * @return false if the message was not delivered
+         */
+        boolean deliver(String userId, Message message);
+    }
+
+    /*
+     * Route a message to the node owning the user's session
+     * @param userId The recipient
+     * @param message The message to send
+     * @return false if the user is not online or the message could not be handed on
+     */
+    boolean route(String userId, Message message);
+}
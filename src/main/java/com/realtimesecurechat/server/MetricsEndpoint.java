@@ -0,0 +1,40 @@
+package com.realtimesecurechat.server;
+
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+
+import java.io.IOException;
+
+/*
+ * Prometheus scrape endpoint, serving ServerMetrics at http://host:port/metrics.
+ * Tyrus keeps its Grizzly HTTP server internal, so the endpoint runs on its own
+ * Grizzly listener next to it.
+ */
+class MetricsEndpoint {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private MetricsEndpoint() {
+    }
+
+    /*
+     * Start serving the metrics
+     * @param host The host to bind to
+     * @param port The port to listen on
+     * @return The started HTTP server, shut down by the caller
+     */
+    static HttpServer start(String host, int port) throws IOException {
+        HttpServer httpServer = HttpServer.createSimpleServer(null, host, port);
+        httpServer.getServerConfiguration().addHttpHandler(new HttpHandler() {
+            @Override
+            public void service(Request request, Response response) throws Exception {
+                response.setContentType(CONTENT_TYPE);
+                response.setCharacterEncoding("UTF-8");
+                response.getWriter().write(ServerMetrics.render());
+            }
+        }, "/metrics");
+        httpServer.start();
+        return httpServer;
+    }
+}
@@ -0,0 +1,435 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.AsyncLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/*
+ * Store-and-forward of connection requests to users that are offline.
+ * A request to an absent user is deposited in the target's mailbox and the
+ * whole mailbox is delivered when the target next registers, so requesters
+ * do not have to retry until the target shows up. Each mailbox holds at most
+ * one request per requester and a bounded number overall, each requester has
+ * a bounded number of requests across all mailboxes, so one client cannot
+ * fill the mailbox for everyone; requests expire after a TTL.
+ *
+ * Mailboxes are kept in a sequential append log on disk, the heap only holds
+ * each request's requester, deposit time and position in the log; the
+ * requester's public key is read back on delivery. The log is
+ *   magic (int) | version (int), then records of
+ *   length (int) | CRC32C of the body (int) | body
+ *   deposit: type (byte) | time (long) | target | requester | requester public key
+ *   drain:   type (byte) | time (long) | target
+ * with each string a length (short) and its UTF-8 bytes. A drain empties the
+ * target's mailbox as of that point in the log. On open the log is replayed
+ * up to the first torn or corrupt record, dropping expired requests. Once the
+ * log is mostly delivered or expired requests it is compacted into a new
+ * file that atomically replaces it.
+ *
+ * Mailboxes live on the node the request was sent to, and are delivered when
+ * the target registers on that node. WebSocketServer therefore only enables
+ * the mailbox on a node outside a cluster, and only with the public key
+ * store, so requests are only queued for user IDs that exist.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.mailbox.path            (the mailbox is off when unset)
+ *   realtimesecurechat.mailbox.ttlMillis       (default 86400000)
+ *   realtimesecurechat.mailbox.maxPerUser      (default 32)
+ *   realtimesecurechat.mailbox.maxPerRequester (default 32, across all mailboxes)
+ *   realtimesecurechat.mailbox.maxLetters      (default 100000, across all mailboxes)
+ *   realtimesecurechat.mailbox.sync            (default false, force every append to disk)
+ */
+class OfflineMailbox implements AutoCloseable {
+    private static final String PATH = System.getProperty("realtimesecurechat.mailbox.path");
+    static final long TTL_MILLIS = Long.getLong("realtimesecurechat.mailbox.ttlMillis", 86_400_000);
+    static final int MAX_PER_USER = Integer.getInteger("realtimesecurechat.mailbox.maxPerUser", 32);
+    static final int MAX_PER_REQUESTER = Integer.getInteger("realtimesecurechat.mailbox.maxPerRequester", 32);
+    static final int MAX_LETTERS = Integer.getInteger("realtimesecurechat.mailbox.maxLetters", 100_000);
+    private static final boolean SYNC = Boolean.getBoolean("realtimesecurechat.mailbox.sync");
+
+    private static final int MAGIC = 0x5254534D; // "RTSM"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final byte TYPE_DEPOSIT = 1;
+    private static final byte TYPE_DRAIN = 2;
+    private static final int MAX_RECORD_LENGTH = 1 + 8 + 3 * (2 + 0xFFFF);
+    private static final int MIN_COMPACTION_BYTES = 1 << 20;
+    private static final long EXPIRY_INTERVAL_MILLIS = 60_000;
+
+    private static final ScheduledExecutorService expiryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "offline-mailbox-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    enum Deposit { QUEUED, ALREADY_QUEUED, FULL, REQUESTER_FULL }
+
+    // A request delivered from a mailbox
+    record Letter(String requesterUserId, String requesterPublicKey) {
+    }
+
+    // A deposited request, its body is read back from the log on delivery
+    private record Slot(String requesterUserId, long depositedAt, long offset, int length) {
+    }
+
+    private final Path path;
+    private final long ttlMillis;
+    private final Map<String, List<Slot>> mailboxes = new HashMap<>();
+    private final Map<String, Integer> lettersByRequester = new HashMap<>();
+    private final LongAdder expiredLetters = new LongAdder();
+    private FileChannel channel;
+    private long writePosition;
+    private long liveBytes;
+    private int letters;
+
+    private OfflineMailbox(Path path, long ttlMillis) {
+        this.path = path;
+        this.ttlMillis = ttlMillis;
+    }
+
+    static boolean isEnabled() {
+        return PATH != null;
+    }
+
+    // Open the mailbox configured through the system properties
+    static OfflineMailbox fromSystemProperties() throws IOException {
+        return open(Paths.get(PATH));
+    }
+
+    /*
+     * Open a mailbox log, creating it if it does not exist, and replay it
+     * @param path The log file
+     * @return The opened mailbox, closed by the caller
+     */
+    static OfflineMailbox open(Path path) throws IOException {
+        return open(path, TTL_MILLIS);
+    }
+
+    // @param ttlMillis How long deposited requests are kept
+    static OfflineMailbox open(Path path, long ttlMillis) throws IOException {
+        OfflineMailbox mailbox = new OfflineMailbox(path, ttlMillis);
+        mailbox.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mailbox.recover();
+        synchronized (mailbox) {
+            mailbox.compactIfWorthwhile();
+        }
+        expiryTimer.scheduleWithFixedDelay(mailbox::expire, EXPIRY_INTERVAL_MILLIS, EXPIRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return mailbox;
+    }
+
+    /*
+     * Deposit a connection request for an offline user
+     * @param targetUserId The user the request is for
+     * @param requesterUserId The user sending the request
+     * @param requesterPublicKey The requester's Base64 public key, forwarded with the request
+     * @return QUEUED, ALREADY_QUEUED if the requester already has a request in the mailbox,
+     *         REQUESTER_FULL at the requester's cap, FULL at the mailbox's or the overall cap
+     */
+    synchronized Deposit deposit(String targetUserId, String requesterUserId, String requesterPublicKey) throws IOException {
+        List<Slot> mailbox = mailboxes.get(targetUserId);
+        if (mailbox != null) {
+            for (Slot slot : mailbox) {
+                if (slot.requesterUserId().equals(requesterUserId)) {
+                    return Deposit.ALREADY_QUEUED;
+                }
+            }
+        }
+        if (lettersByRequester.getOrDefault(requesterUserId, 0) >= MAX_PER_REQUESTER) {
+            return Deposit.REQUESTER_FULL;
+        }
+        if (letters >= MAX_LETTERS || (mailbox != null && mailbox.size() >= MAX_PER_USER)) {
+            return Deposit.FULL;
+        }
+
+        long now = System.currentTimeMillis();
+        ByteBuffer record = encode(TYPE_DEPOSIT, now, targetUserId, requesterUserId, requesterPublicKey);
+        long offset = append(record);
+        mailboxes.computeIfAbsent(targetUserId, key -> new ArrayList<>())
+                .add(new Slot(requesterUserId, now, offset, record.limit()));
+        liveBytes += record.limit();
+        letters++;
+        countRequester(requesterUserId, 1);
+        return Deposit.QUEUED;
+    }
+
+    /*
+     * Take every unexpired request from a user's mailbox, in the order they were deposited
+     * @param targetUserId The user that registered
+     * @return The requests, empty if there were none
+     */
+    synchronized List<Letter> drain(String targetUserId) throws IOException {
+        List<Slot> mailbox = mailboxes.remove(targetUserId);
+        if (mailbox == null) {
+            return List.of();
+        }
+        long now = System.currentTimeMillis();
+        List<Letter> delivered = new ArrayList<>(mailbox.size());
+        for (Slot slot : mailbox) {
+            if (slot.depositedAt() + ttlMillis > now) {
+                delivered.add(read(slot));
+            } else {
+                expiredLetters.increment();
+            }
+            liveBytes -= slot.length();
+            letters--;
+            countRequester(slot.requesterUserId(), -1);
+        }
+        append(encode(TYPE_DRAIN, now, targetUserId, null, null));
+        compactIfWorthwhile();
+        return delivered;
+    }
+
+    // Requests waiting in all mailboxes
+    synchronized int size() {
+        return letters;
+    }
+
+    // Requests that expired before their target registered
+    long getExpiredLetters() {
+        return expiredLetters.sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        channel.force(false);
+        channel.close();
+        channel = null;
+    }
+
+    // Replay the log into the mailboxes, truncating a torn or corrupt tail
+    private void recover() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_LENGTH) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            writePosition = HEADER_LENGTH;
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a mailbox log of version " + VERSION + ": " + path);
+        }
+
+        long now = System.currentTimeMillis();
+        long position = HEADER_LENGTH;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        CRC32C crc = new CRC32C();
+        while (position < size) {
+            recordHeader.clear();
+            if (position + RECORD_HEADER_LENGTH > size || channel.read(recordHeader, position) < RECORD_HEADER_LENGTH) {
+                break;
+            }
+            int length = recordHeader.getInt(0);
+            if (length <= 0 || length > MAX_RECORD_LENGTH || position + RECORD_HEADER_LENGTH + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            channel.read(body, position + RECORD_HEADER_LENGTH);
+            crc.reset();
+            crc.update(body.flip());
+            if ((int) crc.getValue() != recordHeader.getInt(4) || !replay(body.rewind(), position, now)) {
+                break;
+            }
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        if (position < size) {
+            AsyncLogger.error("Mailbox log " + path + " has a torn or corrupt record at offset " + position + ", discarding the rest of the log.");
+            channel.truncate(position);
+        }
+        writePosition = position;
+    }
+
+    // Apply one checksummed record, false if it does not parse
+    private boolean replay(ByteBuffer body, long offset, long now) {
+        try {
+            byte type = body.get();
+            long time = body.getLong();
+            String targetUserId = readString(body);
+            if (type == TYPE_DRAIN) {
+                List<Slot> mailbox = mailboxes.remove(targetUserId);
+                if (mailbox != null) {
+                    for (Slot slot : mailbox) {
+                        liveBytes -= slot.length();
+                        countRequester(slot.requesterUserId(), -1);
+                    }
+                    letters -= mailbox.size();
+                }
+                return true;
+            }
+            if (type != TYPE_DEPOSIT) {
+                return false;
+            }
+            String requesterUserId = readString(body);
+            readString(body);
+            if (time + ttlMillis > now) {
+                int length = RECORD_HEADER_LENGTH + body.limit();
+                mailboxes.computeIfAbsent(targetUserId, key -> new ArrayList<>())
+                        .add(new Slot(requesterUserId, time, offset, length));
+                liveBytes += length;
+                letters++;
+                countRequester(requesterUserId, 1);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // Read a deposited request back from the log
+    private Letter read(Slot slot) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(slot.length() - RECORD_HEADER_LENGTH);
+        channel.read(body, slot.offset() + RECORD_HEADER_LENGTH);
+        body.flip();
+        body.get();
+        body.getLong();
+        readString(body);
+        return new Letter(readString(body), readString(body));
+    }
+
+    // Drop expired requests from the heap, the log forgets them when it is compacted
+    private synchronized void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<List<Slot>> mailboxIterator = mailboxes.values().iterator();
+        while (mailboxIterator.hasNext()) {
+            List<Slot> mailbox = mailboxIterator.next();
+            mailbox.removeIf(slot -> {
+                if (slot.depositedAt() + ttlMillis > now) {
+                    return false;
+                }
+                liveBytes -= slot.length();
+                letters--;
+                countRequester(slot.requesterUserId(), -1);
+                expiredLetters.increment();
+                return true;
+            });
+            if (mailbox.isEmpty()) {
+                mailboxIterator.remove();
+            }
+        }
+        try {
+            compactIfWorthwhile();
+        } catch (IOException e) {
+            AsyncLogger.error("Failed to compact mailbox log " + path, e);
+        }
+    }
+
+    // Track the requests a requester has waiting, dropping requesters with none
+    private void countRequester(String requesterUserId, int delta) {
+        lettersByRequester.merge(requesterUserId, delta, (count, change) -> count + change == 0 ? null : count + change);
+    }
+
+    // Append a complete record at the end of the log and return its offset
+    private long append(ByteBuffer record) throws IOException {
+        if (channel == null) {
+            throw new IOException("Mailbox log is closed: " + path);
+        }
+        long offset = writePosition;
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+        record.rewind();
+        writePosition = offset + record.limit();
+        if (SYNC) {
+            channel.force(false);
+        }
+        return offset;
+    }
+
+    private void compactIfWorthwhile() throws IOException {
+        long deadBytes = writePosition - HEADER_LENGTH - liveBytes;
+        if (channel != null && deadBytes >= MIN_COMPACTION_BYTES && deadBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    /*
+     * Copy the live deposits to a new log and swap it in
+     * The new log is complete and forced before the rename, so a crash leaves either log intact.
+     */
+    private void compact() throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Map<String, List<Slot>> compactedMailboxes = new HashMap<>();
+        long position = HEADER_LENGTH;
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            target.write(ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION).flip(), 0);
+            for (Map.Entry<String, List<Slot>> mailbox : mailboxes.entrySet()) {
+                List<Slot> slots = new ArrayList<>(mailbox.getValue().size());
+                for (Slot slot : mailbox.getValue()) {
+                    long copied = 0;
+                    while (copied < slot.length()) {
+                        copied += channel.transferTo(slot.offset() + copied, slot.length() - copied, target.position(position + copied));
+                    }
+                    slots.add(new Slot(slot.requesterUserId(), slot.depositedAt(), position, slot.length()));
+                    position += slot.length();
+                }
+                compactedMailboxes.put(mailbox.getKey(), slots);
+            }
+            target.force(true);
+        }
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mailboxes.clear();
+        mailboxes.putAll(compactedMailboxes);
+        writePosition = position;
+        AsyncLogger.info("Compacted mailbox log " + path + " to " + writePosition + " bytes.");
+    }
+
+    private static ByteBuffer encode(byte type, long time, String targetUserId, String requesterUserId, String requesterPublicKey)
+            throws IOException {
+        byte[] target = bytes(targetUserId);
+        byte[] requester = requesterUserId != null ? bytes(requesterUserId) : null;
+        byte[] publicKey = requesterPublicKey != null ? bytes(requesterPublicKey) : null;
+        int length = 1 + 8 + 2 + target.length
+                + (requester != null ? 2 + requester.length + 2 + publicKey.length : 0);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + length);
+        record.position(RECORD_HEADER_LENGTH);
+        record.put(type).putLong(time).putShort((short) target.length).put(target);
+        if (requester != null) {
+            record.putShort((short) requester.length).put(requester).putShort((short) publicKey.length).put(publicKey);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), RECORD_HEADER_LENGTH, length);
+        record.putInt(0, length).putInt(4, (int) crc.getValue());
+        return record.rewind();
+    }
+
+    private static byte[] bytes(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Field too long for the mailbox log.");
+        }
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[Short.toUnsignedInt(body.getShort())];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,339 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.protocol.Message;
+import com.realtimesecurechat.protocol.WireFormat;
+import com.realtimesecurechat.utils.AsyncLogger;
+import com.realtimesecurechat.utils.SessionCipher;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Bounded outbound queue for one client session.
+ * Producers only enqueue messages. A single drain task per session
+ * serializes and encrypts messages in order on the send executor, in the
+ * session's current wire format, and hands them to the async remote,
+ * one send in flight at a time, so a slow client never blocks the thread that
+ * produced the message. Drain steps run on virtual threads.
+ *
+ * Once the queue reaches the high watermark it stops accepting messages until
+ * it drains down to the low watermark. What happens to messages offered in
+ * between is decided by the overflow policy:
+ *   DROP       - discard the message
+ *   DISCONNECT - close the session
+ *   BLOCK      - wait for the queue to drain, dropping after a timeout
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.outbound.highWatermark  (default 256)
+ *   realtimesecurechat.outbound.lowWatermark   (default 64)
+ *   realtimesecurechat.outbound.overflowPolicy (DROP, DISCONNECT or BLOCK, any case, default DROP)
+ *   realtimesecurechat.outbound.blockTimeoutMillis (default 5000)
+ */
+class OutboundQueue {
+
+    enum OverflowPolicy { DROP, DISCONNECT, BLOCK }
+
+    // Encrypts a message before the session cipher is negotiated, null drops the message
+    @FunctionalInterface
+    interface Encryptor {
+        String encrypt(String plainText) throws Exception;
+    }
+
+    static final int HIGH_WATERMARK = Integer.getInteger("realtimesecurechat.outbound.highWatermark", 256);
+    static final int LOW_WATERMARK = Integer.getInteger("realtimesecurechat.outbound.lowWatermark", 64);
+    static final OverflowPolicy OVERFLOW_POLICY =
+            parseOverflowPolicy(System.getProperty("realtimesecurechat.outbound.overflowPolicy"));
+    private static final long BLOCK_TIMEOUT_MILLIS = Long.getLong("realtimesecurechat.outbound.blockTimeoutMillis", 5000);
+
+    private static final ExecutorService sendExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("send-", 0).factory());
+
+    // Metrics across all sessions
+    private static final AtomicLong totalQueueDepth = new AtomicLong();
+    private static final LongAdder droppedMessages = new LongAdder();
+    private static final LongAdder overflowDisconnects = new LongAdder();
+
+    private final Session session;
+    private final Encryptor publicKeyEncryptor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition writableAgain = lock.newCondition();
+    private final ArrayDeque<Outbound> queue = new ArrayDeque<>();
+    private boolean writable = true;
+    private boolean sending = false;
+    private boolean closed = false;
+    // Only changed by the drain task, volatile because drain steps run on different threads
+    private volatile SessionCipher sessionCipher;
+    private volatile WireFormat wireFormat = WireFormat.TEXT;
+
+    private record Outbound(Message message, SessionCipher nextSessionCipher, WireFormat nextWireFormat, boolean switchFirst) {
+    }
+
+    // The configured policy; an unknown value is logged and falls back to DROP
+    static OverflowPolicy parseOverflowPolicy(String value) {
+        if (value == null) {
+            return OverflowPolicy.DROP;
+        }
+        try {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            AsyncLogger.error("Unknown realtimesecurechat.outbound.overflowPolicy \"" + value + "\", using DROP.");
+            return OverflowPolicy.DROP;
+        }
+    }
+
+    OutboundQueue(Session session, Encryptor publicKeyEncryptor) {
+        this.session = session;
+        this.publicKeyEncryptor = publicKeyEncryptor;
+    }
+
+    /*
+     * Queue a message for serialization, encryption and delivery
+     * @param message The message to send
+     */
+    void send(Message message) {
+        enqueue(new Outbound(message, null, null, false), false);
+    }
+
+    /*
+     * Queue a message, then switch to a new session cipher and wire format for everything queued after it
+     * Handshake messages bypass the overflow policy so both sides stay in step.
+     * @param message The message, sent with the current channel
+     * @param nextSessionCipher The cipher to use from the next message on
+     * @param nextWireFormat The wire format to use from the next message on
+     */
+    void sendAndSwitchCipher(Message message, SessionCipher nextSessionCipher, WireFormat nextWireFormat) {
+        enqueue(new Outbound(message, nextSessionCipher, nextWireFormat, false), true);
+    }
+
+    /*
+     * Switch to a new session cipher and wire format, starting with this message
+     * Used when the client derived the new cipher on its own, as on resumption.
+     * @param message The message, sent with the new channel
+     * @param sessionCipher The cipher to use from this message on
+     * @param wireFormat The wire format to use from this message on
+     */
+    void switchCipherAndSend(Message message, SessionCipher sessionCipher, WireFormat wireFormat) {
+        enqueue(new Outbound(message, sessionCipher, wireFormat, true), true);
+    }
+
+    private void enqueue(Outbound message, boolean bypassOverflowPolicy) {
+        boolean startDrain = false;
+        boolean disconnect = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (!writable && !bypassOverflowPolicy) {
+                switch (OVERFLOW_POLICY) {
+                    case DROP:
+                        droppedMessages.increment();
+                        return;
+                    case DISCONNECT:
+                        disconnect = true;
+                        break;
+                    case BLOCK:
+                        if (!awaitWritable()) {
+                            droppedMessages.increment();
+                            return;
+                        }
+                        break;
+                }
+            }
+            if (!disconnect) {
+                queue.addLast(message);
+                totalQueueDepth.incrementAndGet();
+                if (queue.size() >= HIGH_WATERMARK) {
+                    writable = false;
+                }
+                if (!sending) {
+                    sending = true;
+                    startDrain = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (disconnect) {
+            overflowDisconnects.increment();
+            close();
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Outbound queue full."));
+            } catch (IOException e) {
+                AsyncLogger.error("Failed to close session with full outbound queue: " + session.getId());
+            }
+        } else if (startDrain) {
+            sendExecutor.execute(this::sendNext);
+        }
+    }
+
+    // Called with the lock held
+    private boolean awaitWritable() {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT_MILLIS);
+        try {
+            while (!writable && !closed) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = writableAgain.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
+    /*
+     * Encrypt and send the next message, continuing from the send completion
+     * The encrypt+send stage is timed from the start of encryption to the send completion.
+     */
+    private void sendNext() {
+        while (true) {
+            Outbound message;
+            lock.lock();
+            try {
+                message = queue.pollFirst();
+                if (message == null) {
+                    sending = false;
+                    return;
+                }
+                totalQueueDepth.decrementAndGet();
+                if (!writable && queue.size() <= LOW_WATERMARK) {
+                    writable = true;
+                    writableAgain.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            long sendStart = System.nanoTime();
+            Object encodedMessage = encode(message);
+            if (encodedMessage == null || !session.isOpen()) {
+                continue;
+            }
+
+            try {
+                String messageType = message.message().messageType();
+                SendHandler completion = result -> {
+                    if (result.isOK()) {
+                        ServerMetrics.recordStage(messageType, ServerMetrics.Stage.SEND, System.nanoTime() - sendStart);
+                    } else {
+                        AsyncLogger.error("Failed to send message to session " + session.getId() + ": " + result.getException());
+                    }
+                    sendExecutor.execute(this::sendNext);
+                };
+                if (encodedMessage instanceof ByteBuffer binaryMessage) {
+                    session.getAsyncRemote().sendBinary(binaryMessage, completion);
+                } else {
+                    session.getAsyncRemote().sendText((String) encodedMessage, completion);
+                }
+                return;
+            } catch (RuntimeException e) {
+                AsyncLogger.error("Failed to send message to session " + session.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Serialize and encrypt a message for the current channel, then apply the switch it carries
+     * The switch is applied even if the message fails. A handshake message that cannot
+     * be sent leaves the client on the old channel, so the session is closed.
+     * @return A String for a text frame, a ByteBuffer for a binary frame, or null to drop the message
+     */
+    private Object encode(Outbound message) {
+        RateLimits.acquireCrypto();
+        try {
+            if (message.switchFirst()) {
+                switchCipher(message);
+            }
+            SessionCipher currentSessionCipher = sessionCipher;
+            if (currentSessionCipher == null) {
+                // Only text frames before the session cipher exists
+                String plainText = WireFormat.TEXT.writeString(message.message());
+                return publicKeyEncryptor.encrypt(plainText);
+            } else if (wireFormat == WireFormat.BINARY) {
+                byte[] plainBytes = WireFormat.BINARY.writeBytes(message.message());
+                return ByteBuffer.wrap(currentSessionCipher.encryptBytes(plainBytes));
+            } else {
+                String plainText = WireFormat.TEXT.writeString(message.message());
+                return currentSessionCipher.encrypt(plainText);
+            }
+        } catch (Exception e) {
+            ServerMetrics.cryptoFailure("encrypt");
+            AsyncLogger.error("Failed to encrypt message for session " + session.getId(), e);
+            if (message.nextSessionCipher() != null) {
+                closeOutOfStep();
+            }
+            return null;
+        } finally {
+            if (message.nextSessionCipher() != null && !message.switchFirst()) {
+                switchCipher(message);
+            }
+            RateLimits.releaseCrypto();
+        }
+    }
+
+    private void closeOutOfStep() {
+        close();
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "Handshake message failed."));
+        } catch (IOException e) {
+            AsyncLogger.error("Failed to close session after a failed handshake message: " + session.getId());
+        }
+    }
+
+    private void switchCipher(Outbound message) {
+        sessionCipher = message.nextSessionCipher();
+        wireFormat = message.nextWireFormat();
+    }
+
+    /*
+     * Discard queued messages and refuse new ones
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            totalQueueDepth.addAndGet(-queue.size());
+            queue.clear();
+            writableAgain.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static long getTotalQueueDepth() {
+        return totalQueueDepth.get();
+    }
+
+    static long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    static long getOverflowDisconnects() {
+        return overflowDisconnects.sum();
+    }
+}
@@ -0,0 +1,218 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.AsyncLogger;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Pending connection requests, indexed in both directions.
+ *   requester -> (target -> request)
+ *   target    -> (requester -> request)
+ * Dropping a user only touches the requests that user sent or received.
+ *
+ * Requests expire after a TTL, driven by a hashed timer wheel that is advanced
+ * once per tick, and each user can have a bounded number of requests in each
+ * direction, so request floods cannot grow the index without limit.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.pendingRequests.ttlMillis  (default 60000)
+ *   realtimesecurechat.pendingRequests.maxPerUser (default 64)
+ */
+class PendingRequestIndex {
+    static final long TTL_MILLIS = Long.getLong("realtimesecurechat.pendingRequests.ttlMillis", 60_000);
+    static final int MAX_PER_USER = Integer.getInteger("realtimesecurechat.pendingRequests.maxPerUser", 64);
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 64;
+
+    private static final ScheduledExecutorService expiryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pending-request-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Map<String, Request>> byRequester = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Request>> byTarget = new ConcurrentHashMap<>();
+    private final Queue<Request>[] wheel;
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder expiredRequests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final long ttlMillis;
+    private long currentTick;
+
+    private record Request(String requester, String target, long deadlineTick) {
+    }
+
+    PendingRequestIndex() {
+        this(TTL_MILLIS);
+    }
+
+    // @param ttlMillis How long a request stays pending, rounded up to the next tick
+    @SuppressWarnings("unchecked")
+    PendingRequestIndex(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        wheel = new Queue[WHEEL_SLOTS];
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        currentTick = tickOf(System.currentTimeMillis());
+        expiryTimer.scheduleAtFixedRate(this::advance, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Record a request, or refresh its TTL if it is already pending
+     * @return false if either user is at the per-user cap
+     */
+    boolean add(String requester, String target) {
+        Request request = new Request(requester, target, tickOf(System.currentTimeMillis() + ttlMillis));
+        if (!insert(byTarget, target, requester, request)) {
+            rejectedRequests.increment();
+            return false;
+        }
+        if (!insert(byRequester, requester, target, request)) {
+            if (unlink(byTarget, target, requester, request)) {
+                size.decrementAndGet();
+            }
+            rejectedRequests.increment();
+            return false;
+        }
+        wheel[(int) (request.deadlineTick() % WHEEL_SLOTS)].add(request);
+        return true;
+    }
+
+    // Whether requester has an unexpired request pending towards target
+    boolean contains(String requester, String target) {
+        Map<String, Request> requests = byTarget.get(target);
+        Request request = requests != null ? requests.get(requester) : null;
+        return request != null && request.deadlineTick() > tickOf(System.currentTimeMillis());
+    }
+
+    /*
+     * Remove a pending request
+     * Of concurrent calls for one request, only one gets true, so it is answered once.
+     * @return true if it was pending and unexpired, and this call removed it
+     */
+    boolean remove(String requester, String target) {
+        Map<String, Request> requests = byTarget.get(target);
+        Request request = requests != null ? requests.get(requester) : null;
+        if (request == null || !removeRequest(request)) {
+            return false;
+        }
+        if (request.deadlineTick() > tickOf(System.currentTimeMillis())) {
+            return true;
+        }
+        // Expired but not yet reached by the timer wheel
+        expiredRequests.increment();
+        return false;
+    }
+
+    /*
+     * Drop every request sent or received by a user
+     * Runs in time proportional to that user's own requests.
+     */
+    void removeUser(String userId) {
+        Map<String, Request> sent = byRequester.get(userId);
+        if (sent != null) {
+            sent.values().forEach(this::removeRequest);
+        }
+        Map<String, Request> received = byTarget.get(userId);
+        if (received != null) {
+            received.values().forEach(this::removeRequest);
+        }
+    }
+
+    // Number of pending requests
+    int size() {
+        return size.get();
+    }
+
+    long getExpiredRequests() {
+        return expiredRequests.sum();
+    }
+
+    long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    private boolean removeRequest(Request request) {
+        // Removal from the target side decides which caller owns the removal
+        if (!unlink(byTarget, request.target(), request.requester(), request)) {
+            return false;
+        }
+        unlink(byRequester, request.requester(), request.target(), request);
+        size.decrementAndGet();
+        return true;
+    }
+
+    // Insert under the outer map's bin lock so the cap check and the put are atomic per user
+    private boolean insert(Map<String, Map<String, Request>> index, String user, String otherUser, Request request) {
+        boolean[] inserted = new boolean[1];
+        index.compute(user, (key, requests) -> {
+            if (requests == null) {
+                requests = new ConcurrentHashMap<>();
+            }
+            Request previous = requests.get(otherUser);
+            if (previous == null && requests.size() >= MAX_PER_USER) {
+                return requests.isEmpty() ? null : requests;
+            }
+            requests.put(otherUser, request);
+            inserted[0] = true;
+            if (previous == null && index == byTarget) {
+                size.incrementAndGet();
+            }
+            return requests;
+        });
+        return inserted[0];
+    }
+
+    // Remove only if the given request is still the current one, dropping empty inner maps
+    private boolean unlink(Map<String, Map<String, Request>> index, String user, String otherUser, Request request) {
+        boolean[] removed = new boolean[1];
+        index.computeIfPresent(user, (key, requests) -> {
+            removed[0] = requests.remove(otherUser, request);
+            return requests.isEmpty() ? null : requests;
+        });
+        return removed[0];
+    }
+
+    /*
+     * Expire the requests in the slots passed since the last tick
+     * Requests whose deadline is rounds away stay in their slot.
+     */
+    private void advance() {
+        try {
+            long nowTick = tickOf(System.currentTimeMillis());
+            long lastSlotTick = Math.min(nowTick, currentTick + WHEEL_SLOTS - 1);
+            for (long tick = currentTick; tick <= lastSlotTick; tick++) {
+                Queue<Request> slot = wheel[(int) (tick % WHEEL_SLOTS)];
+                int pending = slot.size();
+                for (int i = 0; i < pending; i++) {
+                    Request request = slot.poll();
+                    if (request == null) {
+                        break;
+                    }
+                    if (request.deadlineTick() > nowTick) {
+                        slot.add(request);
+                    } else if (removeRequest(request)) {
+                        expiredRequests.increment();
+                    }
+                }
+            }
+            currentTick = nowTick + 1;
+        } catch (RuntimeException e) {
+            AsyncLogger.error("Failed to expire pending requests", e);
+        }
+    }
+
+    private static long tickOf(long timeMillis) {
+        return timeMillis / TICK_MILLIS;
+    }
+}
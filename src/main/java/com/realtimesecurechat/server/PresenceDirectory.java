@@ -0,0 +1,32 @@
+package com.realtimesecurechat.server;
+
+import java.util.List;
+
+/*
+ * Which signaling node each registered user is connected to.
+ * The local ClientRegistry reports its own users, a clustered directory also
+ * learns the users of the other nodes.
+ */
+interface PresenceDirectory {
+
+    // The ID of this node
+    String getLocalNodeId();
+
+    // A user registered on this node
+    void register(String userId);
+
+    // Several users registered on this node, announced together where the directory can
+    default void registerAll(List<String> userIds) {
+        userIds.forEach(this::register);
+    }
+
+    // A user's last connection on this node closed
+    void unregister(String userId);
+
+    /*
+     * Look up the node a user is connected to
+     * @param userId The user to look up
+     * @return The node ID, or null if the user is not online anywhere
+     */
+    String findNode(String userId);
+}
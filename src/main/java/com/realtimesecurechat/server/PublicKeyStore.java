@@ -0,0 +1,401 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.AsyncLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/*
+ * Persistent registry of the public keys users registered with.
+ * An append-only log in a memory-mapped file, indexed in the heap by user ID
+ * with the record's offset and the key's SHA-256 fingerprint. Lookups compare
+ * fingerprints without touching the file, so offline users cost an index
+ * entry and never a decoded PublicKey. The first key a user registers is
+ * bound to the user ID, a registration with any other key is refused.
+ *
+ * File layout: an 8 byte header (magic, version), then records of
+ *   length (int) | CRC32C of the body (int) | body
+ *   body: type (byte) | userId length (short) | userId (UTF-8) | key length (short) | key (X.509)
+ * A length of zero marks the end of the log, the rest of the mapping is
+ * unwritten. On open the log is replayed up to the first record that is
+ * incomplete or fails its CRC, which is what a crash in the middle of an
+ * append leaves behind; that tail is discarded and zeroed.
+ *
+ * Removals, key revocations run offline with PublicKeyStoreTool, append a
+ * tombstone. Once the space held by removed and superseded records outweighs
+ * the live records the log is compacted: the live records are rewritten to a
+ * new file, which atomically replaces the old one.
+ *
+ * An open store holds an exclusive lock on <path>.lock, so a node and the
+ * maintenance tool never write the same log; opening a store in use fails.
+ *
+ * Writes reach the page cache immediately and survive a crash of the process;
+ * realtimesecurechat.keyStore.sync forces every append to disk as well.
+ * Each node of a cluster keeps its own store.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.keyStore.path        (the store is off when unset)
+ *   realtimesecurechat.keyStore.initialSize (bytes, default 1048576, doubled as needed)
+ *   realtimesecurechat.keyStore.sync        (default false)
+ */
+class PublicKeyStore implements AutoCloseable {
+    private static final String PATH = System.getProperty("realtimesecurechat.keyStore.path");
+    private static final int INITIAL_SIZE = Integer.getInteger("realtimesecurechat.keyStore.initialSize", 1 << 20);
+    private static final boolean SYNC = Boolean.getBoolean("realtimesecurechat.keyStore.sync");
+
+    private static final int MAGIC = 0x52545353; // "RTSS"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final int MAX_FIELD_LENGTH = 0xFFFF;
+    private static final int MIN_COMPACTION_BYTES = 64 * 1024;
+
+    enum Binding { BOUND, MATCHED, CONFLICT }
+
+    // Where a user's live record is, and the fingerprint of its key
+    private record Entry(int offset, byte[] fingerprint) {
+    }
+
+    private final Path path;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private FileChannel lockChannel;
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private int writePosition;
+    private long liveBytes;
+    private long deadBytes;
+
+    private PublicKeyStore(Path path) {
+        this.path = path;
+    }
+
+    static boolean isEnabled() {
+        return PATH != null;
+    }
+
+    // Open the store configured through the system properties
+    static PublicKeyStore fromSystemProperties() throws IOException {
+        return open(Paths.get(PATH));
+    }
+
+    /*
+     * Open a store, creating the file if it does not exist, and replay its log
+     * @param path The log file
+     * @return The opened store, closed by the caller
+     */
+    static PublicKeyStore open(Path path) throws IOException {
+        PublicKeyStore store = new PublicKeyStore(path);
+        store.lock();
+        try {
+            store.map();
+            store.recover();
+            if (store.shouldCompact()) {
+                store.compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /*
+     * Bind a key to a user ID, unless another key is already bound to it
+     * @param userId The registering user
+     * @param encodedKey The X.509 encoded public key
+     * @return BOUND if the user was new, MATCHED for the bound key, CONFLICT for any other key
+     */
+    Binding bind(String userId, byte[] encodedKey) throws IOException {
+        byte[] fingerprint = fingerprint(encodedKey);
+        Entry entry = index.get(userId);
+        if (entry != null) {
+            return MessageDigest.isEqual(entry.fingerprint(), fingerprint) ? Binding.MATCHED : Binding.CONFLICT;
+        }
+        synchronized (this) {
+            // Another registration may have bound the user since the lookup
+            entry = index.get(userId);
+            if (entry != null) {
+                return MessageDigest.isEqual(entry.fingerprint(), fingerprint) ? Binding.MATCHED : Binding.CONFLICT;
+            }
+            int offset = append(TYPE_PUT, userId, encodedKey);
+            index.put(userId, new Entry(offset, fingerprint));
+            liveBytes += recordLength(offset);
+            return Binding.BOUND;
+        }
+    }
+
+    /*
+     * Forget a user's key, so the user ID can be registered with a new one
+     * @return true if a key was bound to the user
+     */
+    synchronized boolean remove(String userId) throws IOException {
+        Entry entry = index.get(userId);
+        if (entry == null) {
+            return false;
+        }
+        int tombstone = append(TYPE_REMOVE, userId, new byte[0]);
+        index.remove(userId);
+        int length = recordLength(entry.offset());
+        liveBytes -= length;
+        deadBytes += length + recordLength(tombstone);
+        if (shouldCompact()) {
+            compact();
+        }
+        return true;
+    }
+
+    // Whether a key is bound to the user ID
+    boolean isKnown(String userId) {
+        return index.containsKey(userId);
+    }
+
+    // Users with a bound key
+    int size() {
+        return index.size();
+    }
+
+    // Bytes of the log in use, live and dead records
+    synchronized long getLogBytes() {
+        return writePosition;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (lockChannel == null) {
+            return;
+        }
+        try {
+            if (channel != null) {
+                if (mapping != null) {
+                    mapping.force();
+                }
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            // Closing the channel releases the lock
+            lockChannel.close();
+            lockChannel = null;
+        }
+    }
+
+    private void lock() throws IOException {
+        lockChannel = FileChannel.open(path.resolveSibling(path.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            lockChannel = null;
+            throw new IOException("Key store is in use: " + path);
+        }
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), Math.max(INITIAL_SIZE, HEADER_LENGTH));
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Key store too large: " + path);
+        }
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    // Replay the log into the index, discarding a torn or corrupt tail
+    private void recover() throws IOException {
+        int magic = mapping.getInt(0);
+        if (magic == 0) {
+            mapping.putInt(0, MAGIC);
+            mapping.putInt(4, VERSION);
+            writePosition = HEADER_LENGTH;
+            return;
+        }
+        if (magic != MAGIC || mapping.getInt(4) != VERSION) {
+            throw new IOException("Not a key store of version " + VERSION + ": " + path);
+        }
+
+        int position = HEADER_LENGTH;
+        CRC32C crc = new CRC32C();
+        while (position + RECORD_HEADER_LENGTH <= mapping.capacity()) {
+            int length = mapping.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || length > mapping.capacity() - position - RECORD_HEADER_LENGTH
+                    || !checksumMatches(crc, position, length) || !replay(position)) {
+                AsyncLogger.error("Key store " + path + " has a corrupt record at offset " + position + ", discarding the rest of the log.");
+                zero(position, mapping.capacity());
+                break;
+            }
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        writePosition = position;
+    }
+
+    private boolean checksumMatches(CRC32C crc, int position, int length) {
+        crc.reset();
+        crc.update(mapping.slice(position + RECORD_HEADER_LENGTH, length));
+        return (int) crc.getValue() == mapping.getInt(position + 4);
+    }
+
+    // Apply one checksummed record to the index, false if its fields do not add up
+    private boolean replay(int offset) {
+        int length = mapping.getInt(offset);
+        int position = offset + RECORD_HEADER_LENGTH;
+        int end = position + length;
+        byte type = mapping.get(position);
+        int userIdLength = Short.toUnsignedInt(mapping.getShort(position + 1));
+        if (position + 3 + userIdLength + 2 > end) {
+            return false;
+        }
+        byte[] userIdBytes = new byte[userIdLength];
+        mapping.get(position + 3, userIdBytes);
+        String userId = new String(userIdBytes, StandardCharsets.UTF_8);
+        int keyPosition = position + 3 + userIdLength;
+        int keyLength = Short.toUnsignedInt(mapping.getShort(keyPosition));
+        if (keyPosition + 2 + keyLength != end) {
+            return false;
+        }
+
+        int recordLength = RECORD_HEADER_LENGTH + length;
+        Entry previous;
+        if (type == TYPE_PUT) {
+            byte[] encodedKey = new byte[keyLength];
+            mapping.get(keyPosition + 2, encodedKey);
+            previous = index.put(userId, new Entry(offset, fingerprint(encodedKey)));
+            liveBytes += recordLength;
+        } else if (type == TYPE_REMOVE) {
+            previous = index.remove(userId);
+            deadBytes += recordLength;
+        } else {
+            return false;
+        }
+        if (previous != null) {
+            int previousLength = recordLength(previous.offset());
+            liveBytes -= previousLength;
+            deadBytes += previousLength;
+        }
+        return true;
+    }
+
+    // Append a record, growing the mapping if needed, and return its offset
+    private int append(byte type, String userId, byte[] encodedKey) throws IOException {
+        if (channel == null) {
+            throw new IOException("Key store is closed: " + path);
+        }
+        byte[] userIdBytes = userId.getBytes(StandardCharsets.UTF_8);
+        if (userIdBytes.length > MAX_FIELD_LENGTH || encodedKey.length > MAX_FIELD_LENGTH) {
+            throw new IOException("User ID or key too long for the key store.");
+        }
+        int length = 1 + 2 + userIdBytes.length + 2 + encodedKey.length;
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.put(type).putShort((short) userIdBytes.length).put(userIdBytes).putShort((short) encodedKey.length).put(encodedKey);
+        body.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+
+        ensureCapacity(writePosition + RECORD_HEADER_LENGTH + length);
+        int offset = writePosition;
+        // Body first and the length last, a crash in between leaves a record the replay stops at
+        mapping.putInt(offset + 4, (int) crc.getValue());
+        mapping.put(offset + RECORD_HEADER_LENGTH, body, 0, length);
+        mapping.putInt(offset, length);
+        writePosition = offset + RECORD_HEADER_LENGTH + length;
+        if (SYNC) {
+            mapping.force(offset, RECORD_HEADER_LENGTH + length);
+        }
+        return offset;
+    }
+
+    private int recordLength(int offset) {
+        return RECORD_HEADER_LENGTH + mapping.getInt(offset);
+    }
+
+    // Remap the file at twice the size until the required bytes fit, keeping a terminating zero length
+    private void ensureCapacity(long required) throws IOException {
+        long capacity = mapping.capacity();
+        if (required + 4 <= capacity) {
+            return;
+        }
+        while (required + 4 > capacity) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Key store full: " + path);
+        }
+        mapping.force();
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private boolean shouldCompact() {
+        return deadBytes >= MIN_COMPACTION_BYTES && deadBytes > liveBytes;
+    }
+
+    /*
+     * Rewrite the live records to a new file and swap it in
+     * The new file is complete and forced before the rename, so a crash leaves either log intact.
+     */
+    private void compact() throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        int size = (int) Math.max(INITIAL_SIZE, Math.min(Integer.MAX_VALUE, 2 * (HEADER_LENGTH + liveBytes) + 4));
+        Map<String, Entry> compactedIndex = new ConcurrentHashMap<>();
+        try (FileChannel compactedChannel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer target = compactedChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            target.putInt(0, MAGIC);
+            target.putInt(4, VERSION);
+            int position = HEADER_LENGTH;
+            for (Map.Entry<String, Entry> live : index.entrySet()) {
+                int offset = live.getValue().offset();
+                int length = recordLength(offset);
+                target.put(position, mapping, offset, length);
+                compactedIndex.put(live.getKey(), new Entry(position, live.getValue().fingerprint()));
+                position += length;
+            }
+            target.force();
+            writePosition = position;
+        }
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        index.putAll(compactedIndex);
+        deadBytes = 0;
+        AsyncLogger.info("Compacted key store " + path + " to " + writePosition + " bytes.");
+    }
+
+    private void zero(int from, int to) {
+        byte[] zeros = new byte[Math.min(8192, to - from)];
+        for (int position = from; position < to; position += zeros.length) {
+            mapping.put(position, zeros, 0, Math.min(zeros.length, to - position));
+        }
+    }
+
+    private static byte[] fingerprint(byte[] encodedKey) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(encodedKey);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.realtimesecurechat.server;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/*
+ * Offline maintenance of a node's public key store.
+ * Revoking a key lets a user who lost it register the user ID again with a
+ * new one. It is an operator action against a stopped node: the store is
+ * locked while the node runs, so the tool refuses to touch it then, and there
+ * is no network path to it at all.
+ *
+ * Usage:
+ *   java -cp RealTimeSecureChat.jar com.realtimesecurechat.server.PublicKeyStoreTool <store path> revoke <userId>...
+ * Exit status: 0 if every key was revoked, 1 if some user had no key bound,
+ * 2 on a usage error or a store that cannot be opened.
+ */
+public class PublicKeyStoreTool {
+
+    private PublicKeyStoreTool() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /*
+     * Run one command against a store
+     * @param args The store path, the command and its arguments
+     * @return The exit status
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        if (args.length < 3 || !args[1].equals("revoke")) {
+            err.println("Usage: PublicKeyStoreTool <store path> revoke <userId>...");
+            return 2;
+        }
+        Path path = Paths.get(args[0]);
+        if (!Files.isRegularFile(path)) {
+            err.println("No key store at " + path);
+            return 2;
+        }
+        int status = 0;
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            for (String userId : Arrays.copyOfRange(args, 2, args.length)) {
+                if (store.remove(userId)) {
+                    out.println("Revoked the public key of user: " + userId);
+                } else {
+                    err.println("No public key bound to user: " + userId);
+                    status = 1;
+                }
+            }
+        } catch (IOException e) {
+            err.println("Failed to revoke keys in " + path + ": " + e.getMessage());
+            return 2;
+        }
+        return status;
+    }
+}
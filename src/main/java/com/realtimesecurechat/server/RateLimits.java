@@ -0,0 +1,98 @@
+package com.realtimesecurechat.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Admission limits that keep a hostile client from burning the server's CPU.
+ *   session - frames per session, checked on the container thread before the
+ *             frame is queued, parsed or verified
+ *   target  - connection requests from one user towards another, checked before
+ *             the request is recorded and forwarded. Keyed by the pair, so a
+ *             requester flooding a user only runs out of its own tokens and
+ *             never locks others out of reaching that user
+ *   crypto  - signature checks, key agreements and encryptions running at once;
+ *             work beyond it waits for a permit
+ * Every breach is counted in ServerMetrics by limit. Target buckets that have
+ * refilled are swept periodically, so idle users cost no memory.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.rateLimit.sessionFramesPerSecond   (default 20)
+ *   realtimesecurechat.rateLimit.sessionBurst             (default 40)
+ *   realtimesecurechat.rateLimit.targetRequestsPerSecond  (default 5)
+ *   realtimesecurechat.rateLimit.targetBurst              (default 20)
+ *   realtimesecurechat.rateLimit.cryptoConcurrency        (default: 2 x available processors)
+ */
+final class RateLimits {
+    static final double SESSION_FRAMES_PER_SECOND =
+            Double.parseDouble(System.getProperty("realtimesecurechat.rateLimit.sessionFramesPerSecond", "20"));
+    static final int SESSION_BURST = Integer.getInteger("realtimesecurechat.rateLimit.sessionBurst", 40);
+    static final double TARGET_REQUESTS_PER_SECOND =
+            Double.parseDouble(System.getProperty("realtimesecurechat.rateLimit.targetRequestsPerSecond", "5"));
+    static final int TARGET_BURST = Integer.getInteger("realtimesecurechat.rateLimit.targetBurst", 20);
+    static final int CRYPTO_CONCURRENCY = Integer.getInteger("realtimesecurechat.rateLimit.cryptoConcurrency",
+            2 * Runtime.getRuntime().availableProcessors());
+
+    private static final long SWEEP_MILLIS = 10_000;
+
+    private record TargetKey(String requesterUserId, String targetUserId) {
+    }
+
+    private static final Map<TargetKey, TokenBucket> targetBuckets = new ConcurrentHashMap<>();
+    private static final Semaphore cryptoPermits = new Semaphore(CRYPTO_CONCURRENCY);
+
+    static {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            targetBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        }, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private RateLimits() {
+    }
+
+    // A frame bucket for a new session
+    static TokenBucket newSessionBucket() {
+        return new TokenBucket(SESSION_FRAMES_PER_SECOND, SESSION_BURST);
+    }
+
+    /*
+     * Take a token for a connection request from one user towards another
+     * @return false if the requester is sending this user requests faster than the limit
+     */
+    static boolean tryAcquireTarget(String requesterUserId, String targetUserId) {
+        TokenBucket bucket = targetBuckets.computeIfAbsent(new TargetKey(requesterUserId, targetUserId),
+                key -> new TokenBucket(TARGET_REQUESTS_PER_SECOND, TARGET_BURST));
+        if (!bucket.tryAcquire()) {
+            ServerMetrics.rateLimited("target");
+            return false;
+        }
+        return true;
+    }
+
+    // Wait for a crypto permit, counting the wait if the limit is saturated
+    static void acquireCrypto() {
+        if (!cryptoPermits.tryAcquire()) {
+            ServerMetrics.rateLimited("crypto");
+            cryptoPermits.acquireUninterruptibly();
+        }
+    }
+
+    static void releaseCrypto() {
+        cryptoPermits.release();
+    }
+
+    // Crypto permits currently held
+    static int getCryptoInUse() {
+        return CRYPTO_CONCURRENCY - cryptoPermits.availablePermits();
+    }
+}
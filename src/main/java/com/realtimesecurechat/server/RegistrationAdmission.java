@@ -0,0 +1,136 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.protocol.Register;
+import com.realtimesecurechat.utils.AsyncLogger;
+import com.realtimesecurechat.utils.SignedEnvelope;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Admission stage for registrations, of new sessions and of registered ones registering again.
+ * Register frames are queued and taken by a single batcher thread in
+ * micro-batches: everything queued when it wakes up, up to the batch limit.
+ * The registrations of a batch are verified in parallel on a bounded
+ * ForkJoinPool, then the successful ones are applied together.
+ * Under a reconnect storm this keeps the crypto work at the pool's
+ * parallelism, however many sessions register at once, and recovery time
+ * grows with the batch count instead of thrashing the CPU.
+ *
+ * When the queue is full the registration is refused at once, the caller
+ * answers it with an Error and the client retries.
+ * The submitting dispatcher waits for its registration to be applied, so the
+ * session's later frames still run after it.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.registration.queueCapacity (default 4096)
+ *   realtimesecurechat.registration.maxBatch      (default 256)
+ *   realtimesecurechat.registration.parallelism   (default: available processors)
+ */
+class RegistrationAdmission {
+    static final int QUEUE_CAPACITY = Integer.getInteger("realtimesecurechat.registration.queueCapacity", 4096);
+    static final int MAX_BATCH = Integer.getInteger("realtimesecurechat.registration.maxBatch", 256);
+    static final int PARALLELISM = Integer.getInteger("realtimesecurechat.registration.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    // A queued registration, completed once its batch was applied
+    record Request(Register register, SignedEnvelope envelope, ClientConnection connection,
+                   ServerMetrics.FrameTrace trace, CompletableFuture<Void> done) {
+    }
+
+    // Verifies one registration, on a pool thread; null rejects it, the verifier answers the client
+    @FunctionalInterface
+    interface Verifier<T> {
+        T verify(Request request) throws Exception;
+    }
+
+    // Applies the verified registrations of a batch, on the batcher thread
+    @FunctionalInterface
+    interface Applier<T> {
+        void apply(List<T> verified);
+    }
+
+    private final BlockingQueue<Request> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ForkJoinPool verifyPool = new ForkJoinPool(PARALLELISM);
+    private final LongAdder shedRegistrations = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    <T> RegistrationAdmission(Verifier<T> verifier, Applier<T> applier) {
+        Thread batcher = new Thread(() -> runBatches(verifier, applier), "registration-admission");
+        batcher.setDaemon(true);
+        batcher.start();
+    }
+
+    /*
+     * Queue a registration and wait until its batch was applied
+     * @return false if the queue was full and the registration was not admitted
+     */
+    boolean admit(Register register, SignedEnvelope envelope, ClientConnection connection, ServerMetrics.FrameTrace trace) {
+        Request request = new Request(register, envelope, connection, trace, new CompletableFuture<>());
+        if (!queue.offer(request)) {
+            shedRegistrations.increment();
+            return false;
+        }
+        request.done().join();
+        return true;
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    long getShedRegistrations() {
+        return shedRegistrations.sum();
+    }
+
+    long getBatches() {
+        return batches.sum();
+    }
+
+    private <T> void runBatches(Verifier<T> verifier, Applier<T> applier) {
+        List<Request> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                processBatch(batch, verifier, applier);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                // Never let a bad batch stop the batcher, every later admit would wait on it forever
+                AsyncLogger.error("Registration batch failed", e);
+            } finally {
+                batch.forEach(request -> request.done().complete(null));
+                batch.clear();
+            }
+        }
+    }
+
+    private <T> void processBatch(List<Request> batch, Verifier<T> verifier, Applier<T> applier) {
+        batches.increment();
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            tasks.add(verifyPool.submit(() -> verifier.verify(request)));
+        }
+
+        List<T> verified = new ArrayList<>(batch.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                T result = tasks.get(i).join();
+                if (result != null) {
+                    verified.add(result);
+                }
+            } catch (Throwable e) {
+                // join() rethrows a verifier's Error as it is, it fails this registration only
+                AsyncLogger.error("Registration verification failed for session: " + batch.get(i).connection().getSession().getId(), e);
+            }
+        }
+        applier.apply(verified);
+    }
+}
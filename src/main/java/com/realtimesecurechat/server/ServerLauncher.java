@@ -1,27 +1,68 @@
 package com.realtimesecurechat.server;
 
+import com.realtimesecurechat.utils.AsyncLogger;
+import jakarta.websocket.DeploymentException;
+import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.tyrus.server.Server;
 import java.util.HashMap;
 import java.util.Map;
 
+/*
+ * Starts one signaling node.
+ * Routing state is static in WebSocketServer, so a JVM runs a single node. A
+ * cluster on one machine is one JVM per node, each with its own ports, e.g.
+ *   -Drealtimesecurechat.server.port=8081 -Drealtimesecurechat.metrics.port=9092
+ *   -Drealtimesecurechat.cluster.port=7001 -Drealtimesecurechat.cluster.peers=localhost:7001,localhost:7002
+ * See ClusterTransport for the cluster settings.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.server.port  (default 8080)
+ *   realtimesecurechat.metrics.port (default 9091, negative to disable)
+ */
 public class ServerLauncher {
+    private static final int SERVER_PORT = Integer.getInteger("realtimesecurechat.server.port", 8080);
 
-    public static void main(String[] args) {
-        // Server properties
-        Map<String, Object> serverProperties = new HashMap<>();
+    // Prometheus scrape port, negative to disable the metrics endpoint
+    private static final int METRICS_PORT = Integer.getInteger("realtimesecurechat.metrics.port", 9091);
 
-        // Initialize server
-        Server server = new Server("localhost", 8080, "/ws", serverProperties, WebSocketServer.class);
+    public static void main(String[] args) {
+        Server server = null;
+        HttpServer metricsServer = null;
 
         try {
-            server.start();
-            System.out.println("WebSocket server started at ws://localhost:8080/ws/chat");
+            server = start("localhost", SERVER_PORT);
+            AsyncLogger.info("WebSocket server started at ws://localhost:" + SERVER_PORT + "/ws/chat");
+            if (METRICS_PORT >= 0) {
+                metricsServer = MetricsEndpoint.start("localhost", METRICS_PORT);
+                AsyncLogger.info("Metrics available at http://localhost:" + METRICS_PORT + "/metrics");
+            }
             // Keep the server running
             Thread.sleep(Long.MAX_VALUE);
         } catch (Exception e) {
-            e.printStackTrace();
+            AsyncLogger.error("Server failed", e);
         } finally {
-            server.stop();
+            if (metricsServer != null) {
+                metricsServer.shutdownNow();
+            }
+            if (server != null) {
+                server.stop();
+            }
         }
     }
+
+    /*
+     * Start the WebSocket server, serving the chat endpoint at ws://host:port/ws/chat
+     * @param host The host to bind to
+     * @param port The port to listen on
+     * @return The started server, stopped by the caller
+     */
+    public static Server start(String host, int port) throws DeploymentException {
+        // Server properties
+        Map<String, Object> serverProperties = new HashMap<>();
+
+        // Initialize server
+        Server server = new Server(host, port, "/ws", serverProperties, WebSocketServer.class);
+        server.start();
+        return server;
+    }
 }
@@ -0,0 +1,253 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.AsyncLogger;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Server instrumentation, rendered in the Prometheus text format.
+ *
+ * Every client frame is traced through its stages (parse, verify, handle)
+ * and every server message through encrypt+send, each into a latency
+ * histogram labelled with the messageType. Recording only touches LongAdders,
+ * so the hot path never contends on a lock. Gauges and counters kept
+ * elsewhere (registry sizes, queue depths, pool statistics) are registered
+ * as suppliers and read when the metrics are scraped.
+ *
+ * Frames slower than a threshold are logged with their stage breakdown.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.metrics.slowFrameMillis (default 100)
+ */
+final class ServerMetrics {
+    static final String UNKNOWN_TYPE = "unknown";
+
+    // Client frame types, anything else is counted as unknown to keep label values bounded
+    private static final Set<String> INBOUND_TYPES = Set.of("Register", "Resume", "Connection request", "Connection approval");
+
+    private static final long SLOW_FRAME_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("realtimesecurechat.metrics.slowFrameMillis", 100));
+
+    // Histogram bucket upper bounds in microseconds, rendered in seconds
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000
+    };
+
+    enum Stage {
+        PARSE("parse"), VERIFY("verify"), HANDLE("handle"), SEND("encrypt_send");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private record Gauge(String name, String help, String type, LongSupplier value) {
+    }
+
+    // Sorted so the rendered output is stable between scrapes
+    private static final Map<String, LatencyHistogram[]> stageLatencies = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> cryptoFailures = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> rateLimited = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private ServerMetrics() {
+    }
+
+    /*
+     * Register a value read at scrape time
+     * @param name The metric name
+     * @param help The HELP text
+     * @param value Supplies the current value
+     */
+    static void registerGauge(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(name, help, "gauge", value));
+    }
+
+    // As registerGauge, for values that only ever increase
+    static void registerCounter(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(name, help, "counter", value));
+    }
+
+    /*
+     * Count a failed cryptographic operation
+     * @param kind What failed, e.g. "invalid_signature"
+     */
+    static void cryptoFailure(String kind) {
+        cryptoFailures.computeIfAbsent(kind, key -> new LongAdder()).increment();
+    }
+
+    /*
+     * Count a breach of a rate or concurrency limit
+     * @param limit Which limit, see RateLimits
+     */
+    static void rateLimited(String limit) {
+        rateLimited.computeIfAbsent(limit, key -> new LongAdder()).increment();
+    }
+
+    static void recordStage(String messageType, Stage stage, long nanos) {
+        histograms(messageType)[stage.ordinal()].record(nanos);
+    }
+
+    // Start tracing a client frame
+    static FrameTrace startFrame() {
+        return new FrameTrace();
+    }
+
+    private static LatencyHistogram[] histograms(String messageType) {
+        LatencyHistogram[] histograms = stageLatencies.get(messageType);
+        if (histograms != null) {
+            return histograms;
+        }
+        return stageLatencies.computeIfAbsent(messageType, key -> {
+            LatencyHistogram[] created = new LatencyHistogram[Stage.values().length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new LatencyHistogram();
+            }
+            return created;
+        });
+    }
+
+    /*
+     * Render all metrics in the Prometheus text exposition format (version 0.0.4)
+     */
+    static String render() {
+        StringBuilder out = new StringBuilder(8192);
+
+        out.append("# HELP realtimesecurechat_stage_seconds Time spent per message stage.\n");
+        out.append("# TYPE realtimesecurechat_stage_seconds histogram\n");
+        stageLatencies.forEach((messageType, histograms) -> {
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = histograms[stage.ordinal()];
+                if (histogram.count() > 0) {
+                    histogram.render(out, "realtimesecurechat_stage_seconds",
+                            "messageType=\"" + escape(messageType) + "\",stage=\"" + stage.label + "\"");
+                }
+            }
+        });
+
+        out.append("# HELP realtimesecurechat_crypto_failures_total Failed signature checks, key decodes and encryptions.\n");
+        out.append("# TYPE realtimesecurechat_crypto_failures_total counter\n");
+        cryptoFailures.forEach((kind, count) -> out.append("realtimesecurechat_crypto_failures_total{kind=\"")
+                .append(escape(kind)).append("\"} ").append(count.sum()).append('\n'));
+
+        out.append("# HELP realtimesecurechat_rate_limited_total Frames, requests and crypto operations held back by a limit.\n");
+        out.append("# TYPE realtimesecurechat_rate_limited_total counter\n");
+        rateLimited.forEach((limit, count) -> out.append("realtimesecurechat_rate_limited_total{limit=\"")
+                .append(escape(limit)).append("\"} ").append(count.sum()).append('\n'));
+
+        gauges.values().stream()
+                .sorted((first, second) -> first.name().compareTo(second.name()))
+                .forEach(gauge -> {
+                    long value;
+                    try {
+                        value = gauge.value().getAsLong();
+                    } catch (RuntimeException e) {
+                        // A failing supplier must not break the whole scrape
+                        return;
+                    }
+                    out.append("# HELP ").append(gauge.name()).append(' ').append(gauge.help()).append('\n');
+                    out.append("# TYPE ").append(gauge.name()).append(' ').append(gauge.type()).append('\n');
+                    out.append(gauge.name()).append(' ').append(value).append('\n');
+                });
+        return out.toString();
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /*
+     * Stage timings of one client frame
+     * Each mark charges the time since the previous mark to a stage. The frame
+     * is only recorded once its messageType is known, or as unknown.
+     */
+    static final class FrameTrace {
+        private final long startTime = System.nanoTime();
+        private final long[] stageNanos = new long[Stage.values().length];
+        private long lastMark = startTime;
+        private String messageType = UNKNOWN_TYPE;
+
+        private FrameTrace() {
+        }
+
+        void mark(Stage stage) {
+            long now = System.nanoTime();
+            stageNanos[stage.ordinal()] += now - lastMark;
+            lastMark = now;
+        }
+
+        void setMessageType(String messageType) {
+            this.messageType = INBOUND_TYPES.contains(messageType) ? messageType : UNKNOWN_TYPE;
+        }
+
+        // Record the stages that ran and log the frame if it was slow
+        void finish(String sessionId) {
+            LatencyHistogram[] histograms = histograms(messageType);
+            for (Stage stage : Stage.values()) {
+                if (stageNanos[stage.ordinal()] > 0) {
+                    histograms[stage.ordinal()].record(stageNanos[stage.ordinal()]);
+                }
+            }
+            long totalNanos = lastMark - startTime;
+            if (totalNanos >= SLOW_FRAME_NANOS) {
+                AsyncLogger.info("Slow frame from session " + sessionId + ": messageType=" + messageType
+                        + " parse=" + micros(Stage.PARSE) + "us verify=" + micros(Stage.VERIFY)
+                        + "us handle=" + micros(Stage.HANDLE) + "us");
+            }
+        }
+
+        private long micros(Stage stage) {
+            return TimeUnit.NANOSECONDS.toMicros(stageNanos[stage.ordinal()]);
+        }
+    }
+
+    // Fixed bucket latency histogram, cumulative only when rendered
+    private static final class LatencyHistogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        void render(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String bound = i < BUCKET_BOUNDS_MICROS.length ? Double.toString(BUCKET_BOUNDS_MICROS[i] / 1e6) : "+Inf";
+                out.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+}
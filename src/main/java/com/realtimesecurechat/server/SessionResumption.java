@@ -0,0 +1,149 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.AsyncLogger;
+import com.realtimesecurechat.utils.SessionCipher;
+import com.realtimesecurechat.utils.SignedEnvelope;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * Resumption of recently closed sessions.
+ * Every registration is issued a resumption token: an HMAC under a server key
+ * over the user ID, the registered public key and a random nonce. When the
+ * user's last connection closes, its identity is parked with the token for a
+ * grace period and its pending requests are kept. A Resume frame whose HMAC
+ * under the token checks out takes the parked identity over, without any
+ * signature check or key agreement, and gets a new token. A token resumes at
+ * most once; it is forgotten on use, on expiry and on a new registration.
+ *
+ * Parked identities live on the node the user was connected to, a resumption
+ * elsewhere fails and the client registers again.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.resumption.graceMillis (default 30000, 0 disables resumption)
+ */
+class SessionResumption {
+    static final long GRACE_MILLIS = Long.getLong("realtimesecurechat.resumption.graceMillis", 30_000);
+
+    private static final int NONCE_LENGTH = 16;
+
+    private static final ScheduledExecutorService expiryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-resumption-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // A closed session's identity, waiting to be resumed
+    record Parked(ClientVerificationContext verificationContext, byte[] resumptionSecret) {
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKeySpec tokenKey;
+    private final Map<String, Parked> parked = new ConcurrentHashMap<>();
+    private final Consumer<String> onExpired;
+    private final LongAdder resumedSessions = new LongAdder();
+    private final LongAdder failedResumptions = new LongAdder();
+
+    /*
+     * @param onExpired Called with the user ID when a parked identity expires unresumed
+     */
+    SessionResumption(Consumer<String> onExpired) {
+        byte[] keyBytes = new byte[32];
+        random.nextBytes(keyBytes);
+        this.tokenKey = new SecretKeySpec(keyBytes, "HmacSHA256");
+        this.onExpired = onExpired;
+    }
+
+    static boolean isEnabled() {
+        return GRACE_MILLIS > 0;
+    }
+
+    /*
+     * Issue a token for a registered identity
+     * @return The resumption secret, handed to the client Base64 encoded
+     */
+    byte[] issue(String userId, ClientVerificationContext verificationContext) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(tokenKey);
+        hmac.update(userId.getBytes(StandardCharsets.UTF_8));
+        hmac.update((byte) 0);
+        hmac.update(Base64.getDecoder().decode(verificationContext.getEncodedPublicKey()));
+        hmac.update(nonce);
+        return hmac.doFinal();
+    }
+
+    /*
+     * Park the identity of a user whose last connection closed
+     * @return false if resumption is disabled and nothing was parked
+     */
+    boolean park(String userId, ClientVerificationContext verificationContext, byte[] resumptionSecret) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Parked entry = new Parked(verificationContext, resumptionSecret);
+        parked.put(userId, entry);
+        expiryTimer.schedule(() -> {
+            if (parked.remove(userId, entry)) {
+                onExpired.accept(userId);
+            }
+        }, GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /*
+     * Take a parked identity over, if the Resume frame is authenticated by its token
+     * A frame that fails the check leaves the identity parked.
+     * @param userId The user to resume
+     * @param envelope The Resume frame, with the HMAC in place of the signature
+     * @return The parked identity, or null if none is parked or the HMAC does not match
+     */
+    Parked resume(String userId, SignedEnvelope envelope) {
+        Parked entry = userId != null ? parked.get(userId) : null;
+        try {
+            if (entry != null) {
+                byte[] expected = SessionCipher.authenticate(entry.resumptionSecret(), envelope.getFrame(),
+                        envelope.getPayloadOffset(), envelope.getPayloadLength());
+                if (MessageDigest.isEqual(expected, envelope.getSignature()) && parked.remove(userId, entry)) {
+                    resumedSessions.increment();
+                    return entry;
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            AsyncLogger.error("Failed to check resumption for user: " + userId, e);
+        }
+        failedResumptions.increment();
+        return null;
+    }
+
+    // Forget a parked identity, when its user registered again
+    void discard(String userId) {
+        parked.remove(userId);
+    }
+
+    int getParkedSessions() {
+        return parked.size();
+    }
+
+    long getResumedSessions() {
+        return resumedSessions.sum();
+    }
+
+    long getFailedResumptions() {
+        return failedResumptions.sum();
+    }
+}
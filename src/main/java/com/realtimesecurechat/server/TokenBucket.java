@@ -0,0 +1,46 @@
+package com.realtimesecurechat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Lock-free token bucket.
+ * Kept as the time at which the bucket will next be full (the GCRA form of a
+ * token bucket), so taking a token is a single compare-and-set and an idle
+ * bucket costs nothing to refill.
+ */
+class TokenBucket {
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    /*
+     * @param tokensPerSecond The refill rate
+     * @param burst The capacity, taken at once from a full bucket
+     */
+    TokenBucket(double tokensPerSecond, int burst) {
+        this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond);
+        this.burstNanos = nanosPerToken * Math.max(burst - 1, 0);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    // Take a token if one is available
+    boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long start = current - now > 0 ? current : now;
+            if (start - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, start + nanosPerToken)) {
+                return true;
+            }
+        }
+    }
+
+    // Whether the bucket has refilled completely, so dropping it loses nothing
+    boolean isFull(long now) {
+        return fullAt.get() - now <= 0;
+    }
+}
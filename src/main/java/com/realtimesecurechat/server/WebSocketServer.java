@@ -1,28 +1,38 @@
 package com.realtimesecurechat.server;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.realtimesecurechat.utils.BiDirectionalMap;
+import com.fasterxml.jackson.databind.exc.InvalidTypeIdException;
+import com.realtimesecurechat.protocol.Approval;
+import com.realtimesecurechat.protocol.Confirmation;
+import com.realtimesecurechat.protocol.ConnectionApproval;
+import com.realtimesecurechat.protocol.ConnectionRequest;
+import com.realtimesecurechat.protocol.ErrorMessage;
+import com.realtimesecurechat.protocol.IncomingConnectionRequest;
+import com.realtimesecurechat.protocol.Message;
+import com.realtimesecurechat.protocol.Register;
+import com.realtimesecurechat.protocol.Resume;
+import com.realtimesecurechat.protocol.WireFormat;
+import com.realtimesecurechat.utils.AsyncLogger;
+import com.realtimesecurechat.utils.CryptoPool;
+import com.realtimesecurechat.utils.SessionCipher;
+import com.realtimesecurechat.utils.SignedEnvelope;
 import jakarta.websocket.*;
 import jakarta.websocket.server.ServerEndpoint;
 import java.io.IOException;
-import java.security.KeyFactory;
-import java.security.PublicKey;
-import java.security.Signature;
-import java.security.spec.X509EncodedKeySpec;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.Base64;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
+import java.security.GeneralSecurityException;
 import java.security.Security;
 
-import javax.crypto.Cipher;
-
-@ServerEndpoint(value = "/chat")
+// permessage-deflate is negotiated by CompressionConfigurator
+@ServerEndpoint(value = "/chat", configurator = CompressionConfigurator.class)
 public class WebSocketServer {
 
     static {
@@ -30,82 +40,470 @@ public class WebSocketServer {
         Security.addProvider(new BouncyCastleProvider());
     }
 
-    // JSON object mapper
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Message handling runs on virtual threads, each session's frames in arrival order
+    private static final ExecutorService messageExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dispatch-", 0).factory());
+
+    // Where users are connected, and how messages reach them, on this node or across the cluster
+    private static final PresenceDirectory presenceDirectory;
+    private static final MessageRouter messageRouter;
+
+    static {
+        if (ClusterTransport.isEnabled()) {
+            ClusterTransport transport = ClusterTransport.fromSystemProperties();
+            ClusterPresenceDirectory clusterPresenceDirectory = new ClusterPresenceDirectory(transport);
+            ClusterMessageRouter clusterMessageRouter =
+                    new ClusterMessageRouter(transport, clusterPresenceDirectory, WebSocketServer::deliverLocal);
+            transport.addListener(clusterPresenceDirectory);
+            transport.addListener(clusterMessageRouter);
+            try {
+                transport.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to start the cluster listener", e);
+            }
+            ServerMetrics.registerGauge("realtimesecurechat_cluster_peers_connected", "Peer nodes this node has a link to.",
+                    transport::getConnectedPeers);
+            ServerMetrics.registerGauge("realtimesecurechat_cluster_known_users", "Users online across the cluster.",
+                    clusterPresenceDirectory::size);
+            ServerMetrics.registerCounter("realtimesecurechat_cluster_dropped_frames_total", "Frames for peers dropped by a full or reset link.",
+                    transport::getDroppedFrames);
+            presenceDirectory = clusterPresenceDirectory;
+            messageRouter = clusterMessageRouter;
+        } else {
+            presenceDirectory = new InMemoryPresenceDirectory();
+            messageRouter = new InMemoryMessageRouter(WebSocketServer::deliverLocal);
+        }
+    }
+
+    // The key each user ID registered with, kept across restarts, or null if not configured
+    private static final PublicKeyStore publicKeyStore;
+
+    static {
+        if (PublicKeyStore.isEnabled()) {
+            try {
+                publicKeyStore = PublicKeyStore.fromSystemProperties();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open the public key store", e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    publicKeyStore.close();
+                } catch (IOException e) {
+                    AsyncLogger.error("Failed to close the public key store", e);
+                }
+            }, "public-key-store-close"));
+            ServerMetrics.registerGauge("realtimesecurechat_known_users", "Users with a public key in the key store.", publicKeyStore::size);
+            ServerMetrics.registerGauge("realtimesecurechat_key_store_bytes", "Bytes of the key store log in use.", publicKeyStore::getLogBytes);
+        } else {
+            publicKeyStore = null;
+        }
+    }
+
+    // Connection requests waiting for offline users, or null if not configured
+    private static final OfflineMailbox offlineMailbox;
+
+    static {
+        if (OfflineMailbox.isEnabled() && ClusterTransport.isEnabled()) {
+            // A deposit would wait on the node it reached, while the target may register on any other
+            AsyncLogger.error("Offline mailbox disabled: mailboxes are kept per node and are not delivered across a cluster.");
+            offlineMailbox = null;
+        } else if (OfflineMailbox.isEnabled() && publicKeyStore == null) {
+            // Without the key store any made-up user ID would get a mailbox
+            AsyncLogger.error("Offline mailbox disabled: it requires the public key store (realtimesecurechat.keyStore.path).");
+            offlineMailbox = null;
+        } else if (OfflineMailbox.isEnabled()) {
+            try {
+                offlineMailbox = OfflineMailbox.fromSystemProperties();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open the offline mailbox", e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    offlineMailbox.close();
+                } catch (IOException e) {
+                    AsyncLogger.error("Failed to close the offline mailbox", e);
+                }
+            }, "offline-mailbox-close"));
+            ServerMetrics.registerGauge("realtimesecurechat_mailbox_requests", "Connection requests waiting for offline users.", offlineMailbox::size);
+            ServerMetrics.registerCounter("realtimesecurechat_mailbox_expired_total", "Queued connection requests that expired undelivered.",
+                    offlineMailbox::getExpiredLetters);
+        } else {
+            offlineMailbox = null;
+        }
+    }
+
+    // One ClientConnection per session, indexed by user ID once registered
+    private static final ClientRegistry clientRegistry = new ClientRegistry(messageExecutor, presenceDirectory);
+
+    // New sessions register through micro-batches, verified in parallel and applied together
+    private static final RegistrationAdmission registrationAdmission =
+            new RegistrationAdmission(WebSocketServer::verifyRegistration, WebSocketServer::applyRegistrations);
 
-    // Bidirectional map for client user ID to session ID
-    private static final BiDirectionalMap<String, String> clientUserIdToSessionIdBiDiMap = new BiDirectionalMap<>();
-    // Map for client user ID to public key, and session ID to session object
-    private static final Map<String, PublicKey> clientUserIdToPublicKey = new ConcurrentHashMap<>();
-    private static final Map<String, Session> clientSessionIdToSession = new ConcurrentHashMap<>();
-    // Map for connection requests from one client to another
-    private static final Map<String, Set<String>> connectionRequests = new ConcurrentHashMap<>();
+    // A registration that passed verification, with its negotiated session
+    private record AdmittedRegistration(ClientConnection connection, String userId, ClientVerificationContext verificationContext,
+                                        SessionCipher sessionCipher, WireFormat wireFormat) implements ClientRegistry.Registration {
+    }
+
+    static {
+        ServerMetrics.registerGauge("realtimesecurechat_active_sessions", "Open client sessions.", clientRegistry::getOpenConnections);
+        ServerMetrics.registerGauge("realtimesecurechat_registered_users", "Users with a registered session.", clientRegistry::getRegisteredUsers);
+        ServerMetrics.registerGauge("realtimesecurechat_pending_requests", "Connection requests waiting for approval.",
+                () -> clientRegistry.getPendingRequests().size());
+        ServerMetrics.registerCounter("realtimesecurechat_pending_requests_expired_total", "Connection requests that expired unanswered.",
+                () -> clientRegistry.getPendingRequests().getExpiredRequests());
+        ServerMetrics.registerCounter("realtimesecurechat_pending_requests_rejected_total", "Connection requests rejected by the per-user cap.",
+                () -> clientRegistry.getPendingRequests().getRejectedRequests());
+        ServerMetrics.registerGauge("realtimesecurechat_outbound_queue_depth", "Messages queued for delivery across all sessions.",
+                OutboundQueue::getTotalQueueDepth);
+        ServerMetrics.registerCounter("realtimesecurechat_outbound_dropped_total", "Messages dropped by the outbound overflow policy.",
+                OutboundQueue::getDroppedMessages);
+        ServerMetrics.registerCounter("realtimesecurechat_outbound_overflow_disconnects_total", "Sessions closed by the outbound overflow policy.",
+                OutboundQueue::getOverflowDisconnects);
+        ServerMetrics.registerCounter("realtimesecurechat_crypto_pool_hits_total", "Cipher and Signature borrows served from the pool.",
+                CryptoPool::getHits);
+        ServerMetrics.registerCounter("realtimesecurechat_crypto_pool_misses_total", "Cipher and Signature borrows that created an instance.",
+                CryptoPool::getMisses);
+        ServerMetrics.registerGauge("realtimesecurechat_registration_queue_depth", "Registrations waiting for admission.",
+                registrationAdmission::getQueueDepth);
+        ServerMetrics.registerCounter("realtimesecurechat_registration_shed_total", "Registrations refused because the admission queue was full.",
+                registrationAdmission::getShedRegistrations);
+        ServerMetrics.registerCounter("realtimesecurechat_registration_batches_total", "Registration batches applied.",
+                registrationAdmission::getBatches);
+        ServerMetrics.registerGauge("realtimesecurechat_parked_sessions", "Closed sessions waiting to be resumed.",
+                () -> clientRegistry.getResumption().getParkedSessions());
+        ServerMetrics.registerCounter("realtimesecurechat_resumed_sessions_total", "Sessions resumed with a resumption token.",
+                () -> clientRegistry.getResumption().getResumedSessions());
+        ServerMetrics.registerCounter("realtimesecurechat_failed_resumptions_total", "Resume frames that matched no parked session.",
+                () -> clientRegistry.getResumption().getFailedResumptions());
+        ServerMetrics.registerGauge("realtimesecurechat_crypto_in_flight", "Crypto operations holding a concurrency permit.",
+                RateLimits::getCryptoInUse);
+        ServerMetrics.registerCounter("realtimesecurechat_log_dropped_total", "Log entries dropped because the log queue was full.",
+                AsyncLogger::getDroppedEntries);
+    }
 
     @OnOpen
     public void onOpen(Session session) {
-        clientSessionIdToSession.put(session.getId(), session);
-        System.out.println("New connection: " + session.getId());
+        clientRegistry.open(session);
+        AsyncLogger.info("New connection: " + session.getId());
     }
 
-    @OnMessage
-    public void onMessage(String message, Session session) throws IOException {
-        JsonNode jsonMessage = objectMapper.readTree(message);
+    /*
+     * Hand a task to the session's dispatcher
+     * A session without connection state cannot be answered, its task is dropped
+     * and the session is closed rather than handled on the container thread.
+     */
+    private void dispatch(Session session, Runnable task) {
+        ClientConnection connection = ClientConnection.of(session);
+        if (connection != null) {
+            connection.getDispatcher().execute(task);
+            return;
+        }
+        if (session.isOpen()) {
+            AsyncLogger.error("No connection state for session, closing it: " + session.getId());
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "No connection state."));
+            } catch (IOException e) {
+                AsyncLogger.error("Failed to close session: " + session.getId());
+            }
+        }
+    }
 
-        // Verify the signature
-        if (!verifyClientSignature(jsonMessage, session)) {
-            sendErrorMessage(session, "Invalid signature.");
+    /*
+     * The container thread only hands the frame over, parsing, verification and
+     * handling run on a virtual thread in the session's arrival order.
+     */
+    @OnMessage
+    public void onMessage(String message, Session session) {
+        if (!admitFrame(session)) {
             return;
         }
+        dispatch(session, () -> processFrame(session, () -> SignedEnvelope.parse(message), WireFormat.TEXT));
+    }
 
-        if (!jsonMessage.has("messageType")) {
-            sendErrorMessage(session, "Invalid message format: 'messageType' missing.");
+    // Binary wire format, the frame is copied out of the container's buffer before it is handed over
+    @OnMessage
+    public void onMessage(ByteBuffer message, Session session) {
+        if (!admitFrame(session)) {
             return;
         }
+        byte[] frame = new byte[message.remaining()];
+        message.get(frame);
+        dispatch(session, () -> processFrame(session, () -> SignedEnvelope.parseBinary(frame), WireFormat.BINARY));
+    }
 
-        String requestType = jsonMessage.get("messageType").asText();
-        switch (requestType) {
-            case "Register":
-                handleRegisterClient(jsonMessage, session);
-                break;
-            case "Connection request":
-                handleConnectionRequest(jsonMessage, session);
-                break;
-            case "Connection approval":
-                handleConnectionApproval(jsonMessage, session);
-                break;
+    /*
+     * Apply the session's frame rate limit, before the frame costs any parsing or verification
+     * Frames over the limit are dropped, the client is told once per run of dropped frames.
+     */
+    private boolean admitFrame(Session session) {
+        ClientConnection connection = ClientConnection.of(session);
+        if (connection == null) {
+            return true;
+        }
+        switch (connection.admitFrame()) {
+            case ADMITTED:
+                return true;
+            case FIRST_LIMITED:
+                ServerMetrics.rateLimited("session");
+                AsyncLogger.info("Rate limit exceeded, dropping frames from session: " + session.getId());
+                sendErrorMessage(connection, "Rate limit exceeded.");
+                return false;
             default:
-                sendErrorMessage(session, "Invalid message format: Value of 'messageType' is not recognized.");
-                break;
+                ServerMetrics.rateLimited("session");
+                return false;
+        }
+    }
+
+    private void processFrame(Session session, Supplier<SignedEnvelope> envelopeParser, WireFormat wireFormat) {
+        ClientConnection connection = ClientConnection.of(session);
+        try {
+            processMessage(envelopeParser, wireFormat, connection);
+        } catch (Exception e) {
+            AsyncLogger.error("Failed to process message from session: " + session.getId(), e);
+            sendErrorMessage(connection, "Invalid message format.");
         }
     }
 
     /*
-     * Handle client registration request
-     * Expected JSON format:
+     * Every client frame is a signed envelope (see SignedEnvelope):
+     *   base64(signature) '.' {JSON payload}                          in text frames
+     *   signature length | signature | {CBOR payload}                 in binary frames
+     * The signature is checked over the payload bytes exactly as received, the
+     * payload is then bound straight into its protocol record.
+     * Each stage is timed into the frame's trace, recorded when the frame is done.
+     */
+    private void processMessage(Supplier<SignedEnvelope> envelopeParser, WireFormat wireFormat, ClientConnection connection) throws IOException {
+        ServerMetrics.FrameTrace trace = ServerMetrics.startFrame();
+        try {
+            processMessage(envelopeParser, wireFormat, connection, trace);
+        } finally {
+            trace.finish(connection.getSession().getId());
+        }
+    }
+
+    private void processMessage(Supplier<SignedEnvelope> envelopeParser, WireFormat wireFormat, ClientConnection connection,
+                                ServerMetrics.FrameTrace trace) throws IOException {
+        SignedEnvelope envelope = envelopeParser.get();
+        trace.mark(ServerMetrics.Stage.PARSE);
+        if (envelope == null) {
+            sendErrorMessage(connection, "Invalid message format: signature missing.");
+            return;
+        }
+
+        // Registered clients are verified before the payload is parsed
+        ClientVerificationContext verificationContext = connection.getVerificationContext();
+        if (verificationContext != null) {
+            boolean isValid = verifyClientSignature(envelope, verificationContext);
+            trace.mark(ServerMetrics.Stage.VERIFY);
+            if (!isValid) {
+                sendErrorMessage(connection, "Invalid signature.");
+                return;
+            }
+        }
+
+        Message message;
+        try {
+            message = wireFormat.read(envelope.getFrame(), envelope.getPayloadOffset(), envelope.getPayloadLength());
+        } catch (InvalidTypeIdException e) {
+            trace.mark(ServerMetrics.Stage.PARSE);
+            sendErrorMessage(connection, e.getTypeId() == null
+                    ? "Invalid message format: 'messageType' missing."
+                    : "Invalid message format: Value of 'messageType' is not recognized.");
+            return;
+        }
+        trace.mark(ServerMetrics.Stage.PARSE);
+        trace.setMessageType(message.messageType());
+
+        // Unregistered clients can only register, signing with the key carried in the message, or resume
+        if (verificationContext == null) {
+            // Resumption only needs an HMAC check, it skips the admission stage
+            if (message instanceof Resume resume) {
+                try {
+                    handleResume(resume, envelope, connection);
+                } finally {
+                    trace.mark(ServerMetrics.Stage.HANDLE);
+                }
+                return;
+            }
+            if (!(message instanceof Register)) {
+                trace.mark(ServerMetrics.Stage.VERIFY);
+                sendErrorMessage(connection, "Invalid signature.");
+                return;
+            }
+        }
+
+        // Every registration, also from a registered session, is verified against the key it
+        // carries and checked against the key store, so a session cannot claim another user's ID
+        if (message instanceof Register register) {
+            admitRegistration(register, envelope, connection, trace);
+            return;
+        }
+
+        try {
+            handleMessage(message, connection);
+        } finally {
+            trace.mark(ServerMetrics.Stage.HANDLE);
+        }
+    }
+
+    // Verification and registration run in the admission stage, the dispatcher waits for them
+    private void admitRegistration(Register register, SignedEnvelope envelope, ClientConnection connection, ServerMetrics.FrameTrace trace) {
+        try {
+            if (!registrationAdmission.admit(register, envelope, connection, trace)) {
+                sendErrorMessage(connection, "Server busy: registration queue full, retry later.");
+            }
+        } finally {
+            trace.mark(ServerMetrics.Stage.HANDLE);
+        }
+    }
+
+    private void handleMessage(Message message, ClientConnection connection) {
+        switch (message) {
+            case ConnectionRequest connectionRequest -> handleConnectionRequest(connectionRequest, connection);
+            case ConnectionApproval connectionApproval -> handleConnectionApproval(connectionApproval, connection);
+            default -> sendErrorMessage(connection, "Invalid message format: Value of 'messageType' is not recognized.");
+        }
+    }
+
+    /*
+     * Resume a recently closed session on a new connection
+     * The client derived the resumed session key before sending, so the confirmation
+     * is already encrypted with it. A failed resumption closes the connection, the
+     * client then registers again.
+     * Expected JSON format (the envelope carries an HMAC under the resumption token):
      * {
-     *  "messageType": "register",
+     *  "messageType": "Resume",
      *  "userId": "client1",
-     *  "publicKey": "base64EncodedPublicKey"
-     *  "signature": "base64EncodedSignature"
+     *  "clientNonce": "base64EncodedNonce",
+     *  "wireFormat": "text" or "binary" (optional, defaults to text)
      * }
      */
-    private void handleRegisterClient(JsonNode jsonMessage, Session session) throws IOException {
-        String userId = jsonMessage.get("userId").asText();
-        String publicKeyString = jsonMessage.get("publicKey").asText();
+    private void handleResume(Resume resume, SignedEnvelope envelope, ClientConnection connection) {
+        String userId = resume.userId();
+        SessionResumption.Parked parked = clientRegistry.getResumption().resume(userId, envelope);
+        try {
+            if (parked == null || resume.clientNonce() == null) {
+                AsyncLogger.info("Session resumption failed for user: " + userId);
+                closeSession(connection, "Resumption failed.");
+                return;
+            }
+            SessionCipher sessionCipher = SessionCipher.resume(parked.resumptionSecret(), Base64.getDecoder().decode(resume.clientNonce()));
+            WireFormat wireFormat = WireFormat.fromName(resume.wireFormat());
+            if (!clientRegistry.register(connection, userId, parked.verificationContext())) {
+                return;
+            }
+
+            AsyncLogger.info("Resumed client: " + userId);
+            Confirmation confirmation = new Confirmation("Resumed session.", userId, null,
+                    wireFormat.getName(), issueResumptionToken(connection, userId));
+            connection.getOutboundQueue().switchCipherAndSend(confirmation, sessionCipher, wireFormat);
+            deliverMailbox(connection, userId);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            AsyncLogger.info("Session resumption failed for user: " + userId + ": " + e.getMessage());
+            closeSession(connection, "Resumption failed.");
+        }
+    }
 
+    private static void closeSession(ClientConnection connection, String reason) {
         try {
-            byte[] publicKeyBytes = Base64.getDecoder().decode(publicKeyString);
-            X509EncodedKeySpec spec = new X509EncodedKeySpec(publicKeyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance("EC");
-            PublicKey publicKey = keyFactory.generatePublic(spec);
+            connection.getSession().close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, reason));
+        } catch (IOException e) {
+            AsyncLogger.error("Failed to close session: " + connection.getSession().getId());
+        }
+    }
 
-            clientUserIdToSessionIdBiDiMap.put(userId, session.getId());
-            clientUserIdToPublicKey.put(userId, publicKey);
+    /*
+     * Verify a queued registration and derive its session key, on an admission pool thread
+     * The frame's verify stage includes the time it waited in the admission queue.
+     * @param request The queued registration
+     * @return The admitted registration, or null after answering the client with an Error
+     */
+    private static AdmittedRegistration verifyRegistration(RegistrationAdmission.Request request) {
+        ClientConnection connection = request.connection();
+        Register register = request.register();
+        ClientVerificationContext verificationContext = verifyRegistrationSignature(register, request.envelope());
+        request.trace().mark(ServerMetrics.Stage.VERIFY);
+        if (verificationContext == null) {
+            sendErrorMessage(connection, "Invalid signature.");
+            return null;
+        }
+        if (publicKeyStore != null && !bindPublicKey(register.userId(), verificationContext)) {
+            sendErrorMessage(connection, "Public key does not match the key registered for this user.");
+            return null;
+        }
 
-            System.out.println("Registered client: " + userId);
-            sendConfirmationMessage(session, "Registered user.", userId);
+        try {
+            // Derive a fresh session key against the client's public key
+            SessionCipher sessionCipher = initiateSession(verificationContext);
+            return new AdmittedRegistration(connection, register.userId(), verificationContext,
+                    sessionCipher, WireFormat.fromName(register.wireFormat()));
         } catch (Exception e) {
-            sendErrorMessage(session, "Error processing public key for registration.");
+            ServerMetrics.cryptoFailure("session_setup");
+            sendErrorMessage(connection, "Error processing public key for registration.");
+            return null;
+        }
+    }
+
+    /*
+     * Bind the registered key to the user ID in the key store
+     * @return false if another key is bound to the user, or the key could not be stored
+     */
+    private static boolean bindPublicKey(String userId, ClientVerificationContext verificationContext) {
+        try {
+            if (publicKeyStore.bind(userId, verificationContext.getPublicKey().getEncoded()) == PublicKeyStore.Binding.CONFLICT) {
+                ServerMetrics.cryptoFailure("key_mismatch");
+                AsyncLogger.info("Registration refused: Public key differs from the stored key. User: " + userId);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            AsyncLogger.error("Failed to store the public key of user: " + userId, e);
+            return false;
+        }
+    }
+
+    // Key agreement for a new session, within the crypto concurrency limit
+    private static SessionCipher initiateSession(ClientVerificationContext verificationContext) throws GeneralSecurityException {
+        RateLimits.acquireCrypto();
+        try {
+            return SessionCipher.initiate(verificationContext.getPublicKey());
+        } finally {
+            RateLimits.releaseCrypto();
+        }
+    }
+
+    // Register an admitted batch in one pass and confirm each registration
+    private static void applyRegistrations(List<AdmittedRegistration> admitted) {
+        for (AdmittedRegistration registration : clientRegistry.registerAll(admitted)) {
+            AsyncLogger.info("Registered client: " + registration.userId());
+            sendRegistrationConfirmation(registration.connection(), registration.userId(),
+                    registration.sessionCipher(), registration.wireFormat());
+            deliverMailbox(registration.connection(), registration.userId());
+        }
+    }
+
+    /*
+     * Deliver the connection requests that waited in a user's mailbox, after its registration confirmation
+     * Each request is pending again from its delivery, so the approval finds it.
+     */
+    private static void deliverMailbox(ClientConnection connection, String userId) {
+        if (offlineMailbox == null) {
+            return;
+        }
+        try {
+            List<OfflineMailbox.Letter> letters = offlineMailbox.drain(userId);
+            for (OfflineMailbox.Letter letter : letters) {
+                if (!clientRegistry.getPendingRequests().add(letter.requesterUserId(), userId)) {
+                    AsyncLogger.info("Queued connection request dropped: Too many pending requests. Requester: " + letter.requesterUserId() + ", Target: " + userId);
+                    continue;
+                }
+                connection.send(new IncomingConnectionRequest(letter.requesterUserId(), letter.requesterPublicKey()));
+            }
+            if (!letters.isEmpty()) {
+                AsyncLogger.info("Delivered " + letters.size() + " queued connection requests to " + userId);
+            }
+        } catch (IOException e) {
+            AsyncLogger.error("Failed to read the mailbox of user: " + userId, e);
         }
     }
 
@@ -115,59 +513,96 @@ public class WebSocketServer {
      * {
      *  "messageType": "connectionRequest",
      *  "targetUserId": "client2"
-     *  "signature": "base64EncodedSignature"
      * }
      */
-    private void handleConnectionRequest(JsonNode jsonMessage, Session session) throws IOException {
+    private void handleConnectionRequest(ConnectionRequest connectionRequest, ClientConnection connection) {
         String requesterUserId = null;
         String targetUserId = null;
 
         try {
-            // Retrieve the requester user ID based on the session
-            requesterUserId = clientUserIdToSessionIdBiDiMap.getKey(session.getId());
+            // Retrieve the requester user ID from the connection
+            requesterUserId = connection.getUserId();
             if (requesterUserId == null) {
-                System.out.println("Unregistered user attempted to send a connection request. Session ID: " + session.getId());
+                AsyncLogger.info("Unregistered user attempted to send a connection request. Session ID: " + connection.getSession().getId());
                 return;
             }
 
-            // Extract the target user ID from the JSON message
-            targetUserId = jsonMessage.get("targetUserId").asText();
-
-            // Check if the target user exists
-            String targetSessionId = clientUserIdToSessionIdBiDiMap.getValue(targetUserId);
-            if (targetSessionId == null) {
-                System.out.println("Connection request failed: Target user not found. Requester: " + requesterUserId + ", Target: " + targetUserId);
+            targetUserId = connectionRequest.targetUserId();
+            if (targetUserId == null) {
+                AsyncLogger.info("Connection request failed: Target user ID missing. Requester: " + requesterUserId);
                 return;
             }
 
-            // Retrieve the target session
-            Session targetSession = clientSessionIdToSession.get(targetSessionId);
-            if (targetSession == null) {
-                System.out.println("Connection request failed: Target user session not found. Requester: " + requesterUserId + ", Target: " + targetUserId);
+            // Limit the requests one user sends another, before they are recorded, encrypted and forwarded
+            if (!RateLimits.tryAcquireTarget(requesterUserId, targetUserId)) {
+                AsyncLogger.info("Connection request rejected: Target rate limit exceeded. Requester: " + requesterUserId + ", Target: " + targetUserId);
+                sendErrorMessage(connection, "Too many connection requests to this user.");
                 return;
             }
 
-            // Retrieve the requester's public key
-            PublicKey requesterPublicKey = clientUserIdToPublicKey.get(requesterUserId);
-            if (requesterPublicKey == null) {
-                System.out.println("Connection request failed: Requester public key not found. Requester: " + requesterUserId + ", Target: " + targetUserId);
+            // Check if the target user is connected to any node
+            if (presenceDirectory.findNode(targetUserId) == null) {
+                handleOfflineTarget(connection, requesterUserId, targetUserId);
                 return;
             }
 
-            // Forward the connection request to the target user
-            String publicKeyString = Base64.getEncoder().encodeToString(requesterPublicKey.getEncoded());
-            sendConnectionRequest(targetSession, requesterUserId, publicKeyString);
-            System.out.println("Forwarded connection request from " + requesterUserId + " to " + targetUserId);
+            // Record the request first, so floods beyond the per-user cap are never forwarded
+            if (!clientRegistry.getPendingRequests().add(requesterUserId, targetUserId)) {
+                AsyncLogger.info("Connection request rejected: Too many pending requests. Requester: " + requesterUserId + ", Target: " + targetUserId);
+                sendErrorMessage(connection, "Too many pending connection requests.");
+                return;
+            }
 
-            // Add the requester to the set of users requesting connection to the target user
-            connectionRequests.computeIfAbsent(targetUserId, k -> ConcurrentHashMap.newKeySet()).add(requesterUserId);
+            // Forward the connection request to the target user, with the requester's public key
+            String publicKeyString = connection.getVerificationContext().getEncodedPublicKey();
+            if (!sendConnectionRequest(targetUserId, requesterUserId, publicKeyString)) {
+                clientRegistry.getPendingRequests().remove(requesterUserId, targetUserId);
+                AsyncLogger.info("Connection request failed: Target user not reachable. Requester: " + requesterUserId + ", Target: " + targetUserId);
+                return;
+            }
+            AsyncLogger.info("Forwarded connection request from " + requesterUserId + " to " + targetUserId);
 
         } catch (Exception e) {
-            System.out.println("Exception while handling connection request. Requester: " + requesterUserId + ", Target: " + targetUserId);
-            e.printStackTrace();
+            AsyncLogger.error("Exception while handling connection request. Requester: " + requesterUserId + ", Target: " + targetUserId, e);
         } finally {
             // Always send a confirmation message to the requester
-            sendConfirmationMessage(session, "The request has been sent if the client is online.", targetUserId != null ? targetUserId : "unknown");
+            sendConfirmationMessage(connection, "The request has been sent if the client is online.", targetUserId != null ? targetUserId : "unknown");
+        }
+    }
+
+    /*
+     * A connection request to a user that is not online anywhere
+     * With a mailbox the request waits there for the target to register, as long as the
+     * key store knows the target.
+     */
+    private void handleOfflineTarget(ClientConnection connection, String requesterUserId, String targetUserId) {
+        boolean known = publicKeyStore != null && publicKeyStore.isKnown(targetUserId);
+        if (offlineMailbox == null || !known) {
+            if (known) {
+                AsyncLogger.info("Connection request failed: Target user offline. Requester: " + requesterUserId + ", Target: " + targetUserId);
+                sendErrorMessage(connection, "Target user is offline.");
+            } else {
+                AsyncLogger.info("Connection request failed: Target user not found. Requester: " + requesterUserId + ", Target: " + targetUserId);
+            }
+            return;
+        }
+
+        try {
+            String publicKeyString = connection.getVerificationContext().getEncodedPublicKey();
+            switch (offlineMailbox.deposit(targetUserId, requesterUserId, publicKeyString)) {
+                case QUEUED, ALREADY_QUEUED ->
+                        AsyncLogger.info("Connection request queued for offline user. Requester: " + requesterUserId + ", Target: " + targetUserId);
+                case FULL -> {
+                    AsyncLogger.info("Connection request rejected: Mailbox full. Requester: " + requesterUserId + ", Target: " + targetUserId);
+                    sendErrorMessage(connection, "Target user's mailbox is full.");
+                }
+                case REQUESTER_FULL -> {
+                    AsyncLogger.info("Connection request rejected: Too many queued requests. Requester: " + requesterUserId + ", Target: " + targetUserId);
+                    sendErrorMessage(connection, "Too many queued connection requests.");
+                }
+            }
+        } catch (IOException e) {
+            AsyncLogger.error("Failed to queue connection request. Requester: " + requesterUserId + ", Target: " + targetUserId, e);
         }
     }
 
@@ -178,67 +613,64 @@ public class WebSocketServer {
      *  "messageType": "connectionApproval",
      *  "requesterUserId": "client2",
      *  "connectionDetails": "Encrypted connection details"
-     *  "signature": "base64EncodedSignature"
      * }
      */
-    private void handleConnectionApproval(JsonNode jsonMessage, Session session) throws IOException {
+    private void handleConnectionApproval(ConnectionApproval connectionApproval, ClientConnection connection) {
         String approvingUserId = null;
         String requesterUserId = null;
         String connectionDetails = null;
-        boolean success = false; // Flag to indicate if the operation was successful
 
         try {
-            // Retrieve approving user ID from the session
-            approvingUserId = clientUserIdToSessionIdBiDiMap.getKey(session.getId());
+            // Retrieve approving user ID from the connection
+            approvingUserId = connection.getUserId();
             if (approvingUserId == null) {
-                System.out.println("Connection approval failed: Approving user not found for session ID: " + session.getId());
+                AsyncLogger.info("Connection approval failed: Approving user not found for session ID: " + connection.getSession().getId());
                 return;
             }
 
-            // Extract requester user ID and connection details from the JSON message
-            requesterUserId = jsonMessage.get("requesterUserId").asText();
-            connectionDetails = jsonMessage.get("connectionDetails").asText();
-
-            // Check if the requester exists in the set of users who requested connection to the approving user
-            Set<String> requesterSet = connectionRequests.get(approvingUserId);
-            if (requesterSet == null || !requesterSet.contains(requesterUserId)) {
-                System.out.println("Connection approval failed: No matching request found. Approver: " + approvingUserId + ", Requester: " + requesterUserId);
+            requesterUserId = connectionApproval.requesterUserId();
+            connectionDetails = connectionApproval.connectionDetails();
+            if (requesterUserId == null || connectionDetails == null) {
+                AsyncLogger.info("Connection approval failed: Requester user ID or connection details missing. Approver: " + approvingUserId);
                 return;
             }
 
-            // Retrieve the requester session
-            String requesterSessionId = clientUserIdToSessionIdBiDiMap.getValue(requesterUserId);
-            if (requesterSessionId == null) {
-                System.out.println("Connection approval failed: Requester session not found. Approver: " + approvingUserId + ", Requester: " + requesterUserId);
+            // Send approval message to the requester, its node checks the pending request
+            if (!sendApprovalMessage(requesterUserId, approvingUserId, connectionDetails)) {
+                AsyncLogger.info("Connection approval failed: Requester not reachable or no matching request. Approver: " + approvingUserId + ", Requester: " + requesterUserId);
                 return;
             }
-
-            Session requesterSession = clientSessionIdToSession.get(requesterSessionId);
-            if (requesterSession == null) {
-                System.out.println("Connection approval failed: Requester session object not found. Approver: " + approvingUserId + ", Requester: " + requesterUserId);
-                return;
-            }
-
-            // Send approval message to the requester
-            sendApprovalMessage(requesterSession, approvingUserId, connectionDetails);
-            System.out.println("Forwarded connection approval from " + approvingUserId + " to " + requesterUserId);
-
-            success = true; // Mark operation as successful
+            AsyncLogger.info("Forwarded connection approval from " + approvingUserId + " to " + requesterUserId);
         } catch (Exception e) {
-            System.out.println("Exception while handling connection approval. Approver: " + approvingUserId + ", Requester: " + requesterUserId);
-            e.printStackTrace();
-        } finally {
-            // Update maps and sets only if the operation was successful
-            if (success) {
-                Set<String> requesterSet = connectionRequests.get(approvingUserId);
-                if (requesterSet != null) {
-                    requesterSet.remove(requesterUserId);
-                    if (requesterSet.isEmpty()) {
-                        connectionRequests.remove(approvingUserId); // Remove entry if no more requesters
-                    }
-                }
+            AsyncLogger.error("Exception while handling connection approval. Approver: " + approvingUserId + ", Requester: " + requesterUserId, e);
+        }
+    }
+
+    /*
+     * Deliver a routed message to a user connected to this node
+     * Pending requests live on the requester's node, so an approval is checked
+     * against them here, wherever the approving user is connected.
+     * @param userId The recipient
+     * @param message The message to send
+     * @return false if the user is not connected here or the approval matches no request
+     */
+    private static boolean deliverLocal(String userId, Message message) {
+        ClientConnection connection = clientRegistry.findByUserId(userId);
+        if (connection == null) {
+            AsyncLogger.info("Delivery failed: Session not found. User: " + userId + ", messageType: " + message.messageType());
+            return false;
+        }
+        if (message instanceof Approval approval) {
+            // Only the approval that removes the requester's pending request is delivered, so a request is answered once
+            if (!clientRegistry.getPendingRequests().remove(userId, approval.user())) {
+                AsyncLogger.info("Connection approval failed: No matching request found. Approver: " + approval.user() + ", Requester: " + userId);
+                return false;
             }
+            connection.send(approval);
+            return true;
         }
+        connection.send(message);
+        return true;
     }
 
     /*
@@ -249,11 +681,8 @@ public class WebSocketServer {
      * "message": "Error message"
      * }
      */
-    private void sendErrorMessage(Session session, String errorMessage) throws IOException {
-        String errorJson = objectMapper.writeValueAsString(
-                Map.of("messageType", "Error", "message", errorMessage)
-        );
-        sendEncryptedMessage(session, errorJson);
+    private static void sendErrorMessage(ClientConnection connection, String errorMessage) {
+        connection.send(new ErrorMessage(errorMessage));
     }
 
     /*
@@ -265,15 +694,50 @@ public class WebSocketServer {
      * "user": "client1"
      * }
     */
-    private void sendConfirmationMessage(Session session, String message, String userId) throws IOException {
-        String confirmationJson = objectMapper.writeValueAsString(
-                Map.of("messageType", "Confirmation", "message", message, "user", userId)
-        );
-        sendEncryptedMessage(session, confirmationJson);
+    private void sendConfirmationMessage(ClientConnection connection, String message, String userId) {
+        connection.send(new Confirmation(message, userId));
+    }
+
+    /*
+     * Send the registration confirmation, carrying the server's ephemeral key for the session handshake
+     * This is the last frame encrypted with the previous channel (ECIES on a new session),
+     * the outbound queue switches to the new session cipher and the accepted wire format right after it.
+     * Expected JSON format:
+     * {
+     * "messageType": "Confirmation",
+     * "message": "Registered user.",
+     * "user": "client1",
+     * "sessionKey": "base64EncodedEphemeralPublicKey",
+     * "wireFormat": "text" or "binary",
+     * "resumptionToken": "base64EncodedResumptionSecret" (absent if resumption is disabled)
+     * }
+     */
+    private static void sendRegistrationConfirmation(ClientConnection connection, String userId, SessionCipher sessionCipher, WireFormat wireFormat) {
+        Confirmation confirmation = new Confirmation("Registered user.", userId, sessionCipher.getHandshakeKey(),
+                wireFormat.getName(), issueResumptionToken(connection, userId));
+        connection.getOutboundQueue().sendAndSwitchCipher(confirmation, sessionCipher, wireFormat);
+    }
+
+    /*
+     * Issue a resumption token to a registered connection
+     * @return The Base64 token for the confirmation, or null if resumption is disabled or failed
+     */
+    private static String issueResumptionToken(ClientConnection connection, String userId) {
+        if (!SessionResumption.isEnabled()) {
+            return null;
+        }
+        try {
+            byte[] resumptionSecret = clientRegistry.getResumption().issue(userId, connection.getVerificationContext());
+            connection.setResumptionSecret(resumptionSecret);
+            return Base64.getEncoder().encodeToString(resumptionSecret);
+        } catch (GeneralSecurityException e) {
+            AsyncLogger.error("Failed to issue resumption token for user: " + userId, e);
+            return null;
+        }
     }
 
     /*
-     * Send connection request to the target client
+     * Send connection request to the target client, on whichever node it is connected to
      * Expected JSON format:
      * {
      * "messageType": "connectionRequest",
@@ -281,17 +745,12 @@ public class WebSocketServer {
      * "requesterPublicKey": "base64EncodedPublicKey"
      * }
      */
-    private void sendConnectionRequest(Session targetSession, String requesterUserId, String publicKeyString) throws IOException {
-        String requestJson = objectMapper.writeValueAsString(
-                Map.of("messageType", "connectionRequest",
-                        "fromUserId", requesterUserId,
-                        "requesterPublicKey", publicKeyString)
-        );
-        sendEncryptedMessage(targetSession, requestJson);
+    private boolean sendConnectionRequest(String targetUserId, String requesterUserId, String publicKeyString) {
+        return messageRouter.route(targetUserId, new IncomingConnectionRequest(requesterUserId, publicKeyString));
     }
 
     /*
-     * Send connection approval to the requester client
+     * Send connection approval to the requester client, on whichever node it is connected to
      * Expected JSON format:
      * {
      * "messageType": "Approval",
@@ -299,133 +758,89 @@ public class WebSocketServer {
      * "connectionDetails": "Encrypted connection details"
      * }
      */
-    private void sendApprovalMessage(Session requesterSession, String approvingUserId, String connectionDetails) throws IOException {
-        String approvalJson = objectMapper.writeValueAsString(
-                Map.of("messageType", "Approval",
-                        "user", approvingUserId,
-                        "connectionDetails", connectionDetails)
-        );
-        sendEncryptedMessage(requesterSession, approvalJson);
+    private boolean sendApprovalMessage(String requesterUserId, String approvingUserId, String connectionDetails) {
+        return messageRouter.route(requesterUserId, new Approval(approvingUserId, connectionDetails));
     }
 
-    private void sendEncryptedMessage(Session session, String plainText) {
+    /*
+     * Verify the client signature over the received payload bytes
+     * @param envelope The received signed envelope
+     * @param verificationContext The verification context of the registered user
+     * @return true if the signature is valid, false otherwise
+     */
+    private static boolean verifyClientSignature(SignedEnvelope envelope, ClientVerificationContext verificationContext) {
+        RateLimits.acquireCrypto();
         try {
-            // Encrypt the message with the client's public key
-            String sessionId = session.getId();
-            String userId = clientUserIdToSessionIdBiDiMap.getKey(sessionId);
-            PublicKey publicKey = clientUserIdToPublicKey.get(userId);
-            if (publicKey == null) {
-                System.out.println("Public key not found for user: " + userId);
-                return;
+            boolean isValid = verificationContext.verify(envelope.getFrame(), envelope.getPayloadOffset(),
+                    envelope.getPayloadLength(), envelope.getSignature());
+            if (!isValid) {
+                ServerMetrics.cryptoFailure("invalid_signature");
+                AsyncLogger.info("Signature verification failed.");
             }
-            Cipher cipher = Cipher.getInstance("ECIES", "BC");
-            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-            byte[] encryptedMessage = cipher.doFinal(plainText.getBytes());
-            String encodedMessage = Base64.getEncoder().encodeToString(encryptedMessage);
-
-            session.getBasicRemote().sendText(encodedMessage);
+            return isValid;
         } catch (Exception e) {
-            e.printStackTrace();
+            ServerMetrics.cryptoFailure("malformed_signature");
+            AsyncLogger.error("Exception during signature verification: " + e.getMessage(), e);
+            return false;
+        } finally {
+            RateLimits.releaseCrypto();
         }
     }
 
     /*
-     * Verify the client signature
-     * @param jsonMessage The incoming JSON message
-     * @param session The session of the client
-     * @return true if the signature is valid, false otherwise
+     * Verify a registration, where the public key is part of the message
+     * @param register The parsed registration message
+     * @param envelope The received signed envelope
+     * @return The verification context for the new key if the signature is valid, null otherwise
      */
-    private boolean verifyClientSignature(JsonNode jsonMessage, Session session) {
-        try {
-            // Retrieve the signature
-            if (!jsonMessage.has("signature")) {
-                System.out.println("Signature missing in the message.");
-                return false;
-            }
-
-            String signatureBase64 = jsonMessage.get("signature").asText();
-            String sessionId = session.getId();
-
-            // Handle the "register" case where the public key is part of the message
-            if (jsonMessage.has("messageType") && "Register".equalsIgnoreCase(jsonMessage.get("messageType").asText())) {
-                if (!jsonMessage.has("publicKey") || !jsonMessage.has("userId")) {
-                    System.out.println("Public key or userId missing in the registration message.");
-                    return false;
-                }
-
-                // Extract the public key from the message
-                String publicKeyString = jsonMessage.get("publicKey").asText();
-                byte[] publicKeyBytes = Base64.getDecoder().decode(publicKeyString);
-                X509EncodedKeySpec spec = new X509EncodedKeySpec(publicKeyBytes);
-                KeyFactory keyFactory = KeyFactory.getInstance("EC");
-                PublicKey publicKey = keyFactory.generatePublic(spec);
-
-                // Prepare the payload for verification (exclude the signature field)
-                ObjectNode messageCopy = (ObjectNode) jsonMessage.deepCopy();
-                messageCopy.remove("signature");
-                String payload = objectMapper.writeValueAsString(messageCopy);
-
-                // Verify the signature
-                byte[] signatureBytes = Base64.getDecoder().decode(signatureBase64);
-                Signature signature = Signature.getInstance("SHA256withECDSA");
-                signature.initVerify(publicKey);
-                signature.update(payload.getBytes());
-
-                boolean isValid = signature.verify(signatureBytes);
-                if (!isValid) {
-                    System.out.println("Signature verification failed for registration.");
-                }
-                return isValid;
-            }
-
-            // For all other cases, retrieve the userId and public key from the map
-            String userId = clientUserIdToSessionIdBiDiMap.getKey(sessionId);
-            PublicKey publicKey = clientUserIdToPublicKey.get(userId);
-            if (publicKey == null) {
-                System.out.println("Public key not found for user: " + userId);
-                return false;
-            }
-
-            // Prepare the payload for verification (exclude the signature field)
-            ObjectNode messageCopy = (ObjectNode) jsonMessage.deepCopy();
-            messageCopy.remove("signature");
-            String payload = objectMapper.writeValueAsString(messageCopy);
-
-            // Verify the signature
-            byte[] signatureBytes = Base64.getDecoder().decode(signatureBase64);
-            Signature signature = Signature.getInstance("SHA256withECDSA");
-            signature.initVerify(publicKey);
-            signature.update(payload.getBytes());
+    private static ClientVerificationContext verifyRegistrationSignature(Register register, SignedEnvelope envelope) {
+        if (register.publicKey() == null || register.userId() == null) {
+            AsyncLogger.info("Public key or userId missing in the registration message.");
+            return null;
+        }
 
-            boolean isValid = signature.verify(signatureBytes);
-            if (!isValid) {
-                System.out.println("Signature verification failed for user: " + userId);
+        try {
+            // Decode the public key once, the context is handed on to the registration
+            ClientVerificationContext verificationContext =
+                    ClientVerificationContext.fromEncodedKey(register.publicKey());
+            if (!verifyClientSignature(envelope, verificationContext)) {
+                AsyncLogger.info("Signature verification failed for registration.");
+                return null;
             }
-            return isValid;
-
+            return verificationContext;
         } catch (Exception e) {
-            System.out.println("Exception during signature verification: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+            ServerMetrics.cryptoFailure("invalid_public_key");
+            AsyncLogger.info("Exception while decoding registration public key: " + e.getMessage());
+            return null;
         }
     }
 
+    // Cleanup is dispatched behind any frames still queued for the session
     @OnClose
     public void onClose(Session session) {
-        String userId = clientUserIdToSessionIdBiDiMap.getKey(session.getId());
-        clientUserIdToSessionIdBiDiMap.removeByKey(session.getId());
-        clientUserIdToPublicKey.remove(userId);
-        connectionRequests.remove(userId);
-        connectionRequests.values().forEach(set -> set.remove(userId));
-        clientSessionIdToSession.remove(session.getId());
-        System.out.println("Connection closed: " + session.getId() + " (User: " + userId + ")");
+        dispatch(session, () -> cleanupClosedSession(session));
     }
 
     @OnError
     public void onError(Session session, Throwable throwable) {
-        String userId = clientUserIdToSessionIdBiDiMap.getKey(session.getId());
-        clientUserIdToSessionIdBiDiMap.removeByKey(session.getId());
-        clientSessionIdToSession.remove(session.getId());
-        System.out.println("Error: " + throwable.getMessage() + " (User: " + userId + ")");
+        if (ClientConnection.of(session) == null) {
+            AsyncLogger.error("Error on session without connection state: " + session.getId(), throwable);
+        }
+        dispatch(session, () -> cleanupFailedSession(session, throwable));
+    }
+
+    private void cleanupClosedSession(Session session) {
+        ClientConnection connection = ClientConnection.of(session);
+        if (connection != null && clientRegistry.close(connection)) {
+            AsyncLogger.info("Connection closed: " + session.getId() + " (User: " + connection.getUserId() + ")");
+        }
+    }
+
+    private void cleanupFailedSession(Session session, Throwable throwable) {
+        ClientConnection connection = ClientConnection.of(session);
+        if (connection != null) {
+            clientRegistry.close(connection);
+        }
+        AsyncLogger.error("Error: " + throwable.getMessage() + " (User: " + (connection != null ? connection.getUserId() : null) + ")");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,132 @@
+package com.realtimesecurechat.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Asynchronous console logger.
+ * Logging only enqueues the message; a single background thread formats and
+ * writes entries in batches to buffered stdout/stderr streams, flushing once
+ * per batch. Callers never wait on console I/O. When the queue is full new
+ * entries are dropped and counted rather than blocking the caller.
+ * Entries still queued at JVM shutdown are written by a shutdown hook.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.log.queueCapacity (default 65536)
+ */
+public final class AsyncLogger {
+    private static final int QUEUE_CAPACITY = Integer.getInteger("realtimesecurechat.log.queueCapacity", 65536);
+    private static final int MAX_BATCH = 1024;
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final LongAdder droppedEntries = new LongAdder();
+    private static final ReentrantLock writeLock = new ReentrantLock();
+    private static final PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+    private static final PrintStream err = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 16), false);
+
+    private record Entry(long timeMillis, String threadName, boolean error, String message, Throwable throwable) {
+    }
+
+    static {
+        Thread writer = new Thread(AsyncLogger::writeLoop, "async-logger");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(AsyncLogger::flush, "async-logger-flush"));
+    }
+
+    private AsyncLogger() {
+    }
+
+    public static void info(String message) {
+        enqueue(false, message, null);
+    }
+
+    public static void error(String message) {
+        enqueue(true, message, null);
+    }
+
+    /*
+     * Log an error with its stack trace
+     * @param message The error description
+     * @param throwable The cause, printed with its stack trace
+     */
+    public static void error(String message, Throwable throwable) {
+        enqueue(true, message, throwable);
+    }
+
+    // Entries dropped because the queue was full
+    public static long getDroppedEntries() {
+        return droppedEntries.sum();
+    }
+
+    private static void enqueue(boolean error, String message, Throwable throwable) {
+        Entry entry = new Entry(System.currentTimeMillis(), threadName(Thread.currentThread()), error, message, throwable);
+        if (!queue.offer(entry)) {
+            droppedEntries.increment();
+        }
+    }
+
+    // Virtual threads are unnamed unless their factory names them, they are told apart by ID
+    private static String threadName(Thread thread) {
+        String name = thread.getName();
+        return name.isEmpty() ? "virtual-" + thread.threadId() : name;
+    }
+
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // Never let a bad entry stop the writer
+                batch.clear();
+            }
+        }
+    }
+
+    // Write everything still queued, used at shutdown
+    private static void flush() {
+        List<Entry> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private static void write(List<Entry> batch) {
+        writeLock.lock();
+        try {
+            boolean wroteErrors = false;
+            for (Entry entry : batch) {
+                PrintStream stream = entry.error() ? err : out;
+                stream.print(Instant.ofEpochMilli(entry.timeMillis()));
+                stream.print(" [");
+                stream.print(entry.threadName());
+                stream.print("] ");
+                stream.println(entry.message());
+                if (entry.throwable() != null) {
+                    entry.throwable().printStackTrace(stream);
+                }
+                wroteErrors |= entry.error();
+            }
+            out.flush();
+            if (wroteErrors) {
+                err.flush();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
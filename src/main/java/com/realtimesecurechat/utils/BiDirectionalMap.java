@@ -1,71 +1,306 @@
 package com.realtimesecurechat.utils;
 
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+/*
+ * Concurrent one-to-one map between keys and values.
+ *
+ * Both directions share one immutable Entry per pair. Writers lock the stripes
+ * of every key and value they touch (acquired in stripe order, so writers on
+ * unrelated pairs never contend). A pair is installed into the forward map
+ * first and published by the reverse map write, and it is withdrawn from the
+ * reverse map first. Readers are lock-free: a lookup in one direction is
+ * confirmed against the other, and only a lookup that races a writer on the
+ * same pair falls back to taking that pair's stripe. Every operation, reads
+ * included, therefore sees whole pairs and never a half-updated one.
+ */
 public class BiDirectionalMap<K, V> {
-    private final ConcurrentHashMap<K, V> forwardMap = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<V, K> reverseMap = new ConcurrentHashMap<>();
-    private final Object lock = new Object();  // Lock object for synchronized updates
-
-    public void put(K key, V value) {
-        synchronized (lock) {
-            // Remove existing entries to maintain one-to-one mapping
-            if (forwardMap.containsKey(key)) {
-                V oldValue = forwardMap.get(key);
-                reverseMap.remove(oldValue);
+    private static final int STRIPES = 64;
+
+    private final ConcurrentHashMap<K, Entry<K, V>> forwardMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<V, Entry<K, V>> reverseMap = new ConcurrentHashMap<>();
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    private record Entry<K, V>(K key, V value) {
+    }
+
+    public BiDirectionalMap() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /*
+     * Map key to value, dropping any pair that held either of them
+     * @return The value key was mapped to before, or null
+     */
+    public V put(K key, V value) {
+        int[] held = lockStripes(key, value);
+        try {
+            // Stripes may have to be widened to cover the pairs being replaced
+            while (true) {
+                int[] needed = stripesFor(key, value, forwardMap.get(key), reverseMap.get(value));
+                if (covers(held, needed)) {
+                    break;
+                }
+                unlock(held);
+                held = lock(union(held, needed));
+            }
+            return install(key, value);
+        } finally {
+            unlock(held);
+        }
+    }
+
+    /*
+     * Map key to value only if neither is mapped yet
+     * @return true if the pair was added
+     */
+    public boolean putIfAbsent(K key, V value) {
+        int[] held = lockStripes(key, value);
+        try {
+            if (forwardMap.containsKey(key) || reverseMap.containsKey(value)) {
+                return false;
+            }
+            install(key, value);
+            return true;
+        } finally {
+            unlock(held);
+        }
+    }
+
+    /*
+     * Replace the value of key if it is currently expectedValue and newValue is free
+     * @return true if the value was replaced
+     */
+    public boolean replace(K key, V expectedValue, V newValue) {
+        int[] held = lockStripes(key, expectedValue, newValue);
+        try {
+            Entry<K, V> current = forwardMap.get(key);
+            if (current == null || !current.value().equals(expectedValue)) {
+                return false;
             }
-            if (reverseMap.containsKey(value)) {
-                K oldKey = reverseMap.get(value);
-                forwardMap.remove(oldKey);
+            Entry<K, V> valueOwner = reverseMap.get(newValue);
+            if (valueOwner != null && valueOwner != current) {
+                return false;
             }
-            // Add new entries to both maps
-            forwardMap.put(key, value);
-            reverseMap.put(value, key);
+            install(key, newValue);
+            return true;
+        } finally {
+            unlock(held);
         }
     }
 
     public V getValue(K key) {
-        return forwardMap.get(key);
+        Entry<K, V> entry = forwardMap.get(key);
+        if (entry == null || reverseMap.get(entry.value()) == entry) {
+            return entry != null ? entry.value() : null;
+        }
+        // A writer is moving this pair, read it under the key's stripe
+        ReentrantLock lock = locks[stripe(key)];
+        lock.lock();
+        try {
+            entry = forwardMap.get(key);
+            return entry != null ? entry.value() : null;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public K getKey(V value) {
-        return reverseMap.get(value);
+        Entry<K, V> entry = reverseMap.get(value);
+        if (entry == null || forwardMap.get(entry.key()) == entry) {
+            return entry != null ? entry.key() : null;
+        }
+        // A writer is moving this pair, read it under the value's stripe
+        ReentrantLock lock = locks[stripe(value)];
+        lock.lock();
+        try {
+            entry = reverseMap.get(value);
+            return entry != null ? entry.key() : null;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void removeByKey(K key) {
-        synchronized (lock) {
-            V value = forwardMap.remove(key);
-            if (value != null) {
-                reverseMap.remove(value);
+        while (true) {
+            Entry<K, V> entry = forwardMap.get(key);
+            if (entry == null) {
+                return;
+            }
+            if (removeEntry(entry)) {
+                return;
             }
         }
     }
 
     public void removeByValue(V value) {
-        synchronized (lock) {
-            K key = reverseMap.remove(value);
-            if (key != null) {
-                forwardMap.remove(key);
+        while (true) {
+            Entry<K, V> entry = reverseMap.get(value);
+            if (entry == null) {
+                return;
+            }
+            if (removeEntry(entry)) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Remove the pair only if key is currently mapped to value
+     * @return true if the pair was removed
+     */
+    public boolean remove(K key, V value) {
+        Entry<K, V> entry = forwardMap.get(key);
+        while (entry != null && entry.value().equals(value)) {
+            if (removeEntry(entry)) {
+                return true;
             }
+            entry = forwardMap.get(key);
         }
+        return false;
     }
 
     public boolean containsKey(K key) {
-        return forwardMap.containsKey(key);
+        return getValue(key) != null;
     }
 
     public boolean containsValue(V value) {
-        return reverseMap.containsKey(value);
+        return getKey(value) != null;
+    }
+
+    // Weakly consistent iteration over the mapped values
+    public void forEachValue(Consumer<? super V> action) {
+        reverseMap.keySet().forEach(action);
     }
 
+    // Number of pairs, approximate while writers are active
     public int size() {
-        return forwardMap.size();
+        return reverseMap.size();
     }
 
     public void clear() {
-        synchronized (lock) {
-            forwardMap.clear();
+        int[] held = lock(allStripes());
+        try {
             reverseMap.clear();
+            forwardMap.clear();
+        } finally {
+            unlock(held);
+        }
+    }
+
+    /*
+     * Install key -> value with the stripes of all affected pairs held
+     * Publication order: forward write, reverse write (the linearization point),
+     * then removal of the pairs that previously held key or value.
+     * @return The value key was mapped to before, or null
+     */
+    private V install(K key, V value) {
+        Entry<K, V> entry = new Entry<>(key, value);
+        Entry<K, V> previousForKey = forwardMap.put(key, entry);
+        Entry<K, V> previousForValue = reverseMap.put(value, entry);
+        if (previousForKey != null && !previousForKey.value().equals(value)) {
+            reverseMap.remove(previousForKey.value(), previousForKey);
+        }
+        if (previousForValue != null && !previousForValue.key().equals(key)) {
+            forwardMap.remove(previousForValue.key(), previousForValue);
+        }
+        return previousForKey != null ? previousForKey.value() : null;
+    }
+
+    // Withdraw a pair, reverse direction first; false if it changed before the stripes were taken
+    private boolean removeEntry(Entry<K, V> entry) {
+        int[] held = lockStripes(entry.key(), entry.value());
+        try {
+            if (forwardMap.get(entry.key()) != entry) {
+                return false;
+            }
+            reverseMap.remove(entry.value(), entry);
+            forwardMap.remove(entry.key(), entry);
+            return true;
+        } finally {
+            unlock(held);
+        }
+    }
+
+    private int[] stripesFor(K key, V value, Entry<K, V> previousForKey, Entry<K, V> previousForValue) {
+        return sortedDistinct(
+                stripe(key),
+                stripe(value),
+                previousForKey != null ? stripe(previousForKey.value()) : stripe(key),
+                previousForValue != null ? stripe(previousForValue.key()) : stripe(value));
+    }
+
+    private int[] lockStripes(Object... objects) {
+        int[] stripes = new int[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            stripes[i] = stripe(objects[i]);
+        }
+        return lock(sortedDistinct(stripes));
+    }
+
+    private static int stripe(Object object) {
+        int hash = object.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    // Stripes are always locked in ascending order
+    private int[] lock(int[] stripes) {
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+        return stripes;
+    }
+
+    private void unlock(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    private static boolean covers(int[] held, int[] needed) {
+        for (int stripe : needed) {
+            if (Arrays.binarySearch(held, stripe) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] union(int[] first, int[] second) {
+        int[] combined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, combined, first.length, second.length);
+        return sortedDistinct(combined);
+    }
+
+    // Insertion sort, writers only ever pass a handful of stripes
+    private static int[] sortedDistinct(int... stripes) {
+        int[] sorted = new int[stripes.length];
+        int count = 0;
+        for (int stripe : stripes) {
+            int position = count;
+            while (position > 0 && sorted[position - 1] > stripe) {
+                position--;
+            }
+            if (position > 0 && sorted[position - 1] == stripe) {
+                continue;
+            }
+            System.arraycopy(sorted, position, sorted, position + 1, count - position);
+            sorted[position] = stripe;
+            count++;
+        }
+        return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+
+    private static int[] allStripes() {
+        int[] stripes = new int[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = i;
         }
+        return stripes;
     }
 }
@@ -0,0 +1,119 @@
+package com.realtimesecurechat.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Compact encoding of connection details (SDP and ICE candidates) for the approval.
+ * Connection details are ECIES encrypted end to end, and ciphertext does not
+ * compress, so WebSocket compression cannot shrink them; they are compacted
+ * here, before encryption. The details are deflated with a preset dictionary
+ * of the lines and tokens every WebRTC offer repeats, which pays off even on
+ * the first few hundred bytes where plain deflate has nothing to refer back
+ * to yet.
+ *
+ * The encoding starts with a format byte. Details without it (plain UTF-8
+ * from an older client) are decoded as they are, since SDP and JSON never
+ * start with a control character.
+ */
+public final class ConnectionDetailsCodec {
+    private static final byte FORMAT_DEFLATE_V1 = 0x01;
+
+    // Larger decoded details are refused, a peer must not make us inflate without bound
+    private static final int MAX_DECODED_LENGTH = 1 << 16;
+
+    // Tokens common to WebRTC offers, most frequent last since deflate reaches nearer matches more cheaply
+    private static final byte[] DICTIONARY = String.join("",
+            "a=extmap-allow-mixed\\r\\n",
+            "a=msid-semantic:WMS*\\r\\n",
+            "a=sendrecv\\r\\n",
+            "a=sctp-port:5000\\r\\n",
+            "a=max-message-size:262144\\r\\n",
+            "m=application 9 UDP/DTLS/SCTP webrtc-datachannel\\r\\n",
+            "a=group:BUNDLE 0\\r\\n",
+            "a=setup:actpass\\r\\n",
+            "a=mid:0\\r\\n",
+            "c=IN IP4 0.0.0.0\\r\\n",
+            "a=ice-options:trickle\\r\\n",
+            "a=end-of-candidates\\r\\n",
+            "a=fingerprint:sha-256 ",
+            "a=ice-ufrag:",
+            "a=ice-pwd:",
+            "\"],\"sdp\":\"v=0\\r\\no=- ",
+            " IN IP4 0.0.0.0\\r\\ns=-\\r\\nt=0 0\\r\\n",
+            " raddr 0.0.0.0 rport 0",
+            " typ srflx raddr ",
+            " typ relay raddr ",
+            " generation 0 network-id 1",
+            "a=candidate:",
+            "{\"iceCandidates\":[\"candidate:",
+            " 1 tcp ",
+            " 1 udp 2130706431 ",
+            " 1 udp 1694498815 ",
+            " typ host",
+            "\",\"candidate:").getBytes(StandardCharsets.UTF_8);
+
+    private ConnectionDetailsCodec() {
+    }
+
+    /*
+     * Compact connection details ahead of encryption
+     * @param connectionDetails The details as gathered by the sidecar
+     * @return The encoded details
+     */
+    public static byte[] encode(String connectionDetails) {
+        byte[] plain = connectionDetails.getBytes(StandardCharsets.UTF_8);
+        // Callers run on virtual threads, so each call has its own Deflater and frees its native memory
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(plain);
+            deflater.finish();
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(plain.length / 2 + 16);
+            encoded.write(FORMAT_DEFLATE_V1);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                encoded.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return encoded.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /*
+     * Restore connection details after decryption
+     * @param encoded The decrypted details, compact or plain
+     * @return The details as gathered by the peer's sidecar
+     */
+    public static String decode(byte[] encoded) throws DataFormatException {
+        if (encoded.length == 0 || encoded[0] != FORMAT_DEFLATE_V1) {
+            return new String(encoded, StandardCharsets.UTF_8);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(encoded, 1, encoded.length - 1);
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream(encoded.length * 4);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated connection details.");
+                }
+                if (decoded.size() + length > MAX_DECODED_LENGTH) {
+                    throw new DataFormatException("Connection details exceed " + MAX_DECODED_LENGTH + " bytes.");
+                }
+                decoded.write(buffer, 0, length);
+            }
+            return decoded.toString(StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+}
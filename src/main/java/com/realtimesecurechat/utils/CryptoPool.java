@@ -0,0 +1,147 @@
+package com.realtimesecurechat.utils;
+
+import javax.crypto.Cipher;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Striped pools of JCA Cipher and Signature instances shared by client and server.
+ * Algorithms are registered under a logical name mapped to a JCA transformation
+ * and optional provider, so an endpoint can swap the implementation without
+ * touching call sites. Borrowed instances are always re-initialised by the
+ * caller before use and must be released when done, typically in a finally block.
+ * Borrowing never blocks: an empty stripe falls back to a fresh getInstance (a miss).
+ */
+public final class CryptoPool {
+    public static final String ECIES = "ECIES";
+    public static final String AES_GCM = "AES-GCM";
+    public static final String ECDSA_SHA256 = "ECDSA-SHA256";
+
+    private static final int SLOTS = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())) * 4;
+    private static final int PROBES = 4;
+
+    private static final Map<String, Pool<Cipher>> cipherPools = new ConcurrentHashMap<>();
+    private static final Map<String, Pool<Signature>> signaturePools = new ConcurrentHashMap<>();
+
+    static {
+        registerCipher(ECIES, "ECIES", "BC");
+        registerCipher(AES_GCM, "AES/GCM/NoPadding", null);
+        registerSignature(ECDSA_SHA256, "SHA256withECDSA", null);
+    }
+
+    private CryptoPool() {
+    }
+
+    /*
+     * Register or replace a cipher algorithm
+     * @param name The logical name used by callers
+     * @param transformation The JCA transformation
+     * @param provider The JCA provider name, or null for the default lookup
+     */
+    public static void registerCipher(String name, String transformation, String provider) {
+        cipherPools.put(name, new Pool<>(() -> provider != null
+                ? Cipher.getInstance(transformation, provider)
+                : Cipher.getInstance(transformation)));
+    }
+
+    /*
+     * Register or replace a signature algorithm
+     * @param name The logical name used by callers
+     * @param algorithm The JCA signature algorithm
+     * @param provider The JCA provider name, or null for the default lookup
+     */
+    public static void registerSignature(String name, String algorithm, String provider) {
+        signaturePools.put(name, new Pool<>(() -> provider != null
+                ? Signature.getInstance(algorithm, provider)
+                : Signature.getInstance(algorithm)));
+    }
+
+    public static Cipher borrowCipher(String name) throws GeneralSecurityException {
+        return pool(cipherPools, name).borrow();
+    }
+
+    public static void releaseCipher(String name, Cipher cipher) {
+        pool(cipherPools, name).release(cipher);
+    }
+
+    public static Signature borrowSignature(String name) throws GeneralSecurityException {
+        return pool(signaturePools, name).borrow();
+    }
+
+    public static void releaseSignature(String name, Signature signature) {
+        pool(signaturePools, name).release(signature);
+    }
+
+    // Number of borrows served from a pool
+    public static long getHits() {
+        return cipherPools.values().stream().mapToLong(p -> p.hits.sum()).sum()
+                + signaturePools.values().stream().mapToLong(p -> p.hits.sum()).sum();
+    }
+
+    // Number of borrows that needed a new JCA instance
+    public static long getMisses() {
+        return cipherPools.values().stream().mapToLong(p -> p.misses.sum()).sum()
+                + signaturePools.values().stream().mapToLong(p -> p.misses.sum()).sum();
+    }
+
+    private static <T> Pool<T> pool(Map<String, Pool<T>> pools, String name) {
+        Pool<T> pool = pools.get(name);
+        if (pool == null) {
+            throw new IllegalArgumentException("Unknown crypto algorithm: " + name);
+        }
+        return pool;
+    }
+
+    @FunctionalInterface
+    private interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    /*
+     * Lock-free striped pool: a fixed slot array probed from a per-thread start index
+     */
+    private static final class Pool<T> {
+        private final Factory<T> factory;
+        private final AtomicReferenceArray<T> slots = new AtomicReferenceArray<>(SLOTS);
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        Pool(Factory<T> factory) {
+            this.factory = factory;
+        }
+
+        T borrow() throws GeneralSecurityException {
+            int start = stripe();
+            for (int i = 0; i < PROBES; i++) {
+                int slot = (start + i) & (SLOTS - 1);
+                T instance = slots.get(slot);
+                if (instance != null && slots.compareAndSet(slot, instance, null)) {
+                    hits.increment();
+                    return instance;
+                }
+            }
+            misses.increment();
+            return factory.create();
+        }
+
+        void release(T instance) {
+            int start = stripe();
+            for (int i = 0; i < PROBES; i++) {
+                int slot = (start + i) & (SLOTS - 1);
+                if (slots.get(slot) == null && slots.compareAndSet(slot, null, instance)) {
+                    return;
+                }
+            }
+            // All probed slots are taken, let the instance be collected
+        }
+
+        private static int stripe() {
+            long id = Thread.currentThread().threadId();
+            return (int) (id ^ (id >>> 16)) * 0x9E3779B9 >>> 16;
+        }
+    }
+}
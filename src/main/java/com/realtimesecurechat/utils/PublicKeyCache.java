@@ -0,0 +1,99 @@
+package com.realtimesecurechat.utils;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Decoded EC public keys, shared by every client in the JVM.
+ * Keys are looked up by the SHA-256 fingerprint of their X.509 encoding, so a
+ * peer that asks again costs a Base64 decode and a hash instead of a
+ * KeyFactory.generatePublic. The cache holds a bounded number of keys and
+ * evicts the least recently used. Keys are decoded outside the lock; two
+ * threads missing on the same key both decode it and the later put wins.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.keyCache.maxEntries (default 1024)
+ */
+public final class PublicKeyCache {
+    static final int MAX_ENTRIES = Integer.getInteger("realtimesecurechat.keyCache.maxEntries", 1024);
+
+    // A SHA-256 digest as four longs, compared by value
+    private record Fingerprint(long first, long second, long third, long fourth) {
+    }
+
+    // Access ordered, guarded by lock; a ReentrantLock does not pin virtual threads
+    private static final Map<Fingerprint, PublicKey> keys = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, PublicKey> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private PublicKeyCache() {
+    }
+
+    /*
+     * Decode a Base64 X.509 EC public key, or return the one decoded before
+     * @param publicKeyBase64 The key as sent in protocol messages
+     * @return The decoded key
+     */
+    public static PublicKey decode(String publicKeyBase64) throws GeneralSecurityException {
+        byte[] encodedKey;
+        try {
+            encodedKey = Base64.getDecoder().decode(publicKeyBase64);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Public key is not valid Base64.", e);
+        }
+        Fingerprint fingerprint = fingerprint(encodedKey);
+
+        lock.lock();
+        try {
+            PublicKey cached = keys.get(fingerprint);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        misses.increment();
+        PublicKey decoded = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(encodedKey));
+        lock.lock();
+        try {
+            keys.put(fingerprint, decoded);
+        } finally {
+            lock.unlock();
+        }
+        return decoded;
+    }
+
+    // Lookups answered from the cache
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    // Lookups that had to decode the key
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    // Callers run on virtual threads, so the digest is looked up per call rather than kept per thread
+    private static Fingerprint fingerprint(byte[] encodedKey) throws NoSuchAlgorithmException {
+        ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(encodedKey));
+        return new Fingerprint(digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong());
+    }
+}
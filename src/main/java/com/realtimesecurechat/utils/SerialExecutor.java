@@ -0,0 +1,49 @@
+package com.realtimesecurechat.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Runs tasks one at a time, in submission order, on a delegate executor.
+ * Each SerialExecutor holds at most one task on the delegate at a time, so
+ * many of them can share one executor while each keeps its own ordering.
+ * A failing task is logged and does not stop the tasks queued after it,
+ * whether it throws an exception or an Error.
+ */
+public final class SerialExecutor implements Executor {
+    private final Executor delegate;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        // The submitter that takes the count from zero starts the drain
+        if (pendingTasks.getAndIncrement() == 0) {
+            delegate.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        do {
+            Runnable task = tasks.poll();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // Errors too: leaving the loop early would strand the count above zero and stall every later task
+                AsyncLogger.error("Serial task failed", e);
+            }
+        } while (pendingTasks.decrementAndGet() != 0);
+    }
+
+    // Number of tasks queued or running
+    public int getPendingTasks() {
+        return pendingTasks.get();
+    }
+}
@@ -0,0 +1,201 @@
+package com.realtimesecurechat.utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Symmetric AES-GCM channel negotiated at registration.
+ * The server generates an ephemeral EC key pair, runs ECDH against the
+ * client's registered public key and sends its ephemeral public key in the
+ * registration confirmation. The client runs the same ECDH with its private
+ * key. Both sides expand the shared secret with HKDF-SHA256 into an AES key.
+ *
+ * A resumed session skips the ECDH: its key is expanded from the resumption
+ * token issued with the previous session, salted with a fresh client nonce.
+ * The Resume frame is authenticated with an HMAC under the same token.
+ *
+ * Frame layout (Base64 encoded in text frames, raw in binary frames):
+ *   counter (8 bytes, big endian) | ciphertext | GCM tag
+ * The 12 byte nonce is four zero bytes followed by the counter. Keys are
+ * never reused across sessions, so the counter alone keeps nonces unique.
+ */
+public final class SessionCipher {
+    private static final byte[] HKDF_INFO = "RealTimeSecureChat session key".getBytes(StandardCharsets.UTF_8);
+    private static final int KEY_LENGTH = 32;
+    private static final int NONCE_LENGTH = 12;
+    private static final int COUNTER_LENGTH = 8;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SecretKeySpec key;
+    private final byte[] handshakeKey;
+    private final AtomicLong sendCounter = new AtomicLong();
+    private long lastReceivedCounter = -1;
+
+    private SessionCipher(byte[] keyBytes, byte[] handshakeKey) {
+        this.key = new SecretKeySpec(keyBytes, "AES");
+        this.handshakeKey = handshakeKey;
+    }
+
+    /*
+     * Start a session towards a peer (server side)
+     * @param peerPublicKey The peer's static EC public key
+     * @return The session cipher, whose handshake key must be sent to the peer
+     */
+    public static SessionCipher initiate(PublicKey peerPublicKey) throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(((ECPublicKey) peerPublicKey).getParams());
+        KeyPair ephemeralKeyPair = keyPairGenerator.generateKeyPair();
+
+        byte[] ephemeralPublicKey = ephemeralKeyPair.getPublic().getEncoded();
+        byte[] sessionKey = deriveKey(ephemeralKeyPair.getPrivate(), peerPublicKey, ephemeralPublicKey);
+        return new SessionCipher(sessionKey, ephemeralPublicKey);
+    }
+
+    /*
+     * Accept a session started by a peer (client side)
+     * @param privateKey The own static EC private key
+     * @param handshakeKeyBase64 The peer's ephemeral public key as received
+     * @return The session cipher
+     */
+    public static SessionCipher accept(PrivateKey privateKey, String handshakeKeyBase64) throws GeneralSecurityException {
+        byte[] ephemeralPublicKey = Base64.getDecoder().decode(handshakeKeyBase64);
+        PublicKey peerPublicKey = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(ephemeralPublicKey));
+        return new SessionCipher(deriveKey(privateKey, peerPublicKey, ephemeralPublicKey), ephemeralPublicKey);
+    }
+
+    /*
+     * Resume a session from a resumption token (both sides)
+     * @param resumptionSecret The decoded resumption token
+     * @param clientNonce The client's fresh nonce, never reused with the same token
+     * @return The session cipher
+     */
+    public static SessionCipher resume(byte[] resumptionSecret, byte[] clientNonce) throws GeneralSecurityException {
+        return new SessionCipher(expandKey(clientNonce, resumptionSecret), clientNonce);
+    }
+
+    /*
+     * HMAC-SHA256 of a payload range under a resumption token
+     * @param resumptionSecret The decoded resumption token
+     * @return The MAC sent in place of the envelope signature
+     */
+    public static byte[] authenticate(byte[] resumptionSecret, byte[] payload, int offset, int length) throws GeneralSecurityException {
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec(resumptionSecret, "HmacSHA256"));
+        hmac.update(payload, offset, length);
+        return hmac.doFinal();
+    }
+
+    // Base64 ephemeral public key to hand to the peer
+    public String getHandshakeKey() {
+        return Base64.getEncoder().encodeToString(handshakeKey);
+    }
+
+    /*
+     * Encrypt a message under the next counter value
+     * Callers must send frames in the order they were encrypted.
+     * @param plainText The message to encrypt
+     * @return The Base64 encoded frame
+     */
+    public String encrypt(String plainText) throws GeneralSecurityException {
+        return Base64.getEncoder().encodeToString(encryptBytes(plainText.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /*
+     * Encrypt a message under the next counter value, for binary frames
+     * @param plainBytes The message bytes
+     * @return The raw frame
+     */
+    public byte[] encryptBytes(byte[] plainBytes) throws GeneralSecurityException {
+        long counter = sendCounter.getAndIncrement();
+        Cipher cipher = CryptoPool.borrowCipher(CryptoPool.AES_GCM);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, nonce(counter)));
+
+            byte[] frame = new byte[COUNTER_LENGTH + cipher.getOutputSize(plainBytes.length)];
+            ByteBuffer.wrap(frame).putLong(counter);
+            cipher.doFinal(plainBytes, 0, plainBytes.length, frame, COUNTER_LENGTH);
+            return frame;
+        } finally {
+            CryptoPool.releaseCipher(CryptoPool.AES_GCM, cipher);
+        }
+    }
+
+    /*
+     * Decrypt a frame, rejecting replayed or reordered counters
+     * @param encodedFrame The Base64 encoded frame
+     * @return The decrypted message
+     */
+    public String decrypt(String encodedFrame) throws GeneralSecurityException {
+        return new String(decryptBytes(Base64.getDecoder().decode(encodedFrame)), StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Decrypt a raw frame from a binary message, rejecting replayed or reordered counters
+     * Text and binary frames share one counter sequence.
+     * @param frame The raw frame
+     * @return The decrypted message bytes
+     */
+    public synchronized byte[] decryptBytes(byte[] frame) throws GeneralSecurityException {
+        if (frame.length < COUNTER_LENGTH) {
+            throw new GeneralSecurityException("Session frame too short.");
+        }
+        long counter = ByteBuffer.wrap(frame).getLong();
+        if (counter <= lastReceivedCounter) {
+            throw new GeneralSecurityException("Replayed or reordered session frame: " + counter);
+        }
+
+        Cipher cipher = CryptoPool.borrowCipher(CryptoPool.AES_GCM);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, nonce(counter)));
+            byte[] plainBytes = cipher.doFinal(frame, COUNTER_LENGTH, frame.length - COUNTER_LENGTH);
+            lastReceivedCounter = counter;
+            return plainBytes;
+        } finally {
+            CryptoPool.releaseCipher(CryptoPool.AES_GCM, cipher);
+        }
+    }
+
+    private static byte[] nonce(long counter) {
+        return ByteBuffer.allocate(NONCE_LENGTH).putInt(0).putLong(counter).array();
+    }
+
+    /*
+     * ECDH followed by HKDF-SHA256 (RFC 5869), salted with the ephemeral public key
+     */
+    private static byte[] deriveKey(PrivateKey privateKey, PublicKey publicKey, byte[] salt) throws GeneralSecurityException {
+        KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
+        keyAgreement.init(privateKey);
+        keyAgreement.doPhase(publicKey, true);
+        return expandKey(salt, keyAgreement.generateSecret());
+    }
+
+    // HKDF-SHA256 extract and expand to one AES key
+    private static byte[] expandKey(byte[] salt, byte[] inputKeyMaterial) throws GeneralSecurityException {
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        byte[] pseudoRandomKey = hmac.doFinal(inputKeyMaterial);
+
+        hmac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+        hmac.update(HKDF_INFO);
+        hmac.update((byte) 1);
+        byte[] okm = hmac.doFinal();
+        byte[] sessionKey = new byte[KEY_LENGTH];
+        System.arraycopy(okm, 0, sessionKey, 0, KEY_LENGTH);
+        return sessionKey;
+    }
+}
@@ -0,0 +1,114 @@
+package com.realtimesecurechat.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/*
+ * Signed message envelope shared by client and server.
+ * Frame layout:
+ *   base64(signature) '.' payload
+ * The signature covers exactly the payload bytes as they were sent, so the
+ * receiver verifies the bytes it got and parses the payload only once.
+ * '.' is not part of the Base64 alphabet, so the first one ends the header.
+ *
+ * Binary frames (binary wire format) carry the signature raw:
+ *   signature length (2 bytes, big endian) | signature | payload
+ */
+public final class SignedEnvelope {
+    public static final char SEPARATOR = '.';
+
+    private final byte[] frame;
+    private final byte[] signature;
+    private final int payloadOffset;
+
+    private SignedEnvelope(byte[] frame, byte[] signature, int payloadOffset) {
+        this.frame = frame;
+        this.signature = signature;
+        this.payloadOffset = payloadOffset;
+    }
+
+    /*
+     * Build a frame from a signature and the payload it covers
+     * @param signature The raw signature bytes
+     * @param payload The signed payload
+     * @return The frame to send
+     */
+    public static String encode(byte[] signature, String payload) {
+        return Base64.getEncoder().encodeToString(signature) + SEPARATOR + payload;
+    }
+
+    /*
+     * Split a received frame into signature and payload range
+     * @param frame The UTF-8 bytes of the received frame
+     * @return The envelope, or null if the frame is not a valid envelope
+     */
+    public static SignedEnvelope parse(byte[] frame) {
+        int separator = -1;
+        for (int i = 0; i < frame.length; i++) {
+            if (frame[i] == SEPARATOR) {
+                separator = i;
+                break;
+            }
+        }
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            byte[] signature = Base64.getDecoder().decode(Arrays.copyOf(frame, separator));
+            return new SignedEnvelope(frame, signature, separator + 1);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static SignedEnvelope parse(String frame) {
+        return parse(frame.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * Build a binary frame from a signature and the payload it covers
+     * @param signature The raw signature bytes
+     * @param payload The signed payload bytes
+     * @return The frame to send, ready to be read
+     */
+    public static ByteBuffer encodeBinary(byte[] signature, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(2 + signature.length + payload.length);
+        frame.putShort((short) signature.length).put(signature).put(payload);
+        return frame.flip();
+    }
+
+    /*
+     * Split a received binary frame into signature and payload range
+     * @param frame The received frame bytes
+     * @return The envelope, or null if the frame is not a valid binary envelope
+     */
+    public static SignedEnvelope parseBinary(byte[] frame) {
+        if (frame.length < 2) {
+            return null;
+        }
+        int signatureLength = ((frame[0] & 0xff) << 8) | (frame[1] & 0xff);
+        if (signatureLength == 0 || 2 + signatureLength > frame.length) {
+            return null;
+        }
+        return new SignedEnvelope(frame, Arrays.copyOfRange(frame, 2, 2 + signatureLength), 2 + signatureLength);
+    }
+
+    public byte[] getSignature() {
+        return signature;
+    }
+
+    // The payload is frame[payloadOffset, payloadOffset + payloadLength)
+    public byte[] getFrame() {
+        return frame;
+    }
+
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    public int getPayloadLength() {
+        return frame.length - payloadOffset;
+    }
+}
@@ -0,0 +1,36 @@
+package com.realtimesecurechat.utils;
+
+import jakarta.websocket.Extension;
+import org.glassfish.tyrus.ext.extension.deflate.PerMessageDeflateExtension;
+
+import java.util.List;
+
+/*
+ * permessage-deflate (RFC 7692) for the signaling connections, on Tyrus.
+ * The client offers the extension and the server accepts it, so it is only
+ * used when both sides have it enabled; either side turning it off falls
+ * back to uncompressed frames. The extension keeps its per-connection state
+ * in the connection's extension context, so one instance serves every
+ * connection.
+ *
+ * Frames are mostly Base64 ciphertext, which deflate brings back towards its
+ * raw size, plus the JSON around it. Connection details are compacted before
+ * encryption by ConnectionDetailsCodec, as nothing compresses them after.
+ *
+ * Configuration (system properties):
+ *   realtimesecurechat.compression (default true)
+ */
+public final class WebSocketCompression {
+    public static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("realtimesecurechat.compression", "true"));
+
+    private static final Extension perMessageDeflate = new PerMessageDeflateExtension();
+
+    private WebSocketCompression() {
+    }
+
+    // Extensions to offer or accept, empty when compression is disabled
+    public static List<Extension> extensions() {
+        return ENABLED ? List.of(perMessageDeflate) : List.of();
+    }
+}
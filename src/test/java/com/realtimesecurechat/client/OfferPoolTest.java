@@ -0,0 +1,159 @@
+package com.realtimesecurechat.client;
+
+import com.realtimesecurechat.loadtest.StubGoSidecar;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OfferPoolTest {
+    private final RecordingSidecar sidecar = new RecordingSidecar();
+    private OfferPool pool;
+
+    // The stub sidecar, recording what the pool asks of it; it only binds offers it still has
+    private static final class RecordingSidecar extends StubGoSidecar {
+        final List<String> gathered = new CopyOnWriteArrayList<>();
+        final List<String> released = new CopyOnWriteArrayList<>();
+        final List<String> gatheredOnDemand = new CopyOnWriteArrayList<>();
+        final Map<String, String> bound = new ConcurrentHashMap<>();
+        final Set<String> known = ConcurrentHashMap.newKeySet();
+        volatile boolean gatheringFails;
+
+        @Override
+        public CompletableFuture<String> requestConnectionInfo(String peerUserId) {
+            gatheredOnDemand.add(peerUserId);
+            return CompletableFuture.completedFuture("on-demand:" + peerUserId);
+        }
+
+        @Override
+        public CompletableFuture<Offer> gatherOffer() {
+            if (gatheringFails) {
+                return CompletableFuture.failedFuture(new IllegalStateException("sidecar down"));
+            }
+            return super.gatherOffer().thenApply(offer -> {
+                gathered.add(offer.offerId());
+                known.add(offer.offerId());
+                return offer;
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> bindOffer(String offerId, String peerUserId) {
+            if (!known.remove(offerId)) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Unknown offer or missing peer"));
+            }
+            bound.put(offerId, peerUserId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> releaseOffer(String offerId) {
+            known.remove(offerId);
+            released.add(offerId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // A restarted sidecar has lost every offer it gathered
+        void restart() {
+            known.clear();
+        }
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition, String description) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting until " + description);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void aPooledOfferIsBoundToThePeerAndReplaced() {
+        pool = new OfferPool(sidecar, 2, 60_000);
+        pool.reset();
+        assertEquals(2, sidecar.gathered.size());
+
+        assertEquals(StubGoSidecar.CONNECTION_DETAILS, pool.take("bob").join());
+        assertEquals(Map.of(sidecar.gathered.get(0), "bob"), sidecar.bound);
+        assertEquals(3, sidecar.gathered.size());
+        assertEquals(List.of(), sidecar.gatheredOnDemand);
+    }
+
+    @Test
+    void anOfferTheSidecarLostIsGatheredOnDemand() {
+        pool = new OfferPool(sidecar, 2, 60_000);
+        pool.reset();
+        sidecar.restart();
+
+        assertEquals("on-demand:bob", pool.take("bob").join());
+        assertEquals(Map.of(), sidecar.bound);
+    }
+
+    @Test
+    void aReconnectDropsTheOldOffersAndRefills() {
+        pool = new OfferPool(sidecar, 2, 60_000);
+        pool.reset();
+        sidecar.restart();
+        pool.reset();
+        assertEquals(4, sidecar.gathered.size());
+
+        assertEquals(StubGoSidecar.CONNECTION_DETAILS, pool.take("bob").join());
+        assertEquals(Map.of(sidecar.gathered.get(2), "bob"), sidecar.bound);
+        // The old offers went with the old sidecar, there is nothing to release
+        assertEquals(List.of(), sidecar.released);
+    }
+
+    @Test
+    void closingThePoolReleasesItsOffers() {
+        pool = new OfferPool(sidecar, 2, 60_000);
+        pool.reset();
+        pool.take("bob").join();
+
+        pool.close();
+        assertEquals(List.of(sidecar.gathered.get(1), sidecar.gathered.get(2)), sidecar.released);
+        assertEquals(Set.of(), sidecar.known);
+    }
+
+    @Test
+    void staleOffersAreReleasedAndReplaced() throws InterruptedException {
+        pool = new OfferPool(sidecar, 2, 100);
+        pool.reset();
+        List<String> first = List.copyOf(sidecar.gathered);
+
+        awaitUntil(() -> sidecar.released.containsAll(first), "the first offers are released");
+        awaitUntil(() -> sidecar.gathered.size() >= 4, "replacements are gathered");
+        // The pool holds only replacements, none of the stale offers
+        awaitUntil(() -> sidecar.known.size() == 2, "the pool is full again");
+        assertFalse(sidecar.known.stream().anyMatch(first::contains));
+    }
+
+    @Test
+    void failedGatheringFallsBackAndIsRetried() throws InterruptedException {
+        sidecar.gatheringFails = true;
+        pool = new OfferPool(sidecar, 2, 400);
+        pool.reset();
+        assertEquals("on-demand:bob", pool.take("bob").join());
+
+        // Failed gatherings give their slots back, the expiry pass fills the pool once the sidecar recovers
+        sidecar.gatheringFails = false;
+        awaitUntil(() -> sidecar.gathered.size() >= 2, "the pool is refilled");
+        assertEquals(StubGoSidecar.CONNECTION_DETAILS, pool.take("carol").join());
+        assertEquals(List.of("bob"), sidecar.gatheredOnDemand);
+    }
+}
@@ -0,0 +1,102 @@
+package com.realtimesecurechat.client;
+
+import com.realtimesecurechat.client.PeerNegotiations.Negotiation;
+import com.realtimesecurechat.client.PeerNegotiations.State;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeerNegotiationsTest {
+
+    @Test
+    void racingTransitionsLeaveExactlyOneWinner() throws Exception {
+        PeerNegotiations negotiations = new PeerNegotiations();
+        try (ExecutorService callbacks = Executors.newFixedThreadPool(3)) {
+            for (int round = 0; round < 2000; round++) {
+                Negotiation negotiation = negotiations.begin("bob" + round, State.REQUESTED, null);
+                CountDownLatch start = new CountDownLatch(1);
+                // The user approving, the user rejecting and the client closing, all at once
+                Callable<Boolean> approve = () -> {
+                    start.await();
+                    return negotiation.transition(State.REQUESTED, State.GATHERING)
+                            && negotiation.transition(State.GATHERING, State.APPROVED);
+                };
+                Callable<Boolean> reject = () -> {
+                    start.await();
+                    return negotiation.transition(State.REQUESTED, State.REJECTED);
+                };
+                Callable<Boolean> fail = () -> {
+                    start.await();
+                    return negotiation.fail(State.FAILED);
+                };
+                List<Future<Boolean>> results = List.of(callbacks.submit(approve), callbacks.submit(reject), callbacks.submit(fail));
+                start.countDown();
+
+                int winners = 0;
+                for (Future<Boolean> result : results) {
+                    winners += result.get() ? 1 : 0;
+                }
+                assertEquals(1, winners, "round " + round + " ended in " + negotiation.getState());
+                assertTrue(negotiation.getState().isTerminal());
+                assertNull(negotiations.get("bob" + round));
+            }
+        }
+        assertEquals(0, negotiations.size());
+    }
+
+    @Test
+    void aStalledNegotiationTimesOutAndLeavesTheRegistry() throws InterruptedException {
+        PeerNegotiations negotiations = new PeerNegotiations(50);
+        Negotiation negotiation = negotiations.begin("bob", State.REQUEST_SENT, null);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (negotiation.getState() != State.TIMED_OUT) {
+            assertTrue(System.nanoTime() < deadline, "negotiation never timed out");
+            Thread.sleep(10);
+        }
+        assertNull(negotiations.get("bob"));
+        assertEquals(0, negotiations.size());
+        // A late approval finds nothing to advance, and a new request can start over
+        assertFalse(negotiation.transition(State.REQUEST_SENT, State.CONNECTING));
+        assertNotNull(negotiations.begin("bob", State.REQUEST_SENT, null));
+    }
+
+    @Test
+    void aFinishedNegotiationIsNotTimedOut() throws InterruptedException {
+        PeerNegotiations negotiations = new PeerNegotiations(50);
+        Negotiation negotiation = negotiations.begin("bob", State.REQUEST_SENT, null);
+        assertTrue(negotiation.transition(State.REQUEST_SENT, State.CONNECTING));
+        assertTrue(negotiation.transition(State.CONNECTING, State.CONNECTED));
+
+        Thread.sleep(200);
+        assertEquals(State.CONNECTED, negotiation.getState());
+        assertEquals(0, negotiations.size());
+    }
+
+    @Test
+    void onePeerHasOneNegotiationAtATime() {
+        PeerNegotiations negotiations = new PeerNegotiations();
+        Negotiation bob = negotiations.begin("bob", State.REQUESTED, null);
+        assertNull(negotiations.begin("bob", State.REQUEST_SENT, null));
+        assertSame(bob, negotiations.get("bob"));
+        Negotiation carol = negotiations.begin("carol", State.REQUEST_SENT, null);
+
+        negotiations.failAll();
+        assertEquals(State.FAILED, bob.getState());
+        assertEquals(State.FAILED, carol.getState());
+        assertEquals(0, negotiations.size());
+    }
+}
@@ -0,0 +1,81 @@
+package com.realtimesecurechat.server;
+
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientRegistryTest {
+    private final InMemoryPresenceDirectory presenceDirectory = new InMemoryPresenceDirectory();
+    private final ClientRegistry registry = new ClientRegistry(Runnable::run, presenceDirectory);
+
+    // A session that only carries its ID and user properties, nothing is sent in these tests
+    private static Session session(String id) {
+        Map<String, Object> userProperties = new HashMap<>();
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "getUserProperties" -> userProperties;
+                    case "isOpen" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+
+    @Test
+    void aConnectionChangingIdentityLeavesThePreviousUserOffline() {
+        ClientConnection connection = registry.open(session("1"));
+        assertTrue(registry.register(connection, "mallory", null));
+        assertTrue(registry.getPendingRequests().add("mallory", "bob"));
+
+        assertTrue(registry.register(connection, "alice", null));
+        assertNull(registry.findByUserId("mallory"));
+        assertNull(presenceDirectory.findNode("mallory"));
+        assertFalse(registry.getPendingRequests().contains("mallory", "bob"));
+        assertSame(connection, registry.findByUserId("alice"));
+        assertEquals(1, registry.getRegisteredUsers());
+    }
+
+    @Test
+    void aDisplacedConnectionLosesItsIdentity() {
+        ClientConnection first = registry.open(session("1"));
+        ClientConnection second = registry.open(session("2"));
+        assertTrue(registry.register(first, "alice", null));
+        first.setResumptionSecret(new byte[32]);
+        assertTrue(registry.register(second, "alice", null));
+
+        assertFalse(first.isRegistered());
+        assertNull(first.getVerificationContext());
+        assertNull(first.getResumptionSecret());
+        assertSame(second, registry.findByUserId("alice"));
+
+        // Closing the displaced connection leaves the user with its new one
+        assertTrue(registry.close(first));
+        assertSame(second, registry.findByUserId("alice"));
+        assertEquals(InMemoryPresenceDirectory.LOCAL_NODE_ID, presenceDirectory.findNode("alice"));
+        assertEquals(0, registry.getResumption().getParkedSessions());
+    }
+
+    @Test
+    void aDisplacedConnectionRegisteringAgainKeepsItsNewIdentity() {
+        ClientConnection first = registry.open(session("1"));
+        ClientConnection second = registry.open(session("2"));
+        assertTrue(registry.register(first, "alice", null));
+        assertTrue(registry.register(second, "alice", null));
+        assertTrue(registry.register(first, "carol", null));
+
+        assertSame(first, registry.findByUserId("carol"));
+        assertSame(second, registry.findByUserId("alice"));
+        assertEquals(InMemoryPresenceDirectory.LOCAL_NODE_ID, presenceDirectory.findNode("alice"));
+        assertEquals(2, registry.getRegisteredUsers());
+    }
+}
@@ -0,0 +1,231 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.client.WebSocketClient;
+import com.realtimesecurechat.loadtest.StubGoSidecar;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Three ServerLauncher nodes on localhost, each in its own JVM since routing
+ * state is static in WebSocketServer. Users register on different nodes and
+ * their requests and approvals are routed between the nodes. The nodes' view
+ * of presence is read from their metrics.
+ */
+class ClusterIntegrationTest {
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<WebSocketClient> clients = new ArrayList<>();
+    private final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    // One node's JVM, with its output kept to wait for log lines
+    private record Node(Process process, int serverPort, int metricsPort, List<String> output) {
+        URI endpoint() {
+            return URI.create("ws://localhost:" + serverPort + "/ws/chat");
+        }
+
+        boolean logged(String text) {
+            synchronized (output) {
+                return output.stream().anyMatch(line -> line.contains(text));
+            }
+        }
+    }
+
+    // Signaling events of one client
+    private static class ClientEvents implements WebSocketClient.Listener {
+        final CompletableFuture<String> registered = new CompletableFuture<>();
+        final CompletableFuture<String> requested = new CompletableFuture<>();
+        final CompletableFuture<String> approved = new CompletableFuture<>();
+        volatile String approvedDetails;
+
+        @Override
+        public void onRegistered(String userId) {
+            registered.complete(userId);
+        }
+
+        @Override
+        public void onConnectionRequest(String requesterUserId) {
+            requested.complete(requesterUserId);
+        }
+
+        @Override
+        public void onApproval(String approverUserId, String connectionDetails) {
+            approvedDetails = connectionDetails;
+            approved.complete(approverUserId);
+        }
+    }
+
+    @AfterEach
+    void stopCluster() throws InterruptedException {
+        clients.forEach(WebSocketClient::close);
+        for (Node node : nodes) {
+            node.process().destroy();
+        }
+        for (Node node : nodes) {
+            if (!node.process().waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                node.process().destroyForcibly();
+            }
+        }
+    }
+
+    @Test
+    void requestsAndApprovalsAreRoutedBetweenNodes() throws Exception {
+        startCluster(3);
+        ClientEvents alice = connect("alice", nodes.get(0));
+        ClientEvents bob = connect("bob", nodes.get(1));
+        ClientEvents carol = connect("carol", nodes.get(2));
+        awaitPresence(3);
+
+        clients.get(0).requestConnection("bob");
+        assertEquals("alice", bob.requested.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("bob", alice.approved.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(StubGoSidecar.CONNECTION_DETAILS, alice.approvedDetails);
+
+        clients.get(2).requestConnection("alice");
+        assertEquals("carol", alice.requested.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("alice", carol.approved.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(StubGoSidecar.CONNECTION_DETAILS, carol.approvedDetails);
+    }
+
+    @Test
+    void presenceConvergesWhenANodeLeavesAndComesBack() throws Exception {
+        int[] clusterPorts = startCluster(3);
+        connect("alice", nodes.get(0));
+        connect("bob", nodes.get(1));
+        connect("carol", nodes.get(2));
+        awaitPresence(3);
+
+        // The other nodes forget carol once the links from her node drop
+        Node carolsNode = nodes.get(2);
+        carolsNode.process().destroy();
+        assertTrue(carolsNode.process().waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitUntil(() -> knownUsers(nodes.get(0)) == 2 && knownUsers(nodes.get(1)) == 2, "nodes still know carol");
+
+        // A node started in its place learns the cluster's users and announces its own
+        nodes.set(2, startNode(clusterPorts, 2));
+        ClientEvents dave = connect("dave", nodes.get(2));
+        awaitPresence(3);
+
+        clients.get(0).requestConnection("dave");
+        assertEquals("alice", dave.requested.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    // Start the nodes, returning the cluster port of each
+    private int[] startCluster(int size) throws IOException, InterruptedException {
+        int[] clusterPorts = freePorts(size);
+        for (int i = 0; i < size; i++) {
+            nodes.add(startNode(clusterPorts, i));
+        }
+        return clusterPorts;
+    }
+
+    private Node startNode(int[] clusterPorts, int index) throws IOException, InterruptedException {
+        int[] ports = freePorts(2);
+        String peers = IntStream.of(clusterPorts).mapToObj(port -> "localhost:" + port).collect(Collectors.joining(","));
+        Process process = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                "-Drealtimesecurechat.server.port=" + ports[0],
+                "-Drealtimesecurechat.metrics.port=" + ports[1],
+                "-Drealtimesecurechat.cluster.port=" + clusterPorts[index],
+                "-Drealtimesecurechat.cluster.peers=" + peers,
+                ServerLauncher.class.getName())
+                .redirectErrorStream(true)
+                .start();
+        Node node = new Node(process, ports[0], ports[1], new ArrayList<>());
+        Thread.ofVirtual().start(() -> collectOutput(node));
+        awaitUntil(() -> node.logged("Metrics available"), "node " + index + " did not start");
+        return node;
+    }
+
+    private ClientEvents connect(String userId, Node node) throws Exception {
+        ClientEvents events = new ClientEvents();
+        clients.add(new WebSocketClient(container, node.endpoint(), userId, new StubGoSidecar(), events));
+        assertEquals(userId, events.registered.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return events;
+    }
+
+    // Every node knows every user, so requests sent from now on are routed
+    private void awaitPresence(int users) throws InterruptedException {
+        for (Node node : nodes) {
+            awaitUntil(() -> knownUsers(node) == users, "node on port " + node.serverPort() + " does not know " + users + " users");
+        }
+    }
+
+    private long knownUsers(Node node) {
+        try {
+            HttpResponse<String> response = httpClient.send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + node.metricsPort() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            return response.body().lines()
+                    .filter(line -> line.startsWith("realtimesecurechat_cluster_known_users "))
+                    .mapToLong(line -> (long) Double.parseDouble(line.substring(line.indexOf(' ') + 1)))
+                    .findFirst()
+                    .orElse(-1);
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private static void collectOutput(Node node) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(node.process().getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                synchronized (node.output()) {
+                    node.output().add(line);
+                }
+            }
+        } catch (IOException e) {
+            // The node exited
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition, String failure) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, failure);
+            Thread.sleep(50);
+        }
+    }
+
+    private static int[] freePorts(int count) throws IOException {
+        List<ServerSocket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                sockets.add(new ServerSocket(0));
+            }
+            return sockets.stream().mapToInt(ServerSocket::getLocalPort).toArray();
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.realtimesecurechat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Two directories linked by ClusterTransport in one JVM. The link from node A
+ * to node B runs through a proxy, so the test can drop it while both nodes
+ * keep running.
+ */
+class ClusterPresenceDirectoryTest {
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private LinkProxy proxy;
+
+    // Forwards the connections it accepts to a target port, until they are dropped
+    private static final class LinkProxy {
+        private final int port;
+        private final int targetPort;
+        private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+        private volatile ServerSocket serverSocket;
+
+        LinkProxy(int port, int targetPort) {
+            this.port = port;
+            this.targetPort = targetPort;
+        }
+
+        void start() throws IOException {
+            ServerSocket listening = new ServerSocket();
+            listening.setReuseAddress(true);
+            listening.bind(new InetSocketAddress("localhost", port));
+            serverSocket = listening;
+            Thread.ofVirtual().start(() -> {
+                while (true) {
+                    Socket inbound;
+                    try {
+                        inbound = listening.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    try {
+                        Socket outbound = new Socket("localhost", targetPort);
+                        sockets.add(inbound);
+                        sockets.add(outbound);
+                        Thread.ofVirtual().start(() -> pump(inbound, outbound));
+                        Thread.ofVirtual().start(() -> pump(outbound, inbound));
+                    } catch (IOException e) {
+                        // The target is not listening yet, the dialling node tries again
+                        close(inbound);
+                    }
+                }
+            });
+        }
+
+        // Stop accepting and close every forwarded connection
+        void stop() throws IOException {
+            serverSocket.close();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            sockets.clear();
+        }
+
+        private static void close(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+
+        private static void pump(Socket from, Socket to) {
+            try (InputStream input = from.getInputStream(); OutputStream output = to.getOutputStream()) {
+                input.transferTo(output);
+            } catch (IOException e) {
+                // Dropped by stop()
+            }
+        }
+    }
+
+    @AfterEach
+    void stopProxy() throws IOException {
+        if (proxy != null) {
+            proxy.stop();
+        }
+    }
+
+    @Test
+    void presenceConvergesAfterALinkDrops() throws Exception {
+        int[] ports = freePorts(3);
+        String nodeA = "localhost:" + ports[0];
+        // Node B is known by the proxy's address, which is what node A dials
+        String nodeB = "localhost:" + ports[2];
+        proxy = new LinkProxy(ports[2], ports[1]);
+        proxy.start();
+
+        ClusterPresenceDirectory directoryA = startNode(nodeA, ports[0], nodeB);
+        ClusterPresenceDirectory directoryB = startNode(nodeB, ports[1], nodeA);
+
+        directoryA.register("alice");
+        directoryB.register("bob");
+        awaitUntil(() -> nodeA.equals(directoryB.findNode("alice")) && nodeB.equals(directoryA.findNode("bob")),
+                "users were not replicated");
+
+        // Node B forgets node A's users once the link drops
+        proxy.stop();
+        awaitUntil(() -> directoryB.findNode("alice") == null, "node B still knows alice");
+        assertEquals(nodeB, directoryA.findNode("bob"));
+
+        // Node A has nothing to send, it still notices the drop, dials again and announces alice
+        proxy.start();
+        awaitUntil(() -> nodeA.equals(directoryB.findNode("alice")), "node B did not learn alice again");
+
+        // Changes on node A while the link is down reach node B once it is back
+        proxy.stop();
+        awaitUntil(() -> directoryB.findNode("alice") == null, "node B still knows alice");
+        directoryA.register("carol");
+        directoryA.unregister("alice");
+        proxy.start();
+        awaitUntil(() -> nodeA.equals(directoryB.findNode("carol")), "node B did not learn carol");
+        assertNull(directoryB.findNode("alice"));
+        assertEquals(2, directoryB.size());
+    }
+
+    @Test
+    void laterRegistrationOwnsAUserOnEveryNode() throws Exception {
+        int[] ports = freePorts(2);
+        String nodeA = "localhost:" + ports[0];
+        String nodeB = "localhost:" + ports[1];
+        ClusterPresenceDirectory directoryA = startNode(nodeA, ports[0], nodeB);
+        ClusterPresenceDirectory directoryB = startNode(nodeB, ports[1], nodeA);
+
+        directoryA.register("alice");
+        awaitUntil(() -> nodeA.equals(directoryB.findNode("alice")), "alice was not replicated");
+
+        // Alice moves to node B, both nodes settle on it and the offline from node A does not undo it
+        directoryB.register("alice");
+        directoryA.unregister("alice");
+        awaitUntil(() -> nodeB.equals(directoryA.findNode("alice")), "node A did not see alice move");
+        assertEquals(nodeB, directoryB.findNode("alice"));
+    }
+
+    private static ClusterPresenceDirectory startNode(String nodeId, int port, String peerNodeId) throws IOException {
+        ClusterTransport transport = new ClusterTransport(nodeId, new InetSocketAddress("localhost", port), List.of(peerNodeId));
+        ClusterPresenceDirectory directory = new ClusterPresenceDirectory(transport);
+        transport.addListener(directory);
+        transport.start();
+        return directory;
+    }
+
+    private static void awaitUntil(BooleanSupplier condition, String failure) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, failure);
+            Thread.sleep(20);
+        }
+    }
+
+    private static int[] freePorts(int count) throws IOException {
+        ServerSocket[] sockets = new ServerSocket[count];
+        try {
+            int[] ports = new int[count];
+            for (int i = 0; i < count; i++) {
+                sockets[i] = new ServerSocket(0);
+                ports[i] = sockets[i].getLocalPort();
+            }
+            return ports;
+        } finally {
+            for (ServerSocket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
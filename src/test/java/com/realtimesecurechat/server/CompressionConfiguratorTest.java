@@ -0,0 +1,65 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.utils.WebSocketCompression;
+import jakarta.websocket.ClientEndpointConfig;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.Extension;
+import jakarta.websocket.Session;
+import jakarta.websocket.WebSocketContainer;
+import org.glassfish.tyrus.server.Server;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressionConfiguratorTest {
+    private static Server server;
+    private static URI endpointUri;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = ServerLauncher.start("localhost", port);
+        endpointUri = URI.create("ws://localhost:" + port + "/ws/chat");
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop();
+    }
+
+    private static List<String> negotiatedExtensions(List<Extension> offered) throws Exception {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        ClientEndpointConfig config = ClientEndpointConfig.Builder.create().extensions(offered).build();
+        try (Session session = container.connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+            }
+        }, config, endpointUri)) {
+            return session.getNegotiatedExtensions().stream().map(Extension::getName).toList();
+        }
+    }
+
+    @Test
+    void permessageDeflateIsNegotiatedWhenTheClientOffersIt() throws Exception {
+        assertTrue(WebSocketCompression.ENABLED);
+        assertEquals(List.of("permessage-deflate"), negotiatedExtensions(WebSocketCompression.extensions()));
+    }
+
+    @Test
+    void aClientThatOffersNothingGetsUncompressedFrames() throws Exception {
+        assertEquals(List.of(), negotiatedExtensions(List.of()));
+    }
+}
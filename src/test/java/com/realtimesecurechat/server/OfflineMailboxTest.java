@@ -0,0 +1,175 @@
+package com.realtimesecurechat.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OfflineMailboxTest {
+
+    @TempDir
+    Path directory;
+
+    private static String key(String requester, int length) {
+        return (requester + "-key-").repeat(length / (requester.length() + 5) + 1).substring(0, length);
+    }
+
+    private static void write(Path path, long position, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(bytes, position);
+        }
+    }
+
+    @Test
+    void depositsAndDrainsAreReplayedAfterReopen() throws IOException {
+        Path path = directory.resolve("mailbox");
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("alice", "bob", key("bob", 91)));
+            assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("alice", "carol", key("carol", 91)));
+            assertEquals(OfflineMailbox.Deposit.ALREADY_QUEUED, mailbox.deposit("alice", "bob", key("bob", 91)));
+            assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("dave", "bob", key("bob", 91)));
+            assertEquals(List.of(new OfflineMailbox.Letter("bob", key("bob", 91))), mailbox.drain("dave"));
+        }
+
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(2, mailbox.size());
+            assertEquals(List.of(), mailbox.drain("dave"));
+            assertEquals(List.of(new OfflineMailbox.Letter("bob", key("bob", 91)), new OfflineMailbox.Letter("carol", key("carol", 91))),
+                    mailbox.drain("alice"));
+        }
+
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(0, mailbox.size());
+        }
+    }
+
+    @Test
+    void tornTailRecordIsDiscarded() throws IOException {
+        Path path = directory.resolve("mailbox");
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            mailbox.deposit("alice", "bob", key("bob", 91));
+        }
+        long end = Files.size(path);
+
+        // A crash after the length of the next record reached the file but before all of its body did
+        write(path, end, ByteBuffer.allocate(20).putInt(100).putInt(0x12345678).put((byte) 1).flip());
+
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(1, mailbox.size());
+            assertEquals(end, Files.size(path));
+            assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("alice", "carol", key("carol", 91)));
+        }
+
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(2, mailbox.size());
+        }
+    }
+
+    @Test
+    void corruptRecordDiscardsTheRestOfTheLog() throws IOException {
+        Path path = directory.resolve("mailbox");
+        long carolOffset;
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            mailbox.deposit("alice", "bob", key("bob", 91));
+            carolOffset = Files.size(path);
+            mailbox.deposit("alice", "carol", key("carol", 91));
+            mailbox.deposit("dave", "erin", key("erin", 91));
+        }
+
+        // Flip a byte of carol's public key, its CRC no longer matches
+        write(path, carolOffset + 60, ByteBuffer.wrap(new byte[]{(byte) 0xEE}));
+
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(1, mailbox.size());
+            assertEquals(carolOffset, Files.size(path));
+            assertEquals(List.of(new OfflineMailbox.Letter("bob", key("bob", 91))), mailbox.drain("alice"));
+            assertEquals(List.of(), mailbox.drain("dave"));
+        }
+    }
+
+    @Test
+    void mailboxesAndRequestersAreCapped() throws IOException {
+        Path path = directory.resolve("mailbox");
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            for (int i = 0; i < OfflineMailbox.MAX_PER_USER; i++) {
+                assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("alice", "requester" + i, key("r", 91)));
+            }
+            assertEquals(OfflineMailbox.Deposit.FULL, mailbox.deposit("alice", "bob", key("bob", 91)));
+
+            // One requester cannot fill the mailbox for everyone by spreading over many targets
+            for (int i = 0; i < OfflineMailbox.MAX_PER_REQUESTER; i++) {
+                assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("target" + i, "mallory", key("mallory", 91)));
+            }
+            assertEquals(OfflineMailbox.Deposit.REQUESTER_FULL, mailbox.deposit("carol", "mallory", key("mallory", 91)));
+            assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("carol", "bob", key("bob", 91)));
+        }
+
+        // The requester's count is replayed, and drops as its requests are delivered
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(OfflineMailbox.Deposit.REQUESTER_FULL, mailbox.deposit("carol", "mallory", key("mallory", 91)));
+            mailbox.drain("target0");
+            assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("carol", "mallory", key("mallory", 91)));
+        }
+    }
+
+    @Test
+    void expiredRequestsAreNotDelivered() throws IOException {
+        Path path = directory.resolve("mailbox");
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path, 0)) {
+            mailbox.deposit("alice", "bob", key("bob", 91));
+            mailbox.deposit("carol", "bob", key("bob", 91));
+            assertEquals(List.of(), mailbox.drain("alice"));
+            assertEquals(1, mailbox.getExpiredLetters());
+        }
+
+        // Expired deposits are dropped on replay
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path, 0)) {
+            assertEquals(0, mailbox.size());
+        }
+    }
+
+    @Test
+    void deliveredRequestsAreCompactedAwayAndTheRestSurviveReopen() throws IOException {
+        Path path = directory.resolve("mailbox");
+        int drained = 40;
+        int keyLength = 40_000;
+        long fullLog;
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            mailbox.deposit("alice", "bob", key("bob", keyLength));
+            for (int i = 0; i < drained; i++) {
+                assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("target" + i, "requester" + i, key("r" + i, keyLength)));
+            }
+            mailbox.deposit("alice", "carol", key("carol", keyLength));
+            fullLog = Files.size(path);
+            for (int i = 0; i < drained; i++) {
+                assertEquals(1, mailbox.drain("target" + i).size());
+            }
+            assertEquals(2, mailbox.size());
+        }
+        long compactedLog = Files.size(path);
+        // Compaction runs once a megabyte is dead, the drains after it stay below that
+        assertTrue(compactedLog < fullLog / 2, "log was not compacted: " + compactedLog + " of " + fullLog);
+        assertFalse(Files.exists(directory.resolve("mailbox.compact")));
+
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(2, mailbox.size());
+            assertEquals(OfflineMailbox.Deposit.QUEUED, mailbox.deposit("dave", "erin", key("erin", 91)));
+        }
+
+        try (OfflineMailbox mailbox = OfflineMailbox.open(path)) {
+            assertEquals(List.of(new OfflineMailbox.Letter("bob", key("bob", keyLength)),
+                    new OfflineMailbox.Letter("carol", key("carol", keyLength))), mailbox.drain("alice"));
+            assertEquals(List.of(new OfflineMailbox.Letter("erin", key("erin", 91))), mailbox.drain("dave"));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.realtimesecurechat.server;
+
+import com.realtimesecurechat.protocol.ErrorMessage;
+import com.realtimesecurechat.protocol.WireFormat;
+import com.realtimesecurechat.utils.SessionCipher;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+    private final List<String> sentFrames = new CopyOnWriteArrayList<>();
+    private final AtomicReference<CloseReason> closeReason = new AtomicReference<>();
+
+    // A session whose text sends complete at once, and that records how it was closed
+    private Session session() {
+        RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(RemoteEndpoint.Async.class.getClassLoader(),
+                new Class<?>[]{RemoteEndpoint.Async.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("sendText") && args.length == 2) {
+                        sentFrames.add((String) args[0]);
+                        ((SendHandler) args[1]).onResult(new SendResult());
+                    }
+                    return null;
+                });
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> "1";
+                    case "isOpen" -> closeReason.get() == null;
+                    case "getAsyncRemote" -> remote;
+                    case "close" -> {
+                        closeReason.set(args != null ? (CloseReason) args[0] : null);
+                        yield null;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+
+    private static SessionCipher sessionCipher() throws Exception {
+        return SessionCipher.resume(new byte[32], new byte[16]);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition, String description) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting until " + description);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void messagesAfterAHandshakeUseTheNewCipher() throws Exception {
+        OutboundQueue queue = new OutboundQueue(session(), plainText -> "pk:" + plainText);
+        queue.sendAndSwitchCipher(new ErrorMessage("handshake"), sessionCipher(), WireFormat.TEXT);
+        queue.send(new ErrorMessage("after"));
+
+        awaitUntil(() -> sentFrames.size() == 2, "both messages are sent");
+        assertTrue(sentFrames.get(0).startsWith("pk:"));
+        assertFalse(sentFrames.get(1).startsWith("pk:"));
+        assertNull(closeReason.get());
+    }
+
+    @Test
+    void aHandshakeMessageThatFailsClosesTheSession() throws Exception {
+        OutboundQueue queue = new OutboundQueue(session(), plainText -> {
+            throw new IllegalStateException("public key encryption failed");
+        });
+        queue.sendAndSwitchCipher(new ErrorMessage("handshake"), sessionCipher(), WireFormat.TEXT);
+        queue.send(new ErrorMessage("after"));
+
+        awaitUntil(() -> closeReason.get() != null, "the session is closed");
+        assertEquals(CloseReason.CloseCodes.UNEXPECTED_CONDITION, closeReason.get().getCloseCode());
+        // Nothing reaches a client that never got the handshake, not even under the new cipher
+        Thread.sleep(100);
+        assertEquals(List.of(), sentFrames);
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    void theOverflowPolicyIsParsedLeniently() {
+        assertEquals(OutboundQueue.OverflowPolicy.DROP, OutboundQueue.parseOverflowPolicy(null));
+        assertEquals(OutboundQueue.OverflowPolicy.BLOCK, OutboundQueue.parseOverflowPolicy("block"));
+        assertEquals(OutboundQueue.OverflowPolicy.DISCONNECT, OutboundQueue.parseOverflowPolicy(" Disconnect "));
+        assertEquals(OutboundQueue.OverflowPolicy.DROP, OutboundQueue.parseOverflowPolicy("dorp"));
+    }
+}
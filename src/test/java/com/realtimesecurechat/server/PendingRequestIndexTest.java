@@ -0,0 +1,112 @@
+package com.realtimesecurechat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingRequestIndexTest {
+
+    @Test
+    void requestsExpireAfterTheirTtl() throws InterruptedException {
+        PendingRequestIndex index = new PendingRequestIndex(1000);
+        assertTrue(index.add("alice", "bob"));
+        assertTrue(index.contains("alice", "bob"));
+
+        // The timer wheel ticks once a second, a one second TTL is gone within three
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (index.size() > 0) {
+            assertTrue(System.nanoTime() < deadline, "request never expired");
+            Thread.sleep(100);
+        }
+        assertFalse(index.contains("alice", "bob"));
+        assertFalse(index.remove("alice", "bob"));
+        assertEquals(1, index.getExpiredRequests());
+    }
+
+    @Test
+    void anExpiredRequestIsNotAnsweredBeforeTheWheelReachesIt() {
+        // A zero TTL is expired as soon as it is added, the wheel only reaches it on its next tick
+        PendingRequestIndex index = new PendingRequestIndex(0);
+        assertTrue(index.add("alice", "bob"));
+        assertFalse(index.contains("alice", "bob"));
+        assertFalse(index.remove("alice", "bob"));
+        assertEquals(0, index.size());
+        assertEquals(1, index.getExpiredRequests());
+    }
+
+    @Test
+    void eachUserIsCappedInBothDirections() {
+        PendingRequestIndex index = new PendingRequestIndex();
+        int cap = PendingRequestIndex.MAX_PER_USER;
+
+        for (int i = 0; i < cap; i++) {
+            assertTrue(index.add("mallory", "target" + i));
+        }
+        assertFalse(index.add("mallory", "target" + cap));
+        // Refreshing a pending request is not a new one
+        assertTrue(index.add("mallory", "target0"));
+
+        for (int i = 0; i < cap; i++) {
+            assertTrue(index.add("requester" + i, "alice"));
+        }
+        assertFalse(index.add("requester" + cap, "alice"));
+        // A request refused by the requester's cap leaves nothing behind on the target side
+        assertFalse(index.add("mallory", "bob"));
+        assertFalse(index.contains("mallory", "bob"));
+
+        assertEquals(2 * cap, index.size());
+        assertEquals(3, index.getRejectedRequests());
+    }
+
+    @Test
+    void removingAUserOnlyDropsItsOwnRequests() {
+        PendingRequestIndex index = new PendingRequestIndex();
+        index.add("alice", "bob");
+        index.add("carol", "alice");
+        index.add("carol", "bob");
+        index.add("dave", "erin");
+
+        index.removeUser("alice");
+        assertFalse(index.contains("alice", "bob"));
+        assertFalse(index.contains("carol", "alice"));
+        assertTrue(index.contains("carol", "bob"));
+        assertTrue(index.contains("dave", "erin"));
+        assertEquals(2, index.size());
+
+        // Alice's slots under the caps are free again
+        for (int i = 0; i < PendingRequestIndex.MAX_PER_USER; i++) {
+            assertTrue(index.add("alice", "target" + i));
+        }
+    }
+
+    @Test
+    void concurrentRemovalsAnswerARequestOnce() throws Exception {
+        PendingRequestIndex index = new PendingRequestIndex();
+        try (ExecutorService approvers = Executors.newFixedThreadPool(2)) {
+            for (int round = 0; round < 2000; round++) {
+                String target = "bob" + round % 32;
+                assertTrue(index.add("alice", target));
+                // A local approval racing one routed from a peer node
+                CountDownLatch start = new CountDownLatch(1);
+                Callable<Boolean> approve = () -> {
+                    start.await();
+                    return index.remove("alice", target);
+                };
+                Future<Boolean> local = approvers.submit(approve);
+                Future<Boolean> routed = approvers.submit(approve);
+                start.countDown();
+                assertTrue(local.get() ^ routed.get(), "round " + round + " was not answered exactly once");
+            }
+        }
+        assertEquals(0, index.size());
+    }
+}
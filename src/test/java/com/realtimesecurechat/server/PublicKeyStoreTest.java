@@ -0,0 +1,145 @@
+package com.realtimesecurechat.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PublicKeyStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] key(int seed, int length) {
+        byte[] key = new byte[length];
+        Arrays.fill(key, (byte) seed);
+        key[0] = (byte) (seed >> 8);
+        return key;
+    }
+
+    private static void write(Path path, long position, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(bytes, position);
+        }
+    }
+
+    @Test
+    void bindingsAreReplayedAfterReopen() throws IOException {
+        Path path = directory.resolve("keys");
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            assertEquals(PublicKeyStore.Binding.BOUND, store.bind("alice", key(1, 91)));
+            assertEquals(PublicKeyStore.Binding.BOUND, store.bind("bob", key(2, 91)));
+            assertTrue(store.remove("alice"));
+            assertEquals(PublicKeyStore.Binding.BOUND, store.bind("alice", key(3, 91)));
+        }
+
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            assertEquals(2, store.size());
+            assertEquals(PublicKeyStore.Binding.MATCHED, store.bind("alice", key(3, 91)));
+            assertEquals(PublicKeyStore.Binding.CONFLICT, store.bind("alice", key(1, 91)));
+            assertEquals(PublicKeyStore.Binding.MATCHED, store.bind("bob", key(2, 91)));
+            assertFalse(store.remove("carol"));
+        }
+    }
+
+    @Test
+    void tornTailRecordIsDiscarded() throws IOException {
+        Path path = directory.resolve("keys");
+        long end;
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            store.bind("alice", key(1, 91));
+            store.bind("bob", key(2, 91));
+            end = store.getLogBytes();
+        }
+
+        // A crash after the length of the next record reached the file but before all of its body did
+        write(path, end, ByteBuffer.allocate(20).putInt(100).putInt(0x12345678).put((byte) 1).putShort((short) 5).flip());
+
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            assertEquals(2, store.size());
+            assertEquals(end, store.getLogBytes());
+            assertEquals(PublicKeyStore.Binding.BOUND, store.bind("carol", key(3, 91)));
+        }
+
+        // The tail was zeroed, the record appended in its place survives another reopen
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            assertEquals(3, store.size());
+            assertEquals(PublicKeyStore.Binding.MATCHED, store.bind("carol", key(3, 91)));
+        }
+    }
+
+    @Test
+    void corruptRecordDiscardsTheRestOfTheLog() throws IOException {
+        Path path = directory.resolve("keys");
+        long bobOffset;
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            store.bind("alice", key(1, 91));
+            bobOffset = store.getLogBytes();
+            store.bind("bob", key(2, 91));
+            store.bind("carol", key(3, 91));
+        }
+
+        // Flip a byte of bob's key, its CRC no longer matches
+        write(path, bobOffset + 8 + 20, ByteBuffer.wrap(new byte[]{(byte) 0xEE}));
+
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            assertEquals(1, store.size());
+            assertTrue(store.isKnown("alice"));
+            assertFalse(store.isKnown("bob"));
+            assertFalse(store.isKnown("carol"));
+            assertEquals(bobOffset, store.getLogBytes());
+        }
+    }
+
+    @Test
+    void removalsCompactTheLogAndSurviveReopen() throws IOException {
+        Path path = directory.resolve("keys");
+        int users = 100;
+        int kept = 10;
+        long fullLog;
+        long compactedLog;
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            for (int i = 0; i < users; i++) {
+                store.bind("user" + i, key(i, 1000));
+            }
+            fullLog = store.getLogBytes();
+            for (int i = kept; i < users; i++) {
+                assertTrue(store.remove("user" + i));
+            }
+            compactedLog = store.getLogBytes();
+            assertEquals(kept, store.size());
+        }
+        assertTrue(compactedLog < fullLog / 2, "log was not compacted: " + compactedLog + " of " + fullLog);
+        assertFalse(Files.exists(directory.resolve("keys.compact")));
+
+        for (int reopen = 0; reopen < 2; reopen++) {
+            try (PublicKeyStore store = PublicKeyStore.open(path)) {
+                assertEquals(kept, store.size());
+                assertEquals(compactedLog, store.getLogBytes());
+                for (int i = 0; i < kept; i++) {
+                    assertEquals(PublicKeyStore.Binding.MATCHED, store.bind("user" + i, key(i, 1000)));
+                    assertEquals(PublicKeyStore.Binding.CONFLICT, store.bind("user" + i, key(i + 1, 1000)));
+                }
+                assertFalse(store.isKnown("user" + kept));
+            }
+        }
+
+        // Appends after compaction land in the compacted log
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            assertEquals(PublicKeyStore.Binding.BOUND, store.bind("user" + kept, key(7, 1000)));
+        }
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            assertEquals(PublicKeyStore.Binding.MATCHED, store.bind("user" + kept, key(7, 1000)));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.realtimesecurechat.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PublicKeyStoreToolTest {
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final PrintStream out = new PrintStream(output, true);
+
+    @TempDir
+    Path directory;
+
+    private int run(String... args) {
+        return PublicKeyStoreTool.run(args, out, out);
+    }
+
+    @Test
+    void revokedUsersCanRegisterANewKey() throws IOException {
+        Path path = directory.resolve("keys");
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            store.bind("alice", new byte[]{1, 2, 3});
+            store.bind("bob", new byte[]{4, 5, 6});
+        }
+
+        assertEquals(0, run(path.toString(), "revoke", "alice"));
+        assertEquals(1, run(path.toString(), "revoke", "alice", "carol"));
+
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            assertFalse(store.isKnown("alice"));
+            assertTrue(store.isKnown("bob"));
+            assertEquals(PublicKeyStore.Binding.BOUND, store.bind("alice", new byte[]{7, 8, 9}));
+        }
+    }
+
+    @Test
+    void aStoreInUseByANodeIsLeftAlone() throws IOException {
+        Path path = directory.resolve("keys");
+        try (PublicKeyStore store = PublicKeyStore.open(path)) {
+            store.bind("alice", new byte[]{1, 2, 3});
+
+            assertThrows(IOException.class, () -> PublicKeyStore.open(path));
+            assertEquals(2, run(path.toString(), "revoke", "alice"));
+            assertTrue(output.toString().contains("in use"), output.toString());
+            assertTrue(store.isKnown("alice"));
+        }
+        assertEquals(0, run(path.toString(), "revoke", "alice"));
+    }
+
+    @Test
+    void usageErrorsTouchNothing() {
+        assertEquals(2, run());
+        assertEquals(2, run(directory.resolve("keys").toString(), "revoke", "alice"));
+        assertEquals(2, run(directory.toString(), "list"));
+    }
+}
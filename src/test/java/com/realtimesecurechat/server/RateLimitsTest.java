@@ -0,0 +1,22 @@
+package com.realtimesecurechat.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitsTest {
+
+    @Test
+    void aFloodingRequesterDoesNotLockOthersOutOfATarget() {
+        int granted = 0;
+        while (RateLimits.tryAcquireTarget("mallory", "alice")) {
+            granted++;
+            assertTrue(granted <= RateLimits.TARGET_BURST + 1, "the target limit never applied");
+        }
+        assertFalse(RateLimits.tryAcquireTarget("mallory", "alice"));
+
+        assertTrue(RateLimits.tryAcquireTarget("bob", "alice"));
+        assertTrue(RateLimits.tryAcquireTarget("mallory", "carol"));
+    }
+}
@@ -0,0 +1,58 @@
+package com.realtimesecurechat.server;
+
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistrationAdmissionTest {
+    private final ClientRegistry registry = new ClientRegistry(Runnable::run, new InMemoryPresenceDirectory());
+
+    // A session that only carries its ID and user properties, nothing is sent in these tests
+    private static Session session(String id) {
+        Map<String, Object> userProperties = new HashMap<>();
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "getUserProperties" -> userProperties;
+                    case "isOpen" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+
+    @Test
+    void aVerifierErrorFailsOneRegistrationAndTheBatcherCarriesOn() {
+        List<String> applied = new CopyOnWriteArrayList<>();
+        ClientConnection failing = registry.open(session("failing"));
+        RegistrationAdmission admission = new RegistrationAdmission(request -> {
+            if (request.connection() == failing) {
+                throw new StackOverflowError("verifier failed");
+            }
+            return request.connection().getSession().getId();
+        }, verified -> {
+            if (verified.contains("applier-fails")) {
+                throw new AssertionError("applier failed");
+            }
+            applied.addAll(verified);
+        });
+
+        // Each admit returns only once its batch was handled, a dead batcher would block it for good
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertTrue(admission.admit(null, null, failing, null));
+            assertTrue(admission.admit(null, null, registry.open(session("applier-fails")), null));
+            assertTrue(admission.admit(null, null, registry.open(session("1")), null));
+        });
+        assertEquals(List.of("1"), applied);
+    }
+}
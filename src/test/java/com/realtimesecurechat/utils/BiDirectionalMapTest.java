@@ -0,0 +1,118 @@
+package com.realtimesecurechat.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Pair semantics, and a randomized multi-threaded run checked for consistency once quiescent.
+ * The interleavings of single operations on one pair are covered by the jcstress suite,
+ * see src/jcstress/java.
+ */
+class BiDirectionalMapTest {
+
+    @Test
+    void putReplacesThePairsHoldingTheKeyOrTheValue() {
+        BiDirectionalMap<String, Integer> map = new BiDirectionalMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("a", 2);
+
+        assertEquals(2, map.getValue("a"));
+        assertEquals("a", map.getKey(2));
+        assertNull(map.getValue("b"));
+        assertNull(map.getKey(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void conditionalOperationsOnlyApplyToTheExpectedPair() {
+        BiDirectionalMap<String, Integer> map = new BiDirectionalMap<>();
+        assertTrue(map.putIfAbsent("a", 1));
+        assertFalse(map.putIfAbsent("a", 2));
+        assertFalse(map.putIfAbsent("b", 1));
+
+        map.put("b", 2);
+        assertFalse(map.replace("a", 3, 4));
+        assertFalse(map.replace("a", 1, 2));
+        assertTrue(map.replace("a", 1, 3));
+        assertEquals("a", map.getKey(3));
+        assertNull(map.getKey(1));
+
+        assertFalse(map.remove("a", 1));
+        assertTrue(map.remove("a", 3));
+        map.removeByValue(2);
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void concurrentWritersLeaveConsistentPairs() throws InterruptedException {
+        BiDirectionalMap<Integer, Integer> map = new BiDirectionalMap<>();
+        int threads = 8;
+        int keys = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Throwable> failures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 200_000; i++) {
+                        int key = random.nextInt(keys);
+                        int value = random.nextInt(keys);
+                        switch (random.nextInt(7)) {
+                            case 0 -> map.put(key, value);
+                            case 1 -> map.putIfAbsent(key, value);
+                            case 2 -> map.replace(key, value, random.nextInt(keys));
+                            case 3 -> map.removeByKey(key);
+                            case 4 -> map.removeByValue(value);
+                            case 5 -> map.remove(key, value);
+                            default -> {
+                                // Readers race the writers, taking the locked fallback when they meet one
+                                map.getValue(key);
+                                map.getKey(value);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        start.countDown();
+        assertTrue(done.await(2, TimeUnit.MINUTES));
+        assertTrue(failures.isEmpty(), () -> "Writer failed: " + failures);
+
+        int pairs = 0;
+        for (int key = 0; key < keys; key++) {
+            Integer value = map.getValue(key);
+            if (value != null) {
+                pairs++;
+                assertEquals(key, map.getKey(value), "Reverse lookup of " + key + " -> " + value);
+            }
+        }
+        for (int value = 0; value < keys; value++) {
+            Integer key = map.getKey(value);
+            if (key != null) {
+                assertEquals(value, map.getValue(key), "Forward lookup of " + key + " <- " + value);
+            }
+        }
+        assertEquals(pairs, map.size());
+    }
+}
@@ -0,0 +1,40 @@
+package com.realtimesecurechat.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionDetailsCodecTest {
+    private static final String DETAILS = "{\"iceCandidates\":[\"candidate:1 1 udp 2130706431 192.168.1.20 50000 typ host\","
+            + "\"candidate:2 1 udp 1694498815 203.0.113.7 50001 typ srflx raddr 192.168.1.20 rport 50000\"],"
+            + "\"sdp\":\"v=0\\r\\no=- 4611731400430051336 2 IN IP4 0.0.0.0\\r\\ns=-\\r\\nt=0 0\\r\\n"
+            + "a=group:BUNDLE 0\\r\\na=extmap-allow-mixed\\r\\na=msid-semantic:WMS*\\r\\n"
+            + "m=application 9 UDP/DTLS/SCTP webrtc-datachannel\\r\\nc=IN IP4 0.0.0.0\\r\\n"
+            + "a=setup:actpass\\r\\na=mid:0\\r\\na=sendrecv\\r\\na=sctp-port:5000\\r\\n"
+            + "a=max-message-size:262144\\r\\n\"}";
+
+    @Test
+    void detailsSurviveARoundTripAndShrink() throws DataFormatException {
+        byte[] encoded = ConnectionDetailsCodec.encode(DETAILS);
+        assertTrue(encoded.length < DETAILS.length() / 2, encoded.length + " of " + DETAILS.length());
+        assertEquals(DETAILS, ConnectionDetailsCodec.decode(encoded));
+    }
+
+    @Test
+    void plainDetailsFromAnOlderClientAreDecodedAsTheyAre() throws DataFormatException {
+        assertEquals(DETAILS, ConnectionDetailsCodec.decode(DETAILS.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void truncatedDetailsAreRefused() {
+        byte[] encoded = ConnectionDetailsCodec.encode(DETAILS);
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length / 2);
+        assertThrows(DataFormatException.class, () -> ConnectionDetailsCodec.decode(truncated));
+    }
+}
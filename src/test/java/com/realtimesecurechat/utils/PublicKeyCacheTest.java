@@ -0,0 +1,68 @@
+package com.realtimesecurechat.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+ * The cache is shared by the whole JVM, so counters are compared before and after.
+ */
+class PublicKeyCacheTest {
+
+    private static String newPublicKey() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        return Base64.getEncoder().encodeToString(generator.generateKeyPair().getPublic().getEncoded());
+    }
+
+    @Test
+    void aKeySeenBeforeIsFoundByItsFingerprint() throws GeneralSecurityException {
+        String encodedKey = newPublicKey();
+        long misses = PublicKeyCache.getMisses();
+        long hits = PublicKeyCache.getHits();
+
+        PublicKey decoded = PublicKeyCache.decode(encodedKey);
+        assertArrayEquals(Base64.getDecoder().decode(encodedKey), decoded.getEncoded());
+        // Another string with the same encoding, as it arrives in the next message
+        assertSame(decoded, PublicKeyCache.decode(new String(encodedKey.toCharArray())));
+
+        assertEquals(misses + 1, PublicKeyCache.getMisses());
+        assertEquals(hits + 1, PublicKeyCache.getHits());
+    }
+
+    @Test
+    void theLeastRecentlyUsedKeyIsEvicted() throws GeneralSecurityException {
+        String kept = newPublicKey();
+        String evicted = newPublicKey();
+        PublicKey keptKey = PublicKeyCache.decode(kept);
+        PublicKey evictedKey = PublicKeyCache.decode(evicted);
+
+        // Fill the cache with new keys while kept stays in use
+        for (int i = 0; i < PublicKeyCache.MAX_ENTRIES; i++) {
+            PublicKeyCache.decode(newPublicKey());
+            PublicKeyCache.decode(kept);
+        }
+
+        long misses = PublicKeyCache.getMisses();
+        assertSame(keptKey, PublicKeyCache.decode(kept));
+        assertEquals(misses, PublicKeyCache.getMisses());
+        assertNotSame(evictedKey, PublicKeyCache.decode(evicted));
+        assertEquals(misses + 1, PublicKeyCache.getMisses());
+    }
+
+    @Test
+    void malformedKeysAreRefused() {
+        assertThrows(GeneralSecurityException.class, () -> PublicKeyCache.decode("not base64!"));
+        assertThrows(GeneralSecurityException.class,
+                () -> PublicKeyCache.decode(Base64.getEncoder().encodeToString(new byte[]{1, 2, 3})));
+    }
+}
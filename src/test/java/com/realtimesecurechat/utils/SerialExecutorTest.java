@@ -0,0 +1,43 @@
+package com.realtimesecurechat.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SerialExecutorTest {
+
+    @Test
+    void tasksRunInOrderPastFailingOnes() throws InterruptedException {
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        try (ExecutorService delegate = Executors.newVirtualThreadPerTaskExecutor()) {
+            SerialExecutor executor = new SerialExecutor(delegate);
+            executor.execute(() -> ran.add(1));
+            executor.execute(() -> {
+                throw new IllegalStateException("task failed");
+            });
+            executor.execute(() -> ran.add(2));
+            executor.execute(() -> {
+                throw new AssertionError("task failed with an Error");
+            });
+            executor.execute(() -> ran.add(3));
+            executor.execute(done::countDown);
+
+            assertTrue(done.await(10, TimeUnit.SECONDS), "tasks after a failure never ran");
+            assertEquals(List.of(1, 2, 3), ran);
+
+            // The executor still starts a drain for work submitted once it is idle
+            CountDownLatch later = new CountDownLatch(1);
+            executor.execute(later::countDown);
+            assertTrue(later.await(10, TimeUnit.SECONDS), "the executor stalled after an Error");
+        }
+    }
+}